@@ -0,0 +1,97 @@
+package com.clarifi.phoenix.ashes.loadgen;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One line of a traffic capture: a request as it reached {@code /api2}, serialized as a JSON object.
+ * <pre>
+ * {"timestampMicros":1729000000000000,"method":"GET","route":"/data-session/get/{sessionId}",
+ *  "path":"/api2/data-session/get/0f8e...?userId=u1","headers":{"If-None-Match":"\"1a2b\""},"status":200}
+ * </pre>
+ * {@code route} is the matched route template, used to group latencies; {@code status} and
+ * {@code timestampMicros} are informational. Lines without {@code method} and {@code path} are not
+ * requests and are skipped by {@link #parse}.
+ */
+public class CapturedRequest {
+    private static final Gson GSON = new Gson();
+
+    private long timestampMicros;
+    private String method;
+    private String route;
+    private String path;
+    private Map<String, String> headers;
+    private String body;
+    private int status;
+
+    public CapturedRequest() {
+    }
+
+    public CapturedRequest(final long timestampMicros, final String method, final String route, final String path,
+                           final Map<String, String> headers, final String body, final int status) {
+        this.timestampMicros = timestampMicros;
+        this.method = method;
+        this.route = route;
+        this.path = path;
+        this.headers = headers;
+        this.body = body;
+        this.status = status;
+    }
+
+    /**
+     * @return The request on {@code line}, or {@code null} if the line is not a captured request.
+     */
+    public static CapturedRequest parse(final String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            final CapturedRequest request = GSON.fromJson(line, CapturedRequest.class);
+            return request == null || request.method == null || request.path == null ? null : request;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The route template, or the path without its query when the capture has none.
+     */
+    public String getRoute() {
+        if (route != null) {
+            return route;
+        }
+        final int query = path.indexOf('?');
+        return query < 0 ? path : path.substring(0, query);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers == null ? Collections.emptyMap() : headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
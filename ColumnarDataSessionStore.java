@@ -0,0 +1,177 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The partitioned layout with sessions stored as {@link ColumnarSessionCodec} records: each value is a
+ * compressed {@code byte[]} rather than a binary object, so server nodes hold less, less crosses the
+ * network, and the cache is used with {@code withKeepBinary()} so nothing is unmarshalled on the way.
+ * Sessions are decoded on the API node only when a handler asks for one: a GET that accepts
+ * {@link ColumnarSessionCodec#PROJECTION_JSON} is written straight from the record by {@link #getRecord}.
+ * <p>
+ * Access times are kept in {@link DataSessionAccessTimes} as in {@link PartitionedDataSessionStore}, so a
+ * touch never rewrites a compressed record and idle scans read no record at all. As there, the per-user
+ * writers know nothing of these caches and {@link ServerApp} only starts read-only in this mode; sessions
+ * come in through {@link #put}, which is also how {@link LocalClusterHarness} seeds them. Sizes of the stored records, and of the same records with
+ * every block uncompressed, are recorded in {@code data_session_record_size}.
+ */
+public class ColumnarDataSessionStore implements DataSessionStore {
+    public static final String CACHE_NAME = "data-sessions-columnar";
+
+    private static final Logger _logger = Logging.getLogger(ColumnarDataSessionStore.class);
+    private static final int REMOVE_BATCH_SIZE = 512;
+    private static final AttributeKey<String> FORM = AttributeKey.stringKey("form");
+
+    private final IgniteCache<Object, byte[]> cache;
+    private final Ignite ignite;
+    private final IgniteCache<DataSessionKey, Long> accessTimes;
+    private final ColumnarSessionCodec codec;
+    private final HedgedReads hedgedReads;
+    private final LongHistogram recordSize;
+    private final Attributes stored;
+    private final Attributes uncompressed;
+
+    public ColumnarDataSessionStore(final Ignite ignite, final int backups, final ColumnarSessionCodec codec,
+                                    final HedgedReads hedgedReads) {
+        this.cache = IgniteInstrumentation.cache(ignite.getOrCreateCache(configuration(backups)).withKeepBinary());
+        this.ignite = ignite;
+        this.accessTimes = IgniteInstrumentation.cache(ignite.getOrCreateCache(DataSessionAccessTimes.configuration(backups)));
+        this.codec = codec;
+        this.hedgedReads = hedgedReads;
+        this.recordSize = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server")
+                .histogramBuilder("data_session_record_size")
+                .setDescription("Size of encoded data sessions as stored, and with every block uncompressed")
+                .setUnit("By")
+                .ofLongs()
+                .build();
+        final String compression = codec.getCompression().name().toLowerCase();
+        this.stored = Attributes.of(FORM, compression);
+        this.uncompressed = Attributes.of(FORM, "uncompressed");
+    }
+
+    public static CacheConfiguration<DataSessionKey, byte[]> configuration(final int backups) {
+        return new CacheConfiguration<DataSessionKey, byte[]>(CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(backups)
+                .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration());
+    }
+
+    @Override
+    public boolean hasUser(final String userId) {
+        return DataSessionAccessTimes.hasUser(ignite, accessTimes, userId);
+    }
+
+    @Override
+    public PackedDataSession get(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        return codec.decode(hedgedReads == null
+                ? Deadline.await(cache.getAsync(key)) : Deadline.await(hedgedReads.get(cache, key)));
+    }
+
+    @Override
+    public CompletableFuture<PackedDataSession> getAsync(final String userId, final UUID sessionId) {
+        return IgniteFutures.completable(cache.getAsync(new DataSessionKey(userId, sessionId))).thenApply(codec::decode);
+    }
+
+    @Override
+    public boolean storesRecords() {
+        return true;
+    }
+
+    @Override
+    public byte[] getRecord(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        return hedgedReads == null
+                ? Deadline.await(cache.getAsync(key)) : Deadline.await(hedgedReads.get(cache, key));
+    }
+
+    @Override
+    public boolean contains(final String userId, final UUID sessionId) {
+        return Deadline.await(cache.containsKeyAsync(new DataSessionKey(userId, sessionId)));
+    }
+
+    @Override
+    public void put(final String userId, final UUID sessionId, final PackedDataSession session) {
+        final byte[] record = codec.encode(session);
+        recordSize.record(record.length, stored);
+        recordSize.record(ColumnarSessionCodec.uncompressedLength(record), uncompressed);
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        cache.put(key, record);
+        accessTimes.put(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+        return Deadline.await(cache.invokeAsync(new DataSessionKey(userId, sessionId),
+                new DataSessionProjection.OfRecord<>(projection)));
+    }
+
+    @Override
+    public boolean remove(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        accessTimes.remove(key);
+        return cache.remove(key);
+    }
+
+    @Override
+    public boolean touch(final String userId, final UUID sessionId) {
+        accessTimes.invokeAsync(new DataSessionKey(userId, sessionId),
+                new DataSessionAccessTimes.Touch(System.currentTimeMillis()));
+        return true;
+    }
+
+    @Override
+    public int evictIdle(final Duration maxIdle) {
+        //-- The filter runs on the server nodes over the access times, only idle keys travel back
+        final ScanQuery<DataSessionKey, Long> query =
+                new ScanQuery<>(new DataSessionAccessTimes.IdleFilter(maxIdle.toMillis()));
+
+        int evicted = 0;
+        final Set<DataSessionKey> batch = new HashSet<>();
+        try (QueryCursor<Cache.Entry<DataSessionKey, Long>> cursor = accessTimes.query(query)) {
+            for (Cache.Entry<DataSessionKey, Long> entry : cursor) {
+                batch.add(entry.getKey());
+                if (batch.size() == REMOVE_BATCH_SIZE) {
+                    evicted += batch.size();
+                    removeAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            evicted += batch.size();
+            removeAll(batch);
+        }
+
+        if (evicted > 0) {
+            _logger.info("Evicted {} idle data sessions from '{}'", evicted, CACHE_NAME);
+        }
+        return evicted;
+    }
+
+    private void removeAll(final Set<DataSessionKey> keys) {
+        cache.removeAll(keys);
+        accessTimes.removeAll(keys);
+    }
+}
@@ -0,0 +1,806 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import com.github.luben.zstd.Zstd;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.apache.ignite.IgniteBinary;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.binary.BinaryObjectBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Storage codec for data sessions: a compact columnar record kept in the cache as a plain {@code byte[]}
+ * instead of a full binary object, so server nodes hold and ship fewer bytes and nothing is unmarshalled
+ * until a handler decodes it.
+ * <p>
+ * Every top-level field of the session is one column block. Primitive arrays are written as raw runs
+ * (long arrays delta-encoded, which suits ascending dates and ids), and a block of at least
+ * {@code minCompressBytes} is compressed with LZ4 or zstd when that makes it smaller. The header repeats
+ * the session's last access time as it was encoded; records are never rewritten to move it, current access
+ * times are kept in {@link DataSessionAccessTimes}.
+ * <p>
+ * Layout: {@code magic:int version:byte lastAccessedAt:long typeName:str columns:short}, then per column
+ * {@code name:str compression:byte rawLength:int storedLength:int block}. A block holds one value, a tag
+ * byte followed by its payload. Nested objects, collections and maps are encoded recursively and rebuilt
+ * through {@link IgniteBinary}, so the codec needs no knowledge of the session classes.
+ */
+public class ColumnarSessionCodec {
+    static final int MAGIC = 0x50445331;
+    static final byte VERSION = 1;
+    static final int LAST_ACCESSED_OFFSET = 5;
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte UUID_VALUE = 10;
+    private static final byte DATE = 11;
+    private static final byte TIMESTAMP = 12;
+    private static final byte DECIMAL = 13;
+    private static final byte BOOLEAN_ARRAY = 20;
+    private static final byte BYTE_ARRAY = 21;
+    private static final byte SHORT_ARRAY = 22;
+    private static final byte CHAR_ARRAY = 23;
+    private static final byte INT_ARRAY = 24;
+    private static final byte LONG_ARRAY = 25;
+    private static final byte FLOAT_ARRAY = 26;
+    private static final byte DOUBLE_ARRAY = 27;
+    private static final byte STRING_ARRAY = 28;
+    private static final byte OBJECT_ARRAY = 29;
+    private static final byte LIST = 30;
+    private static final byte LINKED_SET = 31;
+    private static final byte SET = 32;
+    private static final byte LINKED_MAP = 33;
+    private static final byte MAP = 34;
+    //-- Ordinal only; no longer written, still read from older records
+    private static final byte ENUM = 40;
+    private static final byte OBJECT = 41;
+    private static final byte SERIALIZED = 42;
+    private static final byte NAMED_ENUM = 43;
+
+    /**
+     * Media type of {@link #writeJson}; the version moves whenever that format changes.
+     */
+    public static final String PROJECTION_JSON = "application/vnd.phoenix.projection.v1+json";
+
+    public enum Compression {
+        NONE, LZ4, ZSTD
+    }
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeHierarchyAdapter(Date.class, (JsonSerializer<Date>) (date, type, context) ->
+                    new JsonPrimitive(instant(date).toString()))
+            .create();
+
+    private final IgniteBinary binary;
+    private final Compression compression;
+    private final int minCompressBytes;
+    private final int zstdLevel;
+
+    public ColumnarSessionCodec(final IgniteBinary binary, final Compression compression,
+                                final int minCompressBytes, final int zstdLevel) {
+        this.binary = binary;
+        this.compression = compression;
+        this.minCompressBytes = minCompressBytes;
+        this.zstdLevel = zstdLevel;
+    }
+
+    /**
+     * {@code phoenix.storage.compression} is {@code none}, {@code lz4} (the default) or {@code zstd}, applied
+     * to blocks of at least {@code phoenix.storage.compression.minBytes} (256); zstd runs at
+     * {@code phoenix.storage.compression.zstdLevel} (3).
+     */
+    public static ColumnarSessionCodec fromSystemProperties(final IgniteBinary binary) {
+        return new ColumnarSessionCodec(binary,
+                Compression.valueOf(System.getProperty("phoenix.storage.compression", "lz4").toUpperCase()),
+                Integer.getInteger("phoenix.storage.compression.minBytes", 256),
+                Integer.getInteger("phoenix.storage.compression.zstdLevel", 3));
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public byte[] encode(final PackedDataSession session) {
+        final BinaryObject object = binary.toBinary(session);
+        return encode(object, session.getLastAccessedAt().toEpochMilli(), object.type().fieldNames(),
+                compression, minCompressBytes, zstdLevel);
+    }
+
+    /**
+     * Encodes the given fields of {@code object}; needs no {@link IgniteBinary}, so it also runs on server nodes.
+     */
+    static byte[] encode(final BinaryObject object, final long lastAccessedAt, final Collection<String> fields,
+                         final Compression compression, final int minCompressBytes, final int zstdLevel) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(lastAccessedAt);
+            writeString(out, object.type().typeName());
+
+            int present = 0;
+            for (String field : fields) {
+                if (object.hasField(field)) {
+                    present++;
+                }
+            }
+            out.writeShort(present);
+
+            final ByteArrayOutputStream column = new ByteArrayOutputStream(1024);
+            for (String field : fields) {
+                if (!object.hasField(field)) {
+                    continue;
+                }
+                column.reset();
+                writeValue(new DataOutputStream(column), object.field(field));
+                writeColumn(out, field, column.toByteArray(), compression, minCompressBytes, zstdLevel);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeColumn(final DataOutputStream out, final String field, final byte[] raw,
+                                    final Compression compression, final int minCompressBytes, final int zstdLevel)
+            throws IOException {
+        final byte[] compressed = raw.length >= minCompressBytes ? compress(raw, compression, zstdLevel) : null;
+
+        writeString(out, field);
+        if (compressed != null && compressed.length < raw.length) {
+            out.writeByte(compression.ordinal());
+            out.writeInt(raw.length);
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        } else {
+            out.writeByte(Compression.NONE.ordinal());
+            out.writeInt(raw.length);
+            out.writeInt(raw.length);
+            out.write(raw);
+        }
+    }
+
+    public PackedDataSession decode(final byte[] record) {
+        return record == null ? null : decodeBinary(record).deserialize();
+    }
+
+    BinaryObject decodeBinary(final byte[] record) {
+        final ByteBuffer in = header(record);
+        final BinaryObjectBuilder builder = binary.builder(readString(in));
+        final int columns = in.getShort();
+        for (int i = 0; i < columns; i++) {
+            final String field = readString(in);
+            builder.setField(field, readValue(block(in), binary));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Keeps only the projected columns of a record and, in the key columns and the projection's row columns
+     * as long as them, only the matching rows. Other columns are copied as stored, still compressed. Needs no
+     * {@link IgniteBinary}, so it runs on server nodes.
+     */
+    static byte[] project(final byte[] record, final DataSessionProjection projection) {
+        final ByteBuffer in = header(record);
+        final String typeName = readString(in);
+        final int columns = in.getShort();
+
+        final List<String> names = new ArrayList<>();
+        final List<int[]> extents = new ArrayList<>();
+        final Map<Integer, BitSet> rows = new HashMap<>();
+        for (int i = 0; i < columns; i++) {
+            final String field = readString(in);
+            final int start = in.position();
+            final boolean dataItems = projection.filtersDataItems() && field.equals(projection.getDataItemColumn());
+            final boolean dates = projection.filtersDates() && field.equals(projection.getDateColumn());
+            if (!dataItems && !dates) {
+                skipBlock(in);
+            } else {
+                final long[] keys = keys(readValue(block(in), null), field);
+                final BitSet matching = new BitSet(keys.length);
+                for (int row = 0; row < keys.length; row++) {
+                    if (dataItems ? projection.matchesDataItem(keys[row]) : projection.matchesDate(keys[row])) {
+                        matching.set(row);
+                    }
+                }
+                rows.merge(keys.length, matching, (a, b) -> {
+                    a.and(b);
+                    return a;
+                });
+            }
+            if (projection.includes(field)) {
+                names.add(field);
+                extents.add(new int[] {start, in.position()});
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(lastAccessedAt(record));
+            writeString(out, typeName);
+            out.writeShort(names.size());
+
+            for (int i = 0; i < names.size(); i++) {
+                final int start = extents.get(i)[0];
+                final int end = extents.get(i)[1];
+                final byte[] filtered = rows.isEmpty() || !projection.filtersRows(names.get(i))
+                        ? null : filterRows(record, start, rows);
+                if (filtered != null) {
+                    writeColumn(out, names.get(i), filtered, Compression.NONE, 0, 0);
+                } else {
+                    writeString(out, names.get(i));
+                    out.write(record, start, end - start);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The raw block of the column at {@code start} with only the selected rows, or {@code null} if
+     *         it is not a primitive array with a row selection of its length.
+     */
+    private static byte[] filterRows(final byte[] record, final int start, final Map<Integer, BitSet> rows)
+            throws IOException {
+        final ByteBuffer in = ByteBuffer.wrap(record);
+        in.position(start);
+        final ByteBuffer block = block(in);
+        final byte tag = block.get(block.position());
+        if (tag < BOOLEAN_ARRAY || tag > DOUBLE_ARRAY) {
+            return null;
+        }
+
+        final Object array = readValue(block, null);
+        final BitSet selected = rows.get(Array.getLength(array));
+        if (selected == null) {
+            return null;
+        }
+        final Object filtered = Array.newInstance(array.getClass().getComponentType(), selected.cardinality());
+        int next = 0;
+        for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) {
+            Array.set(filtered, next++, Array.get(array, row));
+        }
+
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream(Array.getLength(filtered) * 8 + 8);
+        writeValue(new DataOutputStream(raw), filtered);
+        return raw.toByteArray();
+    }
+
+    private static long[] keys(final Object column, final String field) {
+        if (column instanceof long[]) {
+            return (long[]) column;
+        }
+        final long[] keys = new long[column == null ? 0 : Array.getLength(column)];
+        if (column instanceof int[]) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = ((int[]) column)[i];
+            }
+        } else if (column instanceof short[]) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = ((short[]) column)[i];
+            }
+        } else if (column != null) {
+            throw new IllegalArgumentException("Column '" + field + "' is not an integer array");
+        }
+        return keys;
+    }
+
+    /**
+     * Writes a record as one JSON object of its columns, without rebuilding the session. This is the
+     * projection format, {@link #PROJECTION_JSON}, not the format of full reads:
+     * <ul>
+     *     <li>nested objects are JSON objects of their fields, maps are JSON objects keyed by their keys,</li>
+     *     <li>enums are their constant name,</li>
+     *     <li>dates and timestamps are ISO-8601 instants in UTC, whatever the locale,</li>
+     *     <li>other serializable values are written field by field by Gson.</li>
+     * </ul>
+     */
+    public static void writeJson(final byte[] record, final JsonWriter out) throws IOException {
+        final ByteBuffer in = header(record);
+        readString(in);
+        final int columns = in.getShort();
+
+        out.beginObject();
+        for (int i = 0; i < columns; i++) {
+            out.name(readString(in));
+            final Object value = readValue(block(in), null);
+            if (value == null) {
+                out.nullValue();
+            } else {
+                GSON.toJson(value, value.getClass(), out);
+            }
+        }
+        out.endObject();
+    }
+
+    private static Instant instant(final Date date) {
+        return date instanceof Timestamp ? ((Timestamp) date).toInstant() : Instant.ofEpochMilli(date.getTime());
+    }
+
+    /**
+     * @return The last access time the session had when it was encoded, in epoch milliseconds.
+     */
+    public static long lastAccessedAt(final byte[] record) {
+        return ByteBuffer.wrap(record).getLong(LAST_ACCESSED_OFFSET);
+    }
+
+    /**
+     * @return Size of the record with every block uncompressed.
+     */
+    public static int uncompressedLength(final byte[] record) {
+        final ByteBuffer in = header(record);
+        readString(in);
+        final int columns = in.getShort();
+        int length = in.position();
+        for (int i = 0; i < columns; i++) {
+            final int start = in.position();
+            readString(in);
+            in.get();
+            final int rawLength = in.getInt();
+            final int storedLength = in.getInt();
+            in.position(in.position() + storedLength);
+            length += in.position() - start - storedLength + rawLength;
+        }
+        return length;
+    }
+
+    private static ByteBuffer header(final byte[] record) {
+        final ByteBuffer in = ByteBuffer.wrap(record);
+        if (in.getInt() != MAGIC || in.get() != VERSION) {
+            throw new IllegalArgumentException("Not an encoded data session");
+        }
+        in.getLong();
+        return in;
+    }
+
+    private static ByteBuffer block(final ByteBuffer in) {
+        final Compression stored = Compression.values()[in.get()];
+        final int rawLength = in.getInt();
+        final int storedLength = in.getInt();
+        final int offset = in.position();
+        in.position(offset + storedLength);
+
+        switch (stored) {
+            case NONE:
+                return ByteBuffer.wrap(in.array(), offset, storedLength).slice();
+            case LZ4: {
+                final byte[] raw = new byte[rawLength];
+                Lz4.DECOMPRESSOR.decompress(in.array(), offset, raw, 0, rawLength);
+                return ByteBuffer.wrap(raw);
+            }
+            case ZSTD: {
+                final byte[] raw = new byte[rawLength];
+                final long size = Zstd.decompressByteArray(raw, 0, rawLength, in.array(), offset, storedLength);
+                if (Zstd.isError(size)) {
+                    throw new IllegalStateException("Corrupt zstd block: " + Zstd.getErrorName(size));
+                }
+                return ByteBuffer.wrap(raw);
+            }
+            default:
+                throw new IllegalStateException("Unknown compression: " + stored);
+        }
+    }
+
+    private static void skipBlock(final ByteBuffer in) {
+        in.get();
+        in.getInt();
+        final int storedLength = in.getInt();
+        in.position(in.position() + storedLength);
+    }
+
+    private static byte[] compress(final byte[] raw, final Compression compression, final int zstdLevel) {
+        switch (compression) {
+            case LZ4: {
+                final byte[] out = new byte[Lz4.COMPRESSOR.maxCompressedLength(raw.length)];
+                final int length = Lz4.COMPRESSOR.compress(raw, 0, raw.length, out, 0, out.length);
+                final byte[] compressed = new byte[length];
+                System.arraycopy(out, 0, compressed, 0, length);
+                return compressed;
+            }
+            case ZSTD:
+                return Zstd.compress(raw, zstdLevel);
+            default:
+                return null;
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof BinaryObject) {
+            final BinaryObject object = (BinaryObject) value;
+            if (object.type().isEnum()) {
+                out.writeByte(NAMED_ENUM);
+                writeString(out, object.type().typeName());
+                out.writeInt(object.enumOrdinal());
+                writeString(out, object.enumName());
+            } else {
+                final Collection<String> fields = object.type().fieldNames();
+                out.writeByte(OBJECT);
+                writeString(out, object.type().typeName());
+                out.writeShort(fields.size());
+                for (String field : fields) {
+                    writeString(out, field);
+                    writeValue(out, object.field(field));
+                }
+            }
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof UUID) {
+            out.writeByte(UUID_VALUE);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof BigDecimal) {
+            final byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+            out.writeByte(DECIMAL);
+            out.writeInt(((BigDecimal) value).scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value.getClass().isArray()) {
+            writeArray(out, value);
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            out.writeByte(collection instanceof LinkedHashSet ? LINKED_SET : collection instanceof Set ? SET : LIST);
+            out.writeInt(collection.size());
+            for (Object element : collection) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(map instanceof LinkedHashMap ? LINKED_MAP : MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof Serializable) {
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(serialized)) {
+                objects.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+        } else {
+            throw new IllegalArgumentException("Cannot encode a field of type " + value.getClass().getName());
+        }
+    }
+
+    private static void writeArray(final DataOutputStream out, final Object value) throws IOException {
+        if (value instanceof double[]) {
+            final double[] array = (double[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Double.BYTES);
+            buffer.asDoubleBuffer().put(array);
+            writeRun(out, DOUBLE_ARRAY, array.length, buffer);
+        } else if (value instanceof long[]) {
+            final long[] array = (long[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Long.BYTES);
+            long previous = 0;
+            for (long element : array) {
+                buffer.putLong(element - previous);
+                previous = element;
+            }
+            writeRun(out, LONG_ARRAY, array.length, buffer);
+        } else if (value instanceof int[]) {
+            final int[] array = (int[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Integer.BYTES);
+            buffer.asIntBuffer().put(array);
+            writeRun(out, INT_ARRAY, array.length, buffer);
+        } else if (value instanceof float[]) {
+            final float[] array = (float[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Float.BYTES);
+            buffer.asFloatBuffer().put(array);
+            writeRun(out, FLOAT_ARRAY, array.length, buffer);
+        } else if (value instanceof short[]) {
+            final short[] array = (short[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Short.BYTES);
+            buffer.asShortBuffer().put(array);
+            writeRun(out, SHORT_ARRAY, array.length, buffer);
+        } else if (value instanceof char[]) {
+            final char[] array = (char[]) value;
+            final ByteBuffer buffer = ByteBuffer.allocate(array.length * Character.BYTES);
+            buffer.asCharBuffer().put(array);
+            writeRun(out, CHAR_ARRAY, array.length, buffer);
+        } else if (value instanceof byte[]) {
+            final byte[] array = (byte[]) value;
+            out.writeByte(BYTE_ARRAY);
+            out.writeInt(array.length);
+            out.write(array);
+        } else if (value instanceof boolean[]) {
+            final boolean[] array = (boolean[]) value;
+            out.writeByte(BOOLEAN_ARRAY);
+            out.writeInt(array.length);
+            for (boolean element : array) {
+                out.writeBoolean(element);
+            }
+        } else {
+            final Object[] array = (Object[]) value;
+            out.writeByte(value instanceof String[] ? STRING_ARRAY : OBJECT_ARRAY);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        }
+    }
+
+    private static void writeRun(final DataOutputStream out, final byte tag, final int length, final ByteBuffer run)
+            throws IOException {
+        out.writeByte(tag);
+        out.writeInt(length);
+        out.write(run.array(), 0, run.capacity());
+    }
+
+    /**
+     * Reads one value; without {@code binary}, objects come back as field maps and enums as their name (their
+     * ordinal in records written before names were stored).
+     */
+    private static Object readValue(final ByteBuffer in, final IgniteBinary binary) {
+        final byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.get() != 0;
+            case BYTE:
+                return in.get();
+            case SHORT:
+                return in.getShort();
+            case CHAR:
+                return in.getChar();
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case FLOAT:
+                return in.getFloat();
+            case DOUBLE:
+                return in.getDouble();
+            case STRING:
+                return readString(in);
+            case UUID_VALUE:
+                return new UUID(in.getLong(), in.getLong());
+            case DATE:
+                return new Date(in.getLong());
+            case TIMESTAMP: {
+                final Timestamp timestamp = new Timestamp(in.getLong());
+                timestamp.setNanos(in.getInt());
+                return timestamp;
+            }
+            case DECIMAL: {
+                final int scale = in.getInt();
+                final byte[] unscaled = new byte[in.getInt()];
+                in.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case DOUBLE_ARRAY: {
+                final double[] array = new double[in.getInt()];
+                in.asDoubleBuffer().get(array);
+                in.position(in.position() + array.length * Double.BYTES);
+                return array;
+            }
+            case LONG_ARRAY: {
+                final long[] array = new long[in.getInt()];
+                long previous = 0;
+                for (int i = 0; i < array.length; i++) {
+                    previous += in.getLong();
+                    array[i] = previous;
+                }
+                return array;
+            }
+            case INT_ARRAY: {
+                final int[] array = new int[in.getInt()];
+                in.asIntBuffer().get(array);
+                in.position(in.position() + array.length * Integer.BYTES);
+                return array;
+            }
+            case FLOAT_ARRAY: {
+                final float[] array = new float[in.getInt()];
+                in.asFloatBuffer().get(array);
+                in.position(in.position() + array.length * Float.BYTES);
+                return array;
+            }
+            case SHORT_ARRAY: {
+                final short[] array = new short[in.getInt()];
+                in.asShortBuffer().get(array);
+                in.position(in.position() + array.length * Short.BYTES);
+                return array;
+            }
+            case CHAR_ARRAY: {
+                final char[] array = new char[in.getInt()];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + array.length * Character.BYTES);
+                return array;
+            }
+            case BYTE_ARRAY: {
+                final byte[] array = new byte[in.getInt()];
+                in.get(array);
+                return array;
+            }
+            case BOOLEAN_ARRAY: {
+                final boolean[] array = new boolean[in.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.get() != 0;
+                }
+                return array;
+            }
+            case STRING_ARRAY: {
+                final String[] array = new String[in.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (String) readValue(in, binary);
+                }
+                return array;
+            }
+            case OBJECT_ARRAY: {
+                final Object[] array = new Object[in.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in, binary);
+                }
+                return array;
+            }
+            case LIST:
+            case LINKED_SET:
+            case SET: {
+                final int size = in.getInt();
+                final Collection<Object> collection = tag == LIST ? new ArrayList<>(size)
+                        : tag == LINKED_SET ? new LinkedHashSet<>() : new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    collection.add(readValue(in, binary));
+                }
+                return collection;
+            }
+            case LINKED_MAP:
+            case MAP: {
+                final int size = in.getInt();
+                final Map<Object, Object> map = tag == LINKED_MAP ? new LinkedHashMap<>() : new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in, binary), readValue(in, binary));
+                }
+                return map;
+            }
+            case ENUM: {
+                final String typeName = readString(in);
+                final int ordinal = in.getInt();
+                return binary == null ? (Object) ordinal : binary.buildEnum(typeName, ordinal);
+            }
+            case NAMED_ENUM: {
+                final String typeName = readString(in);
+                final int ordinal = in.getInt();
+                final String name = readString(in);
+                return binary == null ? name : binary.buildEnum(typeName, ordinal);
+            }
+            case OBJECT: {
+                final String typeName = readString(in);
+                final int fields = in.getShort();
+                if (binary == null) {
+                    final Map<String, Object> object = new LinkedHashMap<>();
+                    for (int i = 0; i < fields; i++) {
+                        final String field = readString(in);
+                        object.put(field, readValue(in, null));
+                    }
+                    return object;
+                }
+                final BinaryObjectBuilder builder = binary.builder(typeName);
+                for (int i = 0; i < fields; i++) {
+                    final String field = readString(in);
+                    builder.setField(field, readValue(in, binary));
+                }
+                return builder.build();
+            }
+            case SERIALIZED: {
+                final int length = in.getInt();
+                try (ObjectInputStream objects = new ObjectInputStream(
+                        new ByteArrayInputStream(in.array(), in.arrayOffset() + in.position(), length))) {
+                    in.position(in.position() + length);
+                    final Object value = objects.readObject();
+                    return value;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            default:
+                throw new IllegalStateException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        final String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Loaded on first use, so nodes that never see an LZ4 block do not need the library.
+     */
+    private static final class Lz4 {
+        static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+    }
+}
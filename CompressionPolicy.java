@@ -0,0 +1,227 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides when and how response bodies are compressed.
+ * <p>
+ * Payloads below {@code phoenix.compression.minSize} bytes (default 1 KiB) are sent as-is,
+ * larger ones are encoded with the encoding the client gives the highest {@code q} value in
+ * {@code Accept-Encoding}; ties go to zstd (when {@code com.github.luben.zstd.Zstd} is on the
+ * classpath), then gzip, then deflate.
+ * Compressed data session bodies are kept in a {@link PrecompressedPayloadCache}
+ * of {@code phoenix.compression.cacheBytes} bytes (default 64 MiB).
+ */
+public class CompressionPolicy {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String ZSTD = "zstd";
+
+    private static final MethodHandle ZSTD_COMPRESS = lookupZstd();
+
+    private final int minSize;
+    private final int level;
+    private final PrecompressedPayloadCache cache;
+
+    public CompressionPolicy(final int minSize, final int level, final long cacheBytes) {
+        this.minSize = minSize;
+        this.level = level;
+        this.cache = new PrecompressedPayloadCache(cacheBytes);
+    }
+
+    public static CompressionPolicy fromSystemProperties() {
+        return new CompressionPolicy(
+                Integer.getInteger("phoenix.compression.minSize", 1024),
+                Integer.getInteger("phoenix.compression.level", Deflater.DEFAULT_COMPRESSION),
+                Long.getLong("phoenix.compression.cacheBytes", 64L * 1024 * 1024));
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public PrecompressedPayloadCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Encoding repository for routes that stream their responses through Undertow's
+     * {@link io.undertow.server.handlers.encoding.EncodingHandler}. Responses with a content length
+     * below the threshold are sent as-is; streamed responses, whose length is not known up front,
+     * are compressed.
+     */
+    public ContentEncodingRepository repository() {
+        final Predicate largeEnough = exchange -> {
+            final String length = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            return length == null || Long.parseLong(length) >= minSize;
+        };
+        return new ContentEncodingRepository()
+                .addEncodingHandler(GZIP, new GzipEncodingProvider(level), 50, largeEnough)
+                .addEncodingHandler(DEFLATE, new DeflateEncodingProvider(level), 10, largeEnough);
+    }
+
+    /**
+     * Sends {@code payload}, compressing it when it is large enough and the client accepts a
+     * supported encoding. The compressed form is cached under {@code sessionId} and {@code version}.
+     */
+    public void send(final HttpServerExchange exchange, final String sessionId, final long version,
+                     final byte[] payload) {
+        final String encoding = payload.length < minSize ? null : negotiate(exchange);
+
+        byte[] body = payload;
+        if (encoding != null) {
+            final String key = PrecompressedPayloadCache.key(sessionId, version, encoding);
+            body = cache.get(key);
+            if (body == null) {
+                body = compress(encoding, payload);
+                cache.put(key, body);
+            }
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+        }
+        exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+
+        exchange.setResponseContentLength(body.length);
+        exchange.getResponseSender().send(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * @return The encoding the client prefers among the supported ones, or {@code null} for identity.
+     */
+    String negotiate(final HttpServerExchange exchange) {
+        final HeaderValues values = exchange.getRequestHeaders().get(Headers.ACCEPT_ENCODING);
+        if (values == null) {
+            return null;
+        }
+
+        //-- -1 means not mentioned; "*" stands in for every coding that is not
+        float zstd = -1;
+        float gzip = -1;
+        float deflate = -1;
+        float identity = -1;
+        float any = -1;
+        for (String value : values) {
+            for (String token : value.split(",")) {
+                final int semicolon = token.indexOf(';');
+                final String coding = (semicolon < 0 ? token : token.substring(0, semicolon)).trim().toLowerCase();
+                final float q = semicolon < 0 ? 1 : qualityOf(token.substring(semicolon + 1));
+                switch (coding) {
+                    case ZSTD:
+                        zstd = q;
+                        break;
+                    case GZIP:
+                        gzip = q;
+                        break;
+                    case DEFLATE:
+                        deflate = q;
+                        break;
+                    case "identity":
+                        identity = q;
+                        break;
+                    case "*":
+                        any = q;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        zstd = ZSTD_COMPRESS == null ? -1 : zstd < 0 ? any : zstd;
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+
+        String best = null;
+        float bestQ = 0;
+        if (zstd > bestQ) {
+            best = ZSTD;
+            bestQ = zstd;
+        }
+        if (gzip > bestQ) {
+            best = GZIP;
+            bestQ = gzip;
+        }
+        if (deflate > bestQ) {
+            best = DEFLATE;
+            bestQ = deflate;
+        }
+        return best == null || identity > bestQ ? null : best;
+    }
+
+    /**
+     * @return The {@code q} value among the parameters of an {@code Accept-Encoding} element, {@code 0}
+     * (refused) when it is malformed.
+     */
+    private static float qualityOf(final String params) {
+        for (String param : params.split(";")) {
+            final String trimmed = param.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    final float q = Float.parseFloat(trimmed.substring(2).trim());
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    byte[] compress(final String encoding, final byte[] payload) {
+        if (ZSTD.equals(encoding)) {
+            try {
+                return (byte[]) ZSTD_COMPRESS.invokeExact(payload, level < 1 ? 3 : level);
+            } catch (Throwable e) {
+                throw new IllegalStateException("zstd compression failed", e);
+            }
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+        try {
+            if (GZIP.equals(encoding)) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(output) {
+                    {
+                        def.setLevel(level);
+                    }
+                }) {
+                    gzip.write(payload);
+                }
+            } else {
+                final Deflater deflater = new Deflater(level);
+                try (DeflaterOutputStream deflate = new DeflaterOutputStream(output, deflater)) {
+                    deflate.write(payload);
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    private static MethodHandle lookupZstd() {
+        try {
+            final Class<?> zstd = Class.forName("com.github.luben.zstd.Zstd");
+            return MethodHandles.publicLookup().findStatic(zstd, "compress",
+                    MethodType.methodType(byte[].class, byte[].class, int.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteBinary;
+
+/**
+ * How the API tier reaches the cluster; the request handlers only go through this.
+ * <p>
+ * {@code phoenix.ignite.backend} selects it: {@code thick} (the default) joins the cluster as a client
+ * node, see {@link ThickClientBackend}; {@code thin} connects with the Ignite thin client, see
+ * {@link ThinClientBackend}, so API pods take no part in discovery or partition map exchange and
+ * scaling them does not slow down topology changes.
+ */
+public interface DataAccessBackend extends AutoCloseable {
+    String THICK = "thick";
+    String THIN = "thin";
+
+    DataSessionStore getSessionStore();
+
+    DataSessionVersions.Store getSessionVersions();
+
+    /**
+     * Updates the last access time of a session without waiting for it, bounded by the current
+     * request's {@link Deadline}.
+     */
+    void touch(String userId, String sessionId);
+
+    /**
+     * @return Number of server nodes currently in the cluster.
+     */
+    int serverNodes();
+
+    /**
+     * @return The client node, or {@code null} with the thin backend.
+     */
+    Ignite getIgnite();
+
+    /**
+     * @return Binary facade of whichever client this backend uses.
+     */
+    IgniteBinary binary();
+
+    @Override
+    void close();
+}
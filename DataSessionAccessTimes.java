@@ -0,0 +1,123 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheEntryProcessor;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.client.ClientCacheConfiguration;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.ignite.lang.IgniteBiPredicate;
+
+import javax.cache.Cache;
+import javax.cache.processor.MutableEntry;
+import java.util.UUID;
+
+/**
+ * Last access times of the sessions in the consolidated layouts, kept beside the sessions in a cache keyed
+ * by the same {@link DataSessionKey}, so a touch writes a {@code long} instead of rewriting (and shipping to
+ * the backups) the whole session, and an idle scan reads no session at all.
+ * <p>
+ * Every store writes an entry when it stores a session and removes it with the session; a touch of a
+ * session that has no entry yet creates one, so sessions stored before this cache existed are picked up
+ * by their next read.
+ */
+public final class DataSessionAccessTimes {
+    public static final String CACHE_NAME = "data-session-access";
+
+    private static final UUID ANY_SESSION = new UUID(0, 0);
+
+    private DataSessionAccessTimes() {
+    }
+
+    public static CacheConfiguration<DataSessionKey, Long> configuration(final int backups) {
+        return new CacheConfiguration<DataSessionKey, Long>(CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(backups)
+                .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration());
+    }
+
+    public static ClientCacheConfiguration clientConfiguration(final int backups) {
+        return new ClientCacheConfiguration()
+                .setName(CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(backups)
+                .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration());
+    }
+
+    /**
+     * @return Whether the user has any session, found by scanning only the partition all of the user's keys
+     *         hash to and stopping at the first match.
+     */
+    static boolean hasUser(final Ignite ignite, final IgniteCache<DataSessionKey, Long> accessTimes,
+                           final String userId) {
+        final ScanQuery<DataSessionKey, Long> query = new ScanQuery<>(new OfUser(userId));
+        query.setPartition(ignite.affinity(CACHE_NAME).partition(new DataSessionKey(userId, ANY_SESSION)));
+        query.setPageSize(1);
+        try (QueryCursor<Cache.Entry<DataSessionKey, Long>> cursor = accessTimes.query(query)) {
+            return cursor.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Moves the access time forward, never back, on the entry's primary node.
+     */
+    public static class Touch implements CacheEntryProcessor<DataSessionKey, Long, Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final long accessedAt;
+
+        public Touch(final long accessedAt) {
+            this.accessedAt = accessedAt;
+        }
+
+        @Override
+        public Void process(final MutableEntry<DataSessionKey, Long> entry, final Object... arguments) {
+            final Long current = entry.getValue();
+            if (current == null || current < accessedAt) {
+                entry.setValue(accessedAt);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Matches sessions not accessed for longer than {@code maxIdleMillis}; runs on the server nodes.
+     */
+    public static class IdleFilter implements IgniteBiPredicate<DataSessionKey, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long maxIdleMillis;
+
+        public IdleFilter(final long maxIdleMillis) {
+            this.maxIdleMillis = maxIdleMillis;
+        }
+
+        @Override
+        public boolean apply(final DataSessionKey key, final Long accessedAt) {
+            return System.currentTimeMillis() - accessedAt > maxIdleMillis;
+        }
+    }
+
+    /**
+     * Matches the sessions of one user; runs on the server nodes.
+     */
+    public static class OfUser implements IgniteBiPredicate<DataSessionKey, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final String userId;
+
+        public OfUser(final String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean apply(final DataSessionKey key, final Long accessedAt) {
+            return userId.equals(key.getUserId());
+        }
+    }
+}
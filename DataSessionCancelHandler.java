@@ -0,0 +1,49 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.PathTemplateMatch;
+import io.undertow.util.StatusCodes;
+
+import java.util.Deque;
+import java.util.UUID;
+
+public class DataSessionCancelHandler implements HttpHandler {
+    private final ServerApp server;
+
+    public DataSessionCancelHandler(final ServerApp server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        //-- Data sessionId is in the path (REST request)
+        final PathTemplateMatch pathMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        final String sessionId = pathMatch.getParameters().get("sessionId");
+        final UUID sessionKey = DataSessionStatusHandler.parseSessionId(exchange, sessionId);
+        if (sessionKey == null) {
+            return;
+        }
+
+        //-- UserId is passed as a query parameter
+        final Deque<String> userIdParam = exchange.getQueryParameters().get("userId");
+        final String userId = userIdParam == null ? null : userIdParam.getFirst();
+
+        final DataSessionJob job = server.getJobRegistry().get(sessionKey);
+        if (job == null || (userId != null && !userId.equals(job.getUserId()))) {
+            exchange.setStatusCode(StatusCodes.NOT_FOUND);
+            exchange.getResponseSender().send(String.format(
+                    "No running job for data session '%s'", sessionId));
+            return;
+        }
+
+        if (!job.cancel()) {
+            exchange.setStatusCode(StatusCodes.CONFLICT);
+        } else {
+            exchange.setStatusCode(StatusCodes.OK);
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(job.toJson().toString());
+    }
+}
@@ -0,0 +1,62 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.Handlers;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import io.undertow.util.PathTemplateMatch;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Pushes data session job status changes to clients over Server-Sent Events, so they can
+ * follow a build instead of polling {@code /data-session/status}.
+ * Each connection subscribes to the session in its {@code {sessionId}} path parameter; a malformed
+ * id is refused with {@code 400} before the event stream starts.
+ */
+public class DataSessionEventPublisher implements Consumer<DataSessionJob> {
+    private static final String EVENT_STATUS = "status";
+    private static final long KEEP_ALIVE_MILLIS = 15_000L;
+
+    private final ServerSentEventHandler handler;
+
+    public DataSessionEventPublisher(final DataSessionJobRegistry registry) {
+        this.handler = Handlers.serverSentEvents((connection, lastEventId) -> {
+            connection.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+
+            //-- Replay the current status so late subscribers don't wait for the next change
+            final DataSessionJob job = registry.get(UUID.fromString(connection.getParameter("sessionId")));
+            if (job != null) {
+                connection.send(job.toJson().toString(), EVENT_STATUS, null, null);
+            }
+        });
+        registry.addListener(this);
+    }
+
+    public HttpHandler getHandler() {
+        return exchange -> {
+            final PathTemplateMatch pathMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+            if (DataSessionStatusHandler.parseSessionId(exchange, pathMatch.getParameters().get("sessionId")) != null) {
+                handler.handleRequest(exchange);
+            }
+        };
+    }
+
+    @Override
+    public void accept(final DataSessionJob job) {
+        final String sessionId = job.getSessionId().toString();
+        String payload = null;
+        for (ServerSentEventConnection connection : handler.getConnections()) {
+            if (sessionId.equals(connection.getParameter("sessionId"))) {
+                if (payload == null) {
+                    payload = job.toJson().toString();
+                }
+                connection.send(payload, EVENT_STATUS, null, null);
+                if (job.getState().isFinal()) {
+                    connection.shutdown();
+                }
+            }
+        }
+    }
+}
@@ -1,37 +1,81 @@
 package com.clarifi.phoenix.ashes.server;
 
+import com.clarifi.common.util.Logging;
 import com.clarifi.phoenix.ashes.common.DataSession;
 import com.clarifi.phoenix.ashes.common.PackedDataSession;
-import com.clarifi.phoenix.ashes.task.UpdateDataSessionTimestamp;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.PathTemplateMatch;
+import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
-import org.apache.ignite.Ignite;
-import org.apache.ignite.IgniteCache;
-import org.apache.ignite.IgniteCompute;
+import com.google.gson.stream.JsonWriter;
 import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
 import io.opentelemetry.context.Scope;
+import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.apache.logging.log4j.util.Unbox.box;
 
 public class DataSessionGetHandler implements HttpHandler {
+    private static final Logger _logger = Logging.getLogger(DataSessionGetHandler.class);
     private final ServerApp server;
     private static final Tracer tracer = GlobalOpenTelemetry.getTracer("com.clarifi.phoenix.ashes.server.DataSessionGetHandler");
+    private static final AttributeKey<String> PROJECTION = AttributeKey.stringKey("projection");
+    private static final Attributes FULL = Attributes.of(PROJECTION, "full");
+    private static final Attributes PARTIAL = Attributes.of(PROJECTION, "partial");
+    private static final String ROUTE = "data-session/get";
+    private static final String ROUTE_PROJECTION = "data-session/get?projection";
+
+    //-- Concurrent reads of the same session share one cache read, one timestamp update and one serialization
+    private final SingleFlight<DataSessionKey, SerializedDataSession> inFlight = new SingleFlight<>();
+
+    //-- Split by full and projected reads, so the two can be compared
+    private final LongHistogram payloadSize;
+    private final DoubleHistogram latency;
 
     public DataSessionGetHandler(final ServerApp server) {
         this.server = server;
+
+        final Meter meter = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server");
+        this.payloadSize = meter.histogramBuilder("data_session_get_payload_size")
+                .setDescription("Size of data session GET responses before content encoding")
+                .setUnit("By")
+                .ofLongs()
+                .build();
+        this.latency = meter.histogramBuilder("data_session_get_duration")
+                .setDescription("Latency of successful data session GETs")
+                .setUnit("ms")
+                .build();
     }
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) {
+        final long startNanos = System.nanoTime();
         Span span = tracer.spanBuilder("handleRequest").startSpan();
         try (Scope scope = span.makeCurrent()) {
             //-- Data sessionId is in the path (REST request)
@@ -40,67 +84,92 @@ public class DataSessionGetHandler implements HttpHandler {
             span.setAttribute("sessionId", sessionId);
 
             //-- UserId is passed as a query parameter
-            final String userId = exchange.getQueryParameters().get("userId").getFirst();
+            final Deque<String> userIdParam = exchange.getQueryParameters().get("userId");
+            final String userId = userIdParam == null ? null : userIdParam.getFirst();
+            if (userId == null || userId.isEmpty()) {
+                span.setStatus(StatusCode.ERROR, "Missing userId");
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                exchange.getResponseSender().send("Missing query parameter 'userId'");
+                exchange.endExchange();
+                record(ROUTE, null, StatusCodes.BAD_REQUEST, null, startNanos);
+                return;
+            }
             span.setAttribute("userId", userId);
 
-            final Ignite ignite = server.getIgnite();
-
-            final String userCacheName = String.format(
-                    "%s:%s", ServerApp.PREFIX_CACHE_USER_DATA_SESSIONS, userId);
+            final UUID sessionKey = DataSessionStatusHandler.parseSessionId(exchange, sessionId);
+            if (sessionKey == null) {
+                span.setStatus(StatusCode.ERROR, "Malformed sessionId");
+                exchange.endExchange();
+                record(ROUTE, userId, StatusCodes.BAD_REQUEST, null, startNanos);
+                return;
+            }
 
-            final IgniteCache<UUID, PackedDataSession> userDataSessionCache = ignite.cache(userCacheName);
-            if (userDataSessionCache == null) {
-                span.setStatus(StatusCode.ERROR, "User session cache not found");
-                exchange.setStatusCode(StatusCodes.NOT_FOUND);
-                exchange.getResponseSender().send(String.format("User with id '%s' does not have any sessions", userId));
+            final DataSessionProjection projection;
+            try {
+                projection = DataSessionProjection.fromQuery(exchange.getQueryParameters());
+            } catch (IllegalArgumentException e) {
+                span.setStatus(StatusCode.ERROR, e.getMessage());
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                exchange.getResponseSender().send(e.getMessage());
                 exchange.endExchange();
+                record(ROUTE_PROJECTION, userId, StatusCodes.BAD_REQUEST, null, startNanos);
+                return;
+            }
+
+            final DataSessionStore store = server.getSessionStore();
+
+            //-- Whether the user has any sessions is only asked on a miss, on the dispatch queue like the read
+            if (projection != null) {
+                span.setAttribute("projection", true);
+                final Context context = Context.current();
+
+                //-- Evaluated next to the session; projections are not coalesced since they rarely repeat exactly
+                exchange.dispatch(SameThreadExecutor.INSTANCE, context.wrap(() -> {
+                    final long queuedAt = System.nanoTime();
+                    CompletableFuture
+                            .supplyAsync(context.wrapSupplier(() -> loadProjection(userId, sessionId, sessionKey, projection, queuedAt)),
+                                    server.getDispatcher().executorFor(userId))
+                            .whenComplete((result, error) -> respondOrFail(exchange, userId, sessionId, result, error,
+                                    startNanos, ROUTE_PROJECTION, context));
+                }));
+            } else if (store.storesRecords() && acceptsRecords(exchange)) {
+                span.setAttribute("record", true);
+                final Context context = Context.current();
+
+                //-- Written straight from the stored record; not coalesced, as the payload differs from a full read's
+                exchange.dispatch(SameThreadExecutor.INSTANCE, context.wrap(() -> {
+                    final long queuedAt = System.nanoTime();
+                    CompletableFuture
+                            .supplyAsync(context.wrapSupplier(() -> loadProjection(userId, sessionId, sessionKey, null, queuedAt)),
+                                    server.getDispatcher().executorFor(userId))
+                            .whenComplete((result, error) -> respondOrFail(exchange, userId, sessionId, result, error,
+                                    startNanos, ROUTE, context));
+                }));
             } else {
-                final DataSession session = userDataSessionCache.get(UUID.fromString(sessionId));
-                if (session == null) {
-                    span.setStatus(StatusCode.ERROR, "Data session not found");
-                    exchange.setStatusCode(StatusCodes.NOT_FOUND);
-                    exchange.getResponseSender().send(String.format(
-                            "Data session '%s' does not exist for user '%s'", sessionId, userId));
-                    exchange.endExchange();
-                } else {
-                    final ExecutorService executor = server.getExecutor();
-                    exchange.dispatch(executor, new Runnable() {
-                        @Override
-                        public void run() {
-                            Span innerSpan = tracer.spanBuilder("processDataSession").startSpan();
-                            try (Scope innerScope = innerSpan.makeCurrent()) {
-                                final IgniteCompute compute = ignite.compute(ignite.cluster().forServers());
-                                compute.runAsync(new UpdateDataSessionTimestamp(userId, sessionId));
-
-                                final PackedDataSession.Writer writer = new PackedDataSession.JsonWriter(session);
-                                final ByteArrayOutputStream output = new ByteArrayOutputStream();
-                                writer.write(output);
-                                final byte[] payload = output.toByteArray();
-
-                                exchange.setStatusCode(StatusCodes.OK);
-                                exchange.setResponseContentLength(payload.length);
-
-                                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(payload.length));
-                                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, writer.getMimeType());
-
-                                exchange.getResponseSender().send(ByteBuffer.wrap(payload));
-                                exchange.endExchange();
-
-                                System.out.printf(
-                                        "{Thread:%s} Data session sent: %s.\n",
-                                        Thread.currentThread().getName(),
-                                        session
-                                );
-                                innerSpan.setStatus(StatusCode.OK);
-                            } catch (Exception e) {
-                                innerSpan.setStatus(StatusCode.ERROR, e.getMessage());
-                                throw e;
-                            } finally {
-                                innerSpan.end();
-                            }
-                        }
-                    });
-                }
+                final DataSessionKey key = new DataSessionKey(userId, sessionKey);
+                final Context context = Context.current();
+                //-- The stored version lets us answer conditional requests without touching the session
+                final boolean conditional = DataSessionVersions.conditionalGetsEnabled();
+                final HeaderValues ifNoneMatch = exchange.getRequestHeaders().get(Headers.IF_NONE_MATCH);
+
+                //-- Lookups block, so the version check runs on the user's dispatch queue like the load;
+                //-- the leader loads there too, and followers only attach a completion callback
+                exchange.dispatch(SameThreadExecutor.INSTANCE, context.wrap(() -> {
+                    final long queuedAt = System.nanoTime();
+                    final Executor executor = server.getDispatcher().executorFor(userId);
+                    final CompletableFuture<VersionCheck> check = conditional
+                            ? CompletableFuture.supplyAsync(context.wrapSupplier(
+                                    () -> checkVersion(store, key, ifNoneMatch)), executor)
+                            : CompletableFuture.completedFuture(VersionCheck.NONE);
+                    check
+                            .thenCompose(checked -> checked.notModified
+                                    ? CompletableFuture.completedFuture(SerializedDataSession.notModified(checked.stored))
+                                    : loadShared(key, context, () -> CompletableFuture.supplyAsync(
+                                            context.wrapSupplier(() -> load(userId, sessionId, sessionKey, queuedAt)),
+                                            executor)))
+                            .whenComplete((result, error) -> respondOrFail(exchange, userId, sessionId, result, error,
+                                    startNanos, ROUTE, context));
+                }));
             }
         } catch (Exception e) {
             span.setStatus(StatusCode.ERROR, e.getMessage());
@@ -109,4 +178,291 @@ public class DataSessionGetHandler implements HttpHandler {
             span.end();
         }
     }
+
+    /**
+     * Leads or joins the shared load of a session. The load runs under its leader's deadline, so when that
+     * runs out first, a follower with time left loads again, leading or joining a new load, rather than
+     * answering 504 for the leader's budget.
+     */
+    private CompletableFuture<SerializedDataSession> loadShared(final DataSessionKey key, final Context context,
+                                                                final Supplier<CompletableFuture<SerializedDataSession>> call) {
+        return inFlight.execute(key, call)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    final Deadline own = Deadline.of(context);
+                    if (unwrap(error) instanceof Deadline.ExceededException && own != null && !own.isExpired()) {
+                        return loadShared(key, context, call);
+                    }
+                    return CompletableFuture.<SerializedDataSession>failedFuture(error);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static Throwable unwrap(final Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Looks up the stored version of a session, and whether {@code ifNoneMatch} still matches a session that exists.
+     */
+    private VersionCheck checkVersion(final DataSessionStore store, final DataSessionKey key,
+                                      final HeaderValues ifNoneMatch) {
+        final Long stored = Deadline.await(server.getSessionVersions().getAsync(key));
+        final boolean notModified = stored != null
+                && DataSessionVersions.matches(ifNoneMatch, DataSessionVersions.etag(stored))
+                && store.contains(key.getUserId(), key.getSessionId());
+        return new VersionCheck(stored, notModified);
+    }
+
+    /**
+     * Reads and serializes a session once for every request waiting on it.
+     *
+     * @return The serialized session, {@code null} if it does not exist, or {@link SerializedDataSession#NO_USER}.
+     */
+    private SerializedDataSession load(final String userId, final String sessionId, final UUID sessionKey,
+                                       final long queuedAt) {
+        final long startedAt = System.nanoTime();
+        Span innerSpan = tracer.spanBuilder("processDataSession").startSpan();
+        try (Scope innerScope = innerSpan.makeCurrent()) {
+            //-- The request may have expired while it waited in the dispatch queue
+            Deadline.checkNotExpired();
+
+            final DataSession session = server.getSessionStore().get(userId, sessionKey);
+            final long readAt = System.nanoTime();
+            if (session == null) {
+                innerSpan.setStatus(StatusCode.ERROR, "Data session not found");
+                return missing(userId);
+            }
+
+            server.getBackend().touch(userId, sessionId);
+
+            final PackedDataSession.Writer writer = new PackedDataSession.JsonWriter(session);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writer.write(output);
+            final byte[] payload = output.toByteArray();
+            final long serializedAt = System.nanoTime();
+
+            innerSpan.setStatus(StatusCode.OK);
+            return new SerializedDataSession(payload, writer.getMimeType(), DataSessionVersions.versionOf(payload), false,
+                    startedAt - queuedAt, readAt - startedAt, serializedAt - readAt);
+        } catch (Exception e) {
+            innerSpan.setStatus(StatusCode.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            innerSpan.end();
+        }
+    }
+
+    /**
+     * Reads the projected part of a session, evaluated on its primary node, as a JSON object of the projected fields
+     * in the {@link ColumnarSessionCodec#PROJECTION_JSON} format; without a projection, the whole stored record
+     * in the same format.
+     *
+     * @return The serialized projection, {@code null} if the session does not exist, or
+     *         {@link SerializedDataSession#NO_USER}.
+     */
+    private SerializedDataSession loadProjection(final String userId, final String sessionId, final UUID sessionKey,
+                                                 final DataSessionProjection projection, final long queuedAt) {
+        final long startedAt = System.nanoTime();
+        Span innerSpan = tracer.spanBuilder("projectDataSession").startSpan();
+        try (Scope innerScope = innerSpan.makeCurrent()) {
+            Deadline.checkNotExpired();
+
+            final byte[] record = projection == null
+                    ? server.getSessionStore().getRecord(userId, sessionKey)
+                    : server.getSessionStore().project(userId, sessionKey, projection);
+            final long readAt = System.nanoTime();
+            if (record == null) {
+                innerSpan.setStatus(StatusCode.ERROR, "Data session not found");
+                return missing(userId);
+            }
+            innerSpan.setAttribute("recordBytes", record.length);
+
+            server.getBackend().touch(userId, sessionId);
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(record.length * 2);
+            try (JsonWriter json = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                ColumnarSessionCodec.writeJson(record, json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final byte[] payload = output.toByteArray();
+            final long serializedAt = System.nanoTime();
+
+            innerSpan.setStatus(StatusCode.OK);
+            return new SerializedDataSession(payload, ColumnarSessionCodec.PROJECTION_JSON,
+                    DataSessionVersions.versionOf(payload), projection != null,
+                    startedAt - queuedAt, readAt - startedAt, serializedAt - readAt);
+        } catch (Exception e) {
+            innerSpan.setStatus(StatusCode.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            innerSpan.end();
+        }
+    }
+
+    /**
+     * @return {@link SerializedDataSession#NO_USER} if the user has no sessions at all, otherwise {@code null}.
+     */
+    private SerializedDataSession missing(final String userId) {
+        return server.getSessionStore().hasUser(userId) ? null : SerializedDataSession.NO_USER;
+    }
+
+    private static boolean acceptsRecords(final HttpServerExchange exchange) {
+        final HeaderValues accept = exchange.getRequestHeaders().get(Headers.ACCEPT);
+        if (accept == null) {
+            return false;
+        }
+        for (String value : accept) {
+            if (value.contains(ColumnarSessionCodec.PROJECTION_JSON)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Completions run outside Undertow's error handling, so a failure while responding has to end the
+     * exchange itself or the client would wait forever.
+     */
+    private void respondOrFail(final HttpServerExchange exchange, final String userId, final String sessionId,
+                               final SerializedDataSession result, final Throwable error, final long startNanos,
+                               final String route, final Context context) {
+        try {
+            respond(exchange, userId, sessionId, result, error, startNanos, route, context);
+        } catch (RuntimeException e) {
+            _logger.error("Failed to send data session '{}' of user '{}'", sessionId, userId, e);
+            if (!exchange.isResponseStarted()) {
+                exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+            }
+            exchange.endExchange();
+            record(route, userId, StatusCodes.INTERNAL_SERVER_ERROR, null, startNanos);
+        }
+    }
+
+    private void respond(final HttpServerExchange exchange, final String userId, final String sessionId,
+                         final SerializedDataSession result, final Throwable error, final long startNanos,
+                         final String route, final Context context) {
+        if (error != null) {
+            final Throwable cause = unwrap(error);
+            if (cause instanceof RejectedExecutionException) {
+                exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            } else if (cause instanceof Deadline.ExceededException) {
+                exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+            } else if (cause instanceof UnsupportedOperationException) {
+                exchange.setStatusCode(StatusCodes.NOT_IMPLEMENTED);
+            } else {
+                _logger.error("Failed to read data session '{}' of user '{}'", sessionId, userId, cause);
+                exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+            }
+            exchange.endExchange();
+            record(route, userId, exchange.getStatusCode(), null, startNanos);
+            return;
+        }
+
+        if (result == SerializedDataSession.NO_USER) {
+            exchange.setStatusCode(StatusCodes.NOT_FOUND);
+            exchange.getResponseSender().send(String.format("User with id '%s' does not have any sessions", userId));
+            exchange.endExchange();
+            record(route, userId, StatusCodes.NOT_FOUND, null, startNanos);
+            return;
+        }
+
+        if (result == null) {
+            exchange.setStatusCode(StatusCodes.NOT_FOUND);
+            exchange.getResponseSender().send(String.format(
+                    "Data session '%s' does not exist for user '%s'", sessionId, userId));
+            exchange.endExchange();
+            record(route, userId, StatusCodes.NOT_FOUND, null, startNanos);
+            return;
+        }
+
+        if (result.notModified) {
+            //-- Reading counts as an access even when nothing is sent back
+            server.getBackend().touch(userId, sessionId);
+
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            exchange.getResponseHeaders().put(Headers.ETAG, DataSessionVersions.etag(result.version));
+            exchange.endExchange();
+            record(route, userId, StatusCodes.NOT_MODIFIED, null, startNanos);
+            return;
+        }
+
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, result.mimeType);
+        exchange.getResponseHeaders().put(Headers.ETAG, DataSessionVersions.etag(result.version));
+
+        server.getCompressionPolicy().send(exchange, sessionId, result.version, result.payload);
+        exchange.endExchange();
+
+        final Attributes attributes = result.projected ? PARTIAL : FULL;
+        //-- Completions run off the request's thread; its context carries the exemplar when it is sampled
+        payloadSize.record(result.payload.length, attributes, context);
+        latency.record((System.nanoTime() - startNanos) / 1_000_000d, attributes, context);
+        record(route, userId, StatusCodes.OK, result, startNanos);
+
+        _logger.info("Data session sent [sessionId={}, userId={}, bytes={}, latencyMs={}]",
+                sessionId, userId, box(result.payload.length),
+                box(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+    }
+
+    private void record(final String route, final String userId, final int status,
+                        final SerializedDataSession result, final long startNanos) {
+        final long totalNanos = System.nanoTime() - startNanos;
+        if (result == null) {
+            server.getFlightRecorder().record(route, userId, status, 0, 0, 0, 0, totalNanos);
+        } else {
+            server.getFlightRecorder().record(route, userId, status, result.payload.length,
+                    result.igniteNanos, result.serializationNanos, result.queueNanos, totalNanos);
+        }
+    }
+
+    private static final class VersionCheck {
+        static final VersionCheck NONE = new VersionCheck(null, false);
+
+        final Long stored;
+        final boolean notModified;
+
+        VersionCheck(final Long stored, final boolean notModified) {
+            this.stored = stored;
+            this.notModified = notModified;
+        }
+    }
+
+    /**
+     * Serialized session shared by all requests coalesced onto the same read, with the timings of that read;
+     * or, for a conditional request whose version still matches, only that version.
+     */
+    static final class SerializedDataSession {
+        //-- The session is missing because its user has none
+        static final SerializedDataSession NO_USER = new SerializedDataSession(null, null, 0, false, 0, 0, 0);
+
+        final byte[] payload;
+        final String mimeType;
+        final long version;
+        final boolean projected;
+        final boolean notModified;
+        final long queueNanos;
+        final long igniteNanos;
+        final long serializationNanos;
+
+        SerializedDataSession(final byte[] payload, final String mimeType, final long version,
+                              final boolean projected, final long queueNanos, final long igniteNanos,
+                              final long serializationNanos) {
+            this.payload = payload;
+            this.mimeType = mimeType;
+            this.version = version;
+            this.projected = projected;
+            this.notModified = payload == null;
+            this.queueNanos = queueNanos;
+            this.igniteNanos = igniteNanos;
+            this.serializationNanos = serializationNanos;
+        }
+
+        static SerializedDataSession notModified(final long version) {
+            return new SerializedDataSession(null, null, version, false, 0, 0, 0);
+        }
+    }
 }
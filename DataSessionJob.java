@@ -0,0 +1,166 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.google.gson.JsonObject;
+import org.apache.ignite.lang.IgniteFuture;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks a single long-running data session build: its state, its progress and the Ignite
+ * compute futures that make it up, so the build can be observed and cancelled from the API.
+ */
+public class DataSessionJob {
+
+    public enum State {
+        PENDING, RUNNING, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isFinal() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final UUID sessionId;
+    private final String userId;
+    private final long createdAt;
+    private final DataSessionJobRegistry registry;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final Queue<IgniteFuture<?>> futures = new ConcurrentLinkedQueue<>();
+
+    private volatile String message;
+    private volatile long updatedAt;
+
+    DataSessionJob(final DataSessionJobRegistry registry, final String userId, final UUID sessionId) {
+        this.registry = registry;
+        this.userId = userId;
+        this.sessionId = sessionId;
+        this.createdAt = System.currentTimeMillis();
+        this.updatedAt = createdAt;
+    }
+
+    public UUID getSessionId() {
+        return sessionId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Attaches a compute future to this job. The job switches to {@link State#RUNNING} on the
+     * first future and counts every completed one towards its progress. Futures tracked after
+     * the job was cancelled are cancelled straight away.
+     */
+    public <T> IgniteFuture<T> track(final IgniteFuture<T> future) {
+        total.incrementAndGet();
+        futures.add(future);
+
+        if (state.get() == State.CANCELLED) {
+            future.cancel();
+            return future;
+        }
+
+        transition(State.PENDING, State.RUNNING, null);
+
+        future.listen(f -> {
+            futures.remove(f);
+            completed.incrementAndGet();
+            touch();
+        });
+
+        return future;
+    }
+
+    public boolean complete() {
+        return transition(State.RUNNING, State.COMPLETED, null) || transition(State.PENDING, State.COMPLETED, null);
+    }
+
+    public boolean fail(final String reason) {
+        return transition(State.RUNNING, State.FAILED, reason) || transition(State.PENDING, State.FAILED, reason);
+    }
+
+    /**
+     * Cancels every pending compute future behind this session.
+     *
+     * @return {@code false} if the job had already finished.
+     */
+    public boolean cancel() {
+        State current;
+        do {
+            current = state.get();
+            if (current.isFinal()) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, State.CANCELLED));
+
+        IgniteFuture<?> future;
+        while ((future = futures.poll()) != null) {
+            if (!future.isDone()) {
+                future.cancel();
+            }
+        }
+
+        message = "Cancelled by client";
+        touch();
+        return true;
+    }
+
+    private boolean transition(final State from, final State to, final String reason) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+
+        if (reason != null) {
+            message = reason;
+        }
+        touch();
+        return true;
+    }
+
+    private void touch() {
+        updatedAt = System.currentTimeMillis();
+        registry.onStatusChanged(this);
+    }
+
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("sessionId", sessionId.toString());
+        json.addProperty("userId", userId);
+        json.addProperty("state", state.get().name());
+        json.addProperty("total", total.get());
+        json.addProperty("completed", completed.get());
+        json.addProperty("createdAt", createdAt);
+        json.addProperty("updatedAt", updatedAt);
+        if (message != null) {
+            json.addProperty("message", message);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.clarifi.phoenix.ashes.server;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free registry of the data session builds running on this API node.
+ * Handlers register a job when they start building a session, attach the Ignite futures they
+ * spawn through {@link DataSessionJob#track}, and listeners get notified on every status change.
+ * <p>
+ * No handler registers jobs yet, so {@link ServerApp} does not mount the status, cancel and events routes
+ * that read them.
+ * <p>
+ * Finished jobs are dropped after the retention period. A job that made no progress for the stale
+ * period is failed, so a builder that never finishes its job cannot keep it here forever.
+ */
+public class DataSessionJobRegistry {
+
+    private final ConcurrentMap<UUID, DataSessionJob> jobs = new ConcurrentHashMap<>();
+    private final List<Consumer<DataSessionJob>> listeners = new CopyOnWriteArrayList<>();
+    private final long retentionMillis;
+    private final long staleMillis;
+
+    public DataSessionJobRegistry(final long retentionMillis, final long staleMillis) {
+        this.retentionMillis = retentionMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    public DataSessionJob register(final String userId, final UUID sessionId) {
+        final DataSessionJob job = new DataSessionJob(this, userId, sessionId);
+        final DataSessionJob previous = jobs.put(sessionId, job);
+        if (previous != null) {
+            previous.cancel();
+        }
+        onStatusChanged(job);
+        return job;
+    }
+
+    public DataSessionJob get(final UUID sessionId) {
+        return jobs.get(sessionId);
+    }
+
+    public Collection<DataSessionJob> jobs() {
+        return jobs.values();
+    }
+
+    public boolean cancel(final UUID sessionId) {
+        final DataSessionJob job = jobs.get(sessionId);
+        return job != null && job.cancel();
+    }
+
+    public void addListener(final Consumer<DataSessionJob> listener) {
+        listeners.add(listener);
+    }
+
+    void onStatusChanged(final DataSessionJob job) {
+        for (Consumer<DataSessionJob> listener : listeners) {
+            listener.accept(job);
+        }
+    }
+
+    /**
+     * Drops finished jobs that have been kept around for longer than the retention period, and fails
+     * unfinished ones that made no progress for longer than the stale period.
+     */
+    public void evictFinished() {
+        final long now = System.currentTimeMillis();
+        final Iterator<DataSessionJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            final DataSessionJob job = it.next();
+            if (job.getState().isFinal()) {
+                if (job.getUpdatedAt() < now - retentionMillis) {
+                    it.remove();
+                }
+            } else if (job.getUpdatedAt() < now - staleMillis) {
+                job.fail("No progress for " + staleMillis + " ms");
+            }
+        }
+    }
+}
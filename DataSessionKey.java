@@ -0,0 +1,55 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.ignite.cache.affinity.AffinityKeyMapped;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Key of a data session in the consolidated {@link PartitionedDataSessionStore} cache.
+ * All sessions of a user hash to the same partition through {@link AffinityKeyMapped}.
+ */
+public final class DataSessionKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @AffinityKeyMapped
+    private final String userId;
+
+    private final UUID sessionId;
+
+    public DataSessionKey(final String userId, final UUID sessionId) {
+        this.userId = userId;
+        this.sessionId = sessionId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public UUID getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DataSessionKey)) {
+            return false;
+        }
+        final DataSessionKey other = (DataSessionKey) o;
+        return sessionId.equals(other.sessionId) && userId.equals(other.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, sessionId);
+    }
+
+    @Override
+    public String toString() {
+        return userId + ':' + sessionId;
+    }
+}
@@ -0,0 +1,171 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.cache.CacheEntryProcessor;
+
+import javax.cache.processor.MutableEntry;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Part of a data session asked for on {@code GET /data-session/get/{sessionId}}: {@code fields} (comma-separated
+ * field names), {@code dataItems} (comma-separated ids) and a {@code from}/{@code to} date range, both ends
+ * inclusive and in the units the session stores its dates in.
+ * <p>
+ * The projection is evaluated by an entry processor on the session's primary node and comes back as a
+ * {@link ColumnarSessionCodec} record, so only the projected bytes cross the network. Rows are selected by
+ * the data item column ({@code phoenix.projection.dataItemColumn}) and the date column
+ * ({@code phoenix.projection.dateColumn}), in those columns and in the primitive-array columns listed in
+ * {@code phoenix.projection.rowColumns} (comma-separated) that are as long as them; other columns are never
+ * cut, whatever their length. A row filter is ignored while its column is not configured or not present in
+ * the session.
+ */
+public final class DataSessionProjection implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> fields;
+    private final long[] dataItems;
+    private final long from;
+    private final long to;
+    private final String dataItemColumn;
+    private final String dateColumn;
+    private final Set<String> rowColumns;
+
+    public DataSessionProjection(final Set<String> fields, final long[] dataItems, final long from, final long to,
+                                 final String dataItemColumn, final String dateColumn, final Set<String> rowColumns) {
+        this.fields = fields;
+        this.dataItems = dataItems;
+        this.from = from;
+        this.to = to;
+        this.dataItemColumn = dataItemColumn;
+        this.dateColumn = dateColumn;
+        this.rowColumns = rowColumns;
+        if (dataItems != null) {
+            Arrays.sort(dataItems);
+        }
+    }
+
+    /**
+     * @return The projection asked for by the query, or {@code null} for a full read.
+     * @throws IllegalArgumentException If a parameter is malformed.
+     */
+    public static DataSessionProjection fromQuery(final Map<String, Deque<String>> query) {
+        final String fields = first(query, "fields");
+        final String dataItems = first(query, "dataItems");
+        final String from = first(query, "from");
+        final String to = first(query, "to");
+        if (fields == null && dataItems == null && from == null && to == null) {
+            return null;
+        }
+
+        final String rowColumns = System.getProperty("phoenix.projection.rowColumns");
+        try {
+            return new DataSessionProjection(
+                    fields == null ? null : new LinkedHashSet<>(Arrays.asList(fields.split(","))),
+                    dataItems == null ? null : Arrays.stream(dataItems.split(",")).mapToLong(Long::parseLong).toArray(),
+                    from == null ? Long.MIN_VALUE : Long.parseLong(from),
+                    to == null ? Long.MAX_VALUE : Long.parseLong(to),
+                    System.getProperty("phoenix.projection.dataItemColumn"),
+                    System.getProperty("phoenix.projection.dateColumn"),
+                    rowColumns == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(rowColumns.split(","))));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed projection: " + e.getMessage(), e);
+        }
+    }
+
+    private static String first(final Map<String, Deque<String>> query, final String name) {
+        final Deque<String> values = query.get(name);
+        return values == null || values.isEmpty() || values.getFirst().isEmpty() ? null : values.getFirst();
+    }
+
+    public boolean includes(final String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    public boolean filtersDataItems() {
+        return dataItems != null && dataItemColumn != null;
+    }
+
+    public boolean filtersDates() {
+        return (from != Long.MIN_VALUE || to != Long.MAX_VALUE) && dateColumn != null;
+    }
+
+    public boolean matchesDataItem(final long dataItem) {
+        return Arrays.binarySearch(dataItems, dataItem) >= 0;
+    }
+
+    public boolean matchesDate(final long date) {
+        return date >= from && date <= to;
+    }
+
+    /**
+     * @return Whether rows of {@code field} are selected along with the key columns.
+     */
+    public boolean filtersRows(final String field) {
+        return field.equals(dataItemColumn) || field.equals(dateColumn) || rowColumns.contains(field);
+    }
+
+    public String getDataItemColumn() {
+        return dataItemColumn;
+    }
+
+    public String getDateColumn() {
+        return dateColumn;
+    }
+
+    /**
+     * Projects a session stored as a binary object, encoding only the projected fields.
+     */
+    static class OfBinary<K> implements CacheEntryProcessor<K, BinaryObject, byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final DataSessionProjection projection;
+
+        OfBinary(final DataSessionProjection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public byte[] process(final MutableEntry<K, BinaryObject> entry, final Object... arguments) {
+            final BinaryObject session = entry.getValue();
+            if (session == null) {
+                return null;
+            }
+            //-- Row filters need their key columns even when they are not projected
+            final Set<String> fields = new LinkedHashSet<>();
+            for (String field : session.type().fieldNames()) {
+                if (projection.includes(field) || field.equals(projection.dataItemColumn)
+                        || field.equals(projection.dateColumn)) {
+                    fields.add(field);
+                }
+            }
+            return ColumnarSessionCodec.project(ColumnarSessionCodec.encode(session, 0, fields,
+                    ColumnarSessionCodec.Compression.NONE, 0, 0), projection);
+        }
+    }
+
+    /**
+     * Projects a session stored as a {@link ColumnarSessionCodec} record.
+     */
+    static class OfRecord<K> implements CacheEntryProcessor<K, byte[], byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final DataSessionProjection projection;
+
+        OfRecord(final DataSessionProjection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public byte[] process(final MutableEntry<K, byte[]> entry, final Object... arguments) {
+            final byte[] record = entry.getValue();
+            return record == null ? null : ColumnarSessionCodec.project(record, projection);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.google.gson.JsonObject;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.PathTemplateMatch;
+import io.undertow.util.StatusCodes;
+
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * Reports the build of a data session: the registered job while there is one, otherwise
+ * {@code COMPLETED} when the session is already in the store.
+ */
+public class DataSessionStatusHandler implements HttpHandler {
+    private final ServerApp server;
+
+    public DataSessionStatusHandler(final ServerApp server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        //-- Data sessionId is in the path (REST request)
+        final PathTemplateMatch pathMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        final String sessionId = pathMatch.getParameters().get("sessionId");
+        final UUID sessionKey = parseSessionId(exchange, sessionId);
+        if (sessionKey == null) {
+            return;
+        }
+
+        //-- UserId is passed as a query parameter
+        final Deque<String> userIdParam = exchange.getQueryParameters().get("userId");
+        final String userId = userIdParam == null ? null : userIdParam.getFirst();
+
+        final DataSessionJob job = server.getJobRegistry().get(sessionKey);
+        if (job != null && (userId == null || userId.equals(job.getUserId()))) {
+            exchange.setStatusCode(StatusCodes.OK);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            exchange.getResponseSender().send(job.toJson().toString());
+            return;
+        }
+
+        if (job == null && userId != null) {
+            //-- Looking the session up is a remote call, keep it off the IO thread
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(this);
+                return;
+            }
+            if (server.getSessionStore().contains(userId, sessionKey)) {
+                final JsonObject json = new JsonObject();
+                json.addProperty("sessionId", sessionId);
+                json.addProperty("userId", userId);
+                json.addProperty("state", DataSessionJob.State.COMPLETED.name());
+                exchange.setStatusCode(StatusCodes.OK);
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                exchange.getResponseSender().send(json.toString());
+                return;
+            }
+        }
+
+        exchange.setStatusCode(StatusCodes.NOT_FOUND);
+        exchange.getResponseSender().send(String.format(
+                "No job or data session '%s'", sessionId));
+    }
+
+    /**
+     * @return The session id, or {@code null} after answering {@code 400} when it is not a UUID.
+     */
+    static UUID parseSessionId(final HttpServerExchange exchange, final String sessionId) {
+        try {
+            return UUID.fromString(sessionId);
+        } catch (IllegalArgumentException e) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.getResponseSender().send(String.format("Malformed data session id '%s'", sessionId));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import org.apache.ignite.Ignite;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of data sessions as seen by the request handlers, independent of how sessions are
+ * laid out in Ignite.
+ * <p>
+ * {@code phoenix.storage.mode} selects the layout: {@code per-user} (the default) keeps one
+ * {@code user-data-sessions:<userId>} cache per user, {@code partitioned} keeps every session in
+ * a single affinity-keyed cache, and {@code columnar} does the same with sessions encoded by
+ * {@link ColumnarSessionCodec}. See {@link DataSessionStoreMigration} to move from the first to the second.
+ * Only the per-user layout serves the write routes, whose handlers still use the per-user caches directly;
+ * the other layouts are written through this interface alone, and {@link ServerApp} serves them only when
+ * started with {@code phoenix.storage.readOnly=true}.
+ * Synchronous reads go through {@link HedgedReads} when {@code phoenix.read.hedge} is set, and
+ * wait no longer than the current request's {@link Deadline}.
+ */
+public interface DataSessionStore {
+    String MODE_PER_USER = "per-user";
+    String MODE_PARTITIONED = "partitioned";
+    String MODE_COLUMNAR = "columnar";
+
+    /**
+     * @return {@code false} if the user is known to have no sessions at all.
+     */
+    boolean hasUser(String userId);
+
+    PackedDataSession get(String userId, UUID sessionId);
+
+    CompletableFuture<PackedDataSession> getAsync(String userId, UUID sessionId);
+
+    boolean contains(String userId, UUID sessionId);
+
+    void put(String userId, UUID sessionId, PackedDataSession session);
+
+    boolean remove(String userId, UUID sessionId);
+
+    /**
+     * Updates the last access time of a session without waiting for it, when the layout lets the store
+     * do so itself.
+     *
+     * @return {@code false} if the backend's touch task has to do it instead.
+     */
+    default boolean touch(final String userId, final UUID sessionId) {
+        return false;
+    }
+
+    /**
+     * Evaluates a projection on the session's primary node, so only the projected part travels back.
+     *
+     * @return The projected session as a {@link ColumnarSessionCodec} record, or {@code null} if it does not exist.
+     * @throws UnsupportedOperationException If this store cannot evaluate projections.
+     */
+    default byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+        throw new UnsupportedOperationException("Projections are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return Whether {@link #getRecord} can read sessions as records.
+     */
+    default boolean storesRecords() {
+        return false;
+    }
+
+    /**
+     * Reads a session in its stored form, without materializing it.
+     *
+     * @return The session as a {@link ColumnarSessionCodec} record, or {@code null} if it does not exist.
+     * @throws UnsupportedOperationException If this store does not keep records.
+     */
+    default byte[] getRecord(final String userId, final UUID sessionId) {
+        throw new UnsupportedOperationException("Records are not stored by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Drops sessions that were not accessed for longer than {@code maxIdle}.
+     *
+     * @return Number of user caches or sessions evicted.
+     */
+    int evictIdle(Duration maxIdle);
+
+    /**
+     * @param hedgedReads From {@link HedgedReads#fromSystemProperties}, or {@code null}; the caller stops it.
+     */
+    static DataSessionStore fromSystemProperties(final Ignite ignite, final HedgedReads hedgedReads) {
+        final String mode = System.getProperty("phoenix.storage.mode", MODE_PER_USER);
+        switch (mode) {
+            case MODE_PER_USER:
+                return new PerUserDataSessionStore(ignite, hedgedReads);
+            case MODE_PARTITIONED:
+                return new PartitionedDataSessionStore(ignite,
+                        Integer.getInteger("phoenix.storage.backups", 1), hedgedReads);
+            case MODE_COLUMNAR:
+                return new ColumnarDataSessionStore(ignite, Integer.getInteger("phoenix.storage.backups", 1),
+                        ColumnarSessionCodec.fromSystemProperties(ignite.binary()), hedgedReads);
+            default:
+                throw new IllegalArgumentException("Unknown phoenix.storage.mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteDataStreamer;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Copies sessions from the legacy per-user caches into the consolidated
+ * {@link PartitionedDataSessionStore} cache.
+ * <p>
+ * The streamer runs with {@code allowOverwrite=false}, so a session already written to the new
+ * cache by an upgraded node is never replaced by its older per-user copy, and the migration can
+ * be re-run safely. A per-user cache is destroyed only once all its entries were flushed, and
+ * only when {@code destroySource} is set. Each session's last access time is carried over into
+ * {@link DataSessionAccessTimes}, so the idle eviction keeps counting from it.
+ * <p>
+ * This is a one-shot command run once per cluster, not something API nodes do on startup:
+ * {@code gradle migrateDataSessions -Dphoenix.storage.migrate.destroySource=true} joins the cluster as a
+ * client node configured like {@link ServerApp}, migrates and exits. Run it after the API nodes were
+ * switched to the partitioned layout, so no node still writes the per-user caches.
+ */
+public class DataSessionStoreMigration {
+    private static final Logger _logger = Logging.getLogger(DataSessionStoreMigration.class);
+
+    private final Ignite ignite;
+    private final boolean destroySource;
+
+    public DataSessionStoreMigration(final Ignite ignite, final boolean destroySource) {
+        this.ignite = ignite;
+        this.destroySource = destroySource;
+    }
+
+    /**
+     * @return Number of sessions copied.
+     */
+    public long run(final PartitionedDataSessionStore target) {
+        final String prefix = ServerApp.PREFIX_CACHE_USER_DATA_SESSIONS + ':';
+
+        final List<String> sources = new ArrayList<>();
+        for (String cacheName : ignite.cacheNames()) {
+            if (cacheName.startsWith(prefix)) {
+                sources.add(cacheName);
+            }
+        }
+        _logger.info("Migrating {} per-user caches into '{}'", sources.size(), PartitionedDataSessionStore.CACHE_NAME);
+
+        long copied = 0;
+        try (IgniteDataStreamer<DataSessionKey, PackedDataSession> streamer =
+                     ignite.dataStreamer(PartitionedDataSessionStore.CACHE_NAME);
+             IgniteDataStreamer<DataSessionKey, Long> accessStreamer =
+                     ignite.dataStreamer(DataSessionAccessTimes.CACHE_NAME)) {
+            streamer.allowOverwrite(false);
+            accessStreamer.allowOverwrite(false);
+
+            for (String cacheName : sources) {
+                final String userId = cacheName.substring(prefix.length());
+                final IgniteCache<UUID, PackedDataSession> source = ignite.cache(cacheName);
+
+                long userCount = 0;
+                try (QueryCursor<Cache.Entry<UUID, PackedDataSession>> cursor = source.query(new ScanQuery<>())) {
+                    for (Cache.Entry<UUID, PackedDataSession> entry : cursor) {
+                        final DataSessionKey key = new DataSessionKey(userId, entry.getKey());
+                        streamer.addData(key, entry.getValue());
+                        accessStreamer.addData(key, entry.getValue().getLastAccessedAt().toEpochMilli());
+                        userCount++;
+                    }
+                }
+                streamer.flush();
+                accessStreamer.flush();
+                copied += userCount;
+
+                if (destroySource) {
+                    source.destroy();
+                }
+                _logger.info("Migrated {} sessions of user '{}'", userCount, userId);
+            }
+        }
+
+        _logger.info("Migration finished: {} sessions copied", copied);
+        return copied;
+    }
+
+    public static void main(final String[] args) {
+        //-- A one-shot command has nothing for Prometheus to scrape
+        if (System.getProperty("phoenix.metrics.prometheus.port") == null) {
+            System.setProperty("phoenix.metrics.prometheus.port", "0");
+        }
+        try (Ignite ignite = ServerApp.startClientNode()) {
+            final PartitionedDataSessionStore target =
+                    new PartitionedDataSessionStore(ignite, Integer.getInteger("phoenix.storage.backups", 1), null);
+            new DataSessionStoreMigration(ignite, Boolean.getBoolean("phoenix.storage.migrate.destroySource"))
+                    .run(target);
+        }
+    }
+}
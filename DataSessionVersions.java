@@ -0,0 +1,222 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.phoenix.ashes.common.DataSession;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import io.undertow.util.HeaderValues;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
+
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.TouchedExpiryPolicy;
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Content versions of data sessions, stored next to the sessions in their own small cache so a
+ * conditional GET can be answered without reading or serializing the session itself.
+ * <p>
+ * The version is a hash of the session as the GET handler serializes it, computed by {@link #versioned}
+ * when the session is written; readers never write it. A write first drops the old version, so no reader
+ * answers 304 while the content changes, and then stores the new one only if no concurrent writer did:
+ * of two racing writers either version may belong to the content that won, so the loser leaves none and
+ * the session is read in full until its next write. Entries are keyed by {@link DataSessionKey}, colocated
+ * with their sessions, and expire after {@code phoenix.versions.ttl.minutes} (10) without access, longer
+ * than an unread session survives idle eviction.
+ * <p>
+ * Conditional GETs are answered unless {@code phoenix.conditionalGet.enabled=false}, but only when every
+ * writer goes through {@link DataSessionStore}: the per-user write handlers do not, so with them no version
+ * is ever trusted.
+ */
+public final class DataSessionVersions {
+    public static final String CACHE_NAME = "data-session-versions";
+
+    /**
+     * The version cache as the handlers use it, whichever client backs it.
+     */
+    public interface Store {
+        CompletableFuture<Long> getAsync(DataSessionKey key);
+
+        CompletableFuture<Boolean> putIfAbsentAsync(DataSessionKey key, Long version);
+
+        CompletableFuture<Boolean> removeAsync(DataSessionKey key);
+    }
+
+    private DataSessionVersions() {
+    }
+
+    public static boolean conditionalGetsEnabled() {
+        return !ServerApp.legacyWrites()
+                && Boolean.parseBoolean(System.getProperty("phoenix.conditionalGet.enabled", "true"));
+    }
+
+    static long ttlMinutes() {
+        return Long.getLong("phoenix.versions.ttl.minutes", 10);
+    }
+
+    public static IgniteCache<DataSessionKey, Long> cache(final Ignite ignite) {
+        return IgniteInstrumentation.cache(ignite.getOrCreateCache(new CacheConfiguration<DataSessionKey, Long>(CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(Integer.getInteger("phoenix.storage.backups", 1))
+                .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration())
+                .setExpiryPolicyFactory(TouchedExpiryPolicy.factoryOf(new Duration(TimeUnit.MINUTES, ttlMinutes())))));
+    }
+
+    public static Store store(final IgniteCache<DataSessionKey, Long> cache) {
+        return new Store() {
+            @Override
+            public CompletableFuture<Long> getAsync(final DataSessionKey key) {
+                return IgniteFutures.completable(cache.getAsync(key));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> putIfAbsentAsync(final DataSessionKey key, final Long version) {
+                return IgniteFutures.completable(cache.putIfAbsentAsync(key, version));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> removeAsync(final DataSessionKey key) {
+                return IgniteFutures.completable(cache.removeAsync(key));
+            }
+        };
+    }
+
+    /**
+     * @return {@code store} with every write also versioning the session, and every removal dropping its version.
+     */
+    public static DataSessionStore versioned(final DataSessionStore store, final Store versions) {
+        return new VersionedStore(store, versions);
+    }
+
+    /**
+     * @return A 64-bit content version: CRC32 of the payload in the high word, its length in the low word.
+     */
+    public static long versionOf(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (crc.getValue() << 32) | (payload.length & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return The version of the session as the GET handler sends it.
+     */
+    public static long versionOf(final DataSession session) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new PackedDataSession.JsonWriter(session).write(output);
+        return versionOf(output.toByteArray());
+    }
+
+    public static String etag(final long version) {
+        return '"' + Long.toHexString(version) + '"';
+    }
+
+    /**
+     * Weak comparison of an {@code If-None-Match} header against the current entity tag, per RFC 7232.
+     */
+    public static boolean matches(final HeaderValues ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String value : ifNoneMatch) {
+            for (String candidate : value.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class VersionedStore implements DataSessionStore {
+        private final DataSessionStore store;
+        private final Store versions;
+
+        VersionedStore(final DataSessionStore store, final Store versions) {
+            this.store = store;
+            this.versions = versions;
+        }
+
+        @Override
+        public boolean hasUser(final String userId) {
+            return store.hasUser(userId);
+        }
+
+        @Override
+        public PackedDataSession get(final String userId, final UUID sessionId) {
+            return store.get(userId, sessionId);
+        }
+
+        @Override
+        public CompletableFuture<PackedDataSession> getAsync(final String userId, final UUID sessionId) {
+            return store.getAsync(userId, sessionId);
+        }
+
+        @Override
+        public boolean contains(final String userId, final UUID sessionId) {
+            return store.contains(userId, sessionId);
+        }
+
+        @Override
+        public void put(final String userId, final UUID sessionId, final PackedDataSession session) {
+            final DataSessionKey key = new DataSessionKey(userId, sessionId);
+            //-- No version while the content changes, so no reader answers 304 for the old one
+            Deadline.await(versions.removeAsync(key));
+            store.put(userId, sessionId, session);
+            if (!conditionalGetsEnabled()) {
+                return;
+            }
+
+            //-- A concurrent writer stamped first: either version may be the wrong one, so keep neither
+            if (!Deadline.await(versions.putIfAbsentAsync(key, versionOf(session)))) {
+                Deadline.await(versions.removeAsync(key));
+            }
+        }
+
+        @Override
+        public boolean remove(final String userId, final UUID sessionId) {
+            final boolean removed = store.remove(userId, sessionId);
+            Deadline.await(versions.removeAsync(new DataSessionKey(userId, sessionId)));
+            return removed;
+        }
+
+        @Override
+        public boolean touch(final String userId, final UUID sessionId) {
+            return store.touch(userId, sessionId);
+        }
+
+        @Override
+        public byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+            return store.project(userId, sessionId, projection);
+        }
+
+        @Override
+        public boolean storesRecords() {
+            return store.storesRecords();
+        }
+
+        @Override
+        public byte[] getRecord(final String userId, final UUID sessionId) {
+            return store.getRecord(userId, sessionId);
+        }
+
+        @Override
+        public int evictIdle(final java.time.Duration maxIdle) {
+            //-- Versions of evicted sessions expire on their own
+            return store.evictIdle(maxIdle);
+        }
+    }
+}
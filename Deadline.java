@@ -0,0 +1,169 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+import org.apache.ignite.lang.IgniteFuture;
+import org.apache.ignite.lang.IgniteFutureTimeoutException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Time budget of a request, carried through the OpenTelemetry {@link Context} so every Ignite call
+ * made on behalf of the request can be bounded by what is left of it.
+ * <p>
+ * Requests whose budget runs out before any work starts are <i>shed</i>; requests whose budget runs
+ * out while waiting on Ignite are <i>expired</i>. Both are counted in
+ * {@code requests_shed_total} and {@code requests_deadline_expired_total}.
+ */
+public final class Deadline {
+    private static final ContextKey<Deadline> KEY = ContextKey.named("phoenix-deadline");
+    private static final AttributeKey<String> ROUTE = AttributeKey.stringKey("route");
+
+    private static final LongCounter SHED;
+    private static final LongCounter EXPIRED;
+
+    static {
+        final Meter meter = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server");
+        SHED = meter.counterBuilder("requests_shed_total")
+                .setDescription("Requests dropped because their deadline passed before work started")
+                .setUnit("1")
+                .build();
+        EXPIRED = meter.counterBuilder("requests_deadline_expired_total")
+                .setDescription("Requests whose deadline passed while waiting on the cluster")
+                .setUnit("1")
+                .build();
+    }
+
+    private final long deadlineNanos;
+    private final Attributes attributes;
+
+    private Deadline(final long deadlineNanos, final String route) {
+        this.deadlineNanos = deadlineNanos;
+        this.attributes = Attributes.of(ROUTE, route);
+    }
+
+    public static Deadline after(final long timeoutMillis, final String route) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), route);
+    }
+
+    /**
+     * @return The deadline of the current request, or {@code null} if it has none.
+     */
+    public static Deadline current() {
+        return Context.current().get(KEY);
+    }
+
+    /**
+     * @return The deadline stored in {@code context}, or {@code null} if it has none.
+     */
+    public static Deadline of(final Context context) {
+        return context.get(KEY);
+    }
+
+    public Context storeIn(final Context context) {
+        return context.with(KEY, this);
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Sheds the current request if its deadline already passed; call before starting any work.
+     */
+    public static void checkNotExpired() {
+        final Deadline deadline = current();
+        if (deadline != null && deadline.isExpired()) {
+            throw deadline.shed();
+        }
+    }
+
+    ExceededException shed() {
+        SHED.add(1, attributes);
+        return new ExceededException("Request deadline passed before it was processed");
+    }
+
+    ExceededException expired() {
+        EXPIRED.add(1, attributes);
+        return new ExceededException("Request deadline passed while waiting on the cluster");
+    }
+
+    /**
+     * Waits for an Ignite future for at most the remaining budget of the current request.
+     */
+    public static <V> V await(final IgniteFuture<V> future) {
+        final Deadline deadline = current();
+        if (deadline == null) {
+            return future.get();
+        }
+
+        final long remaining = deadline.remainingNanos();
+        try {
+            if (remaining <= 0) {
+                throw new IgniteFutureTimeoutException("Deadline already passed");
+            }
+            return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (IgniteFutureTimeoutException e) {
+            cancelQuietly(future);
+            throw deadline.expired();
+        }
+    }
+
+    /**
+     * Waits for a future for at most the remaining budget of the current request.
+     */
+    public static <V> V await(final CompletableFuture<V> future) {
+        final Deadline deadline = current();
+        if (deadline == null) {
+            return future.join();
+        }
+
+        try {
+            return future.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw deadline.expired();
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void cancelQuietly(final IgniteFuture<?> future) {
+        try {
+            future.cancel();
+        } catch (RuntimeException ignored) {
+            //-- Not every Ignite future supports cancellation
+        }
+    }
+
+    /**
+     * Thrown when a request runs out of time; answered with 504.
+     */
+    public static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExceededException(final String message) {
+            super(message);
+        }
+    }
+}
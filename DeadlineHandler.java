@@ -0,0 +1,60 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Gives every request a {@link Deadline}: the client's {@code X-Request-Timeout} (milliseconds)
+ * capped at {@code maxMillis}, or the route's default. The deadline is made current in the
+ * OpenTelemetry context for the rest of the handler chain and attached to the exchange, for
+ * handlers that continue on another thread.
+ */
+public class DeadlineHandler implements HttpHandler {
+    public static final HttpString REQUEST_TIMEOUT = new HttpString("X-Request-Timeout");
+    public static final AttachmentKey<Deadline> ATTACHMENT_KEY = AttachmentKey.create(Deadline.class);
+
+    private final String route;
+    private final long defaultMillis;
+    private final long maxMillis;
+    private final HttpHandler next;
+
+    public DeadlineHandler(final String route, final long defaultMillis, final long maxMillis, final HttpHandler next) {
+        this.route = route;
+        this.defaultMillis = defaultMillis;
+        this.maxMillis = maxMillis;
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final Deadline deadline = Deadline.after(timeoutOf(exchange), route);
+        if (deadline.isExpired()) {
+            deadline.shed();
+            exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.putAttachment(ATTACHMENT_KEY, deadline);
+        try (Scope scope = deadline.storeIn(Context.current()).makeCurrent()) {
+            next.handleRequest(exchange);
+        }
+    }
+
+    private long timeoutOf(final HttpServerExchange exchange) {
+        final String header = exchange.getRequestHeaders().getFirst(REQUEST_TIMEOUT);
+        if (header == null) {
+            return defaultMillis;
+        }
+        try {
+            return Math.min(Long.parseLong(header.trim()), maxMillis);
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.context.Context;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request dispatcher with one queue per user, served in deficit round-robin order.
+ * <p>
+ * Workers visit the users that have work one after another and run up to {@code weight} tasks per
+ * visit (every task costs one unit of deficit), so a user flooding the API only lengthens their
+ * own queue instead of everyone's.
+ * Up to {@code userParallelism} workers serve one user at the same time, so a user's requests still run
+ * side by side when the others are idle.
+ * Each user's queue is bounded; a full queue rejects with {@link RejectedExecutionException}.
+ * <p>
+ * User ids come from the request, so the queues are bounded too: {@link #evictIdle()} drops the empty ones,
+ * and once {@code maxUsers} queues are in use new users share an overflow queue.
+ * The time every task waited is recorded in the {@code dispatch_queue_time} histogram, with the context the
+ * task was submitted from so a sampled request leaves its trace as an exemplar. Only the tenants listed in
+ * {@code phoenix.dispatch.tenants} get their own {@code tenant} label; everyone else is {@code other}.
+ */
+public class FairDispatcher {
+    private static final AttributeKey<String> TENANT = AttributeKey.stringKey("tenant");
+    private static final Attributes OTHER_TENANTS = Attributes.of(TENANT, "other");
+    private static final String OVERFLOW = "*overflow*";
+
+    private final ConcurrentMap<String, UserQueue> users = new ConcurrentHashMap<>();
+    private final Queue<UserQueue> active = new ConcurrentLinkedQueue<>();
+    private final Semaphore available = new Semaphore(0);
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int userQueueCapacity;
+    private final int defaultWeight;
+    private final int userParallelism;
+    private final int maxUsers;
+    private final Set<String> labelledTenants;
+    private final UserQueue overflow;
+    private final Thread[] workers;
+    private final DoubleHistogram queueTime;
+
+    private volatile boolean running = true;
+
+    public FairDispatcher(final String name, final int threads, final int userQueueCapacity, final int defaultWeight,
+                          final int userParallelism, final int maxUsers, final Set<String> labelledTenants) {
+        this.userQueueCapacity = userQueueCapacity;
+        this.defaultWeight = defaultWeight;
+        this.userParallelism = Math.max(1, userParallelism);
+        this.maxUsers = maxUsers;
+        this.labelledTenants = labelledTenants;
+        this.overflow = new UserQueue(OVERFLOW, defaultWeight, OTHER_TENANTS);
+        this.queueTime = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server")
+                .histogramBuilder("dispatch_queue_time")
+                .setDescription("Time a request waited in its user's dispatch queue")
+                .setUnit("ms")
+                .build();
+
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public static FairDispatcher fromSystemProperties() {
+        final int threads = Integer.getInteger("phoenix.dispatch.threads", 4);
+        final String tenants = System.getProperty("phoenix.dispatch.tenants", "");
+        return new FairDispatcher("fair-dispatcher", threads,
+                Integer.getInteger("phoenix.dispatch.userQueueCapacity", 32),
+                Integer.getInteger("phoenix.dispatch.weight", 1),
+                Integer.getInteger("phoenix.dispatch.userParallelism", threads),
+                Integer.getInteger("phoenix.dispatch.maxUsers", 100_000),
+                tenants.isEmpty() ? Collections.emptySet() : new HashSet<>(Arrays.asList(tenants.split(","))));
+    }
+
+    /**
+     * Sets how many tasks of {@code userId} run per round-robin visit.
+     */
+    public void setWeight(final String userId, final int weight) {
+        queue(userId).weight = Math.max(1, weight);
+    }
+
+    /**
+     * @return An executor that queues its tasks on behalf of {@code userId}.
+     */
+    public Executor executorFor(final String userId) {
+        final UserQueue queue = queue(userId);
+        return task -> submit(queue, task);
+    }
+
+    private UserQueue queue(final String userId) {
+        final UserQueue queue = users.get(userId);
+        if (queue != null) {
+            return queue;
+        }
+        if (users.size() >= maxUsers) {
+            evictIdle();
+            if (users.size() >= maxUsers) {
+                return overflow;
+            }
+        }
+        return users.computeIfAbsent(userId, id -> new UserQueue(id, defaultWeight,
+                labelledTenants.contains(id) ? Attributes.of(TENANT, id) : OTHER_TENANTS));
+    }
+
+    /**
+     * Drops the queues of users with nothing queued or running, and no weight of their own; only one caller
+     * scans at a time. A task submitted through a dropped queue still runs.
+     *
+     * @return Number of queues dropped.
+     */
+    public int evictIdle() {
+        if (!evicting.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            int evicted = 0;
+            for (UserQueue queue : users.values()) {
+                if (queue.size.get() == 0 && queue.running.get() == 0 && !queue.scheduled.get()
+                        && queue.weight == defaultWeight && users.remove(queue.userId, queue)) {
+                    evicted++;
+                }
+            }
+            return evicted;
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void submit(final UserQueue queue, final Runnable task) {
+        if (!running) {
+            throw new RejectedExecutionException("Dispatcher is stopped");
+        }
+        if (queue.size.incrementAndGet() > userQueueCapacity) {
+            queue.size.decrementAndGet();
+            throw new RejectedExecutionException("Dispatch queue of user '" + queue.userId + "' is full");
+        }
+
+        queue.tasks.add(new QueuedTask(task, System.nanoTime(), Context.current()));
+        if (queue.scheduled.compareAndSet(false, true)) {
+            active.add(queue);
+            available.release();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            //-- One permit per entry in the active ring, so the poll below always finds a user
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            final UserQueue queue = active.poll();
+            if (queue == null) {
+                continue;
+            }
+
+            queue.scheduled.set(false);
+            queue.running.incrementAndGet();
+            try {
+                int ran = 0;
+                QueuedTask task;
+                while (ran < queue.weight && (task = queue.tasks.poll()) != null) {
+                    queue.size.decrementAndGet();
+                    //-- Another worker may take the user's next task meanwhile
+                    reschedule(queue);
+                    run(queue, task);
+                    ran++;
+                }
+            } finally {
+                queue.running.decrementAndGet();
+            }
+            reschedule(queue);
+        }
+    }
+
+    /**
+     * Puts a user back on the active ring if it has tasks left and fewer than {@code userParallelism}
+     * workers serving it. Every worker calls this after leaving a user, so no task is left behind.
+     */
+    private void reschedule(final UserQueue queue) {
+        if (!queue.tasks.isEmpty() && queue.running.get() < userParallelism
+                && queue.scheduled.compareAndSet(false, true)) {
+            active.add(queue);
+            available.release();
+        }
+    }
+
+    private void run(final UserQueue queue, final QueuedTask task) {
+        queueTime.record((System.nanoTime() - task.enqueuedAt) / 1_000_000d, queue.attributes, task.context);
+        try {
+            task.task.run();
+        } catch (RuntimeException e) {
+            Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private static final class UserQueue {
+        final String userId;
+        final Attributes attributes;
+        final Queue<QueuedTask> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicInteger running = new AtomicInteger();
+        volatile int weight;
+
+        UserQueue(final String userId, final int weight, final Attributes attributes) {
+            this.userId = userId;
+            this.attributes = attributes;
+            this.weight = weight;
+        }
+    }
+
+    private static final class QueuedTask {
+        final Runnable task;
+        final long enqueuedAt;
+        final Context context;
+
+        QueuedTask(final Runnable task, final long enqueuedAt, final Context context) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+            this.context = context;
+        }
+    }
+}
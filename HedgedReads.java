@@ -0,0 +1,285 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CachePeekMode;
+import org.apache.ignite.cluster.ClusterNode;
+import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteFuture;
+import org.apache.ignite.resources.IgniteInstanceResource;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedged cache reads for the client node.
+ * <p>
+ * A read goes to the key's primary node first. If it has not answered after the configured
+ * percentile of recent primary latencies (clamped to {@code [minDelay, maxDelay]}), the same key is
+ * read from a backup copy by peeking it locally on a backup node, and whichever read answers first
+ * wins; the other one is cancelled. Backups are updated asynchronously under the default
+ * {@code PRIMARY_SYNC} write mode, so a hedged read may return the previous version of an entry
+ * that is being overwritten.
+ * <p>
+ * Hedging needs a backup copy to read, so {@code phoenix.read.hedge} is rejected with the per-user layout,
+ * whose caches are created with no backups, and with {@code phoenix.storage.backups=0}.
+ * <p>
+ * Enabled with {@code phoenix.read.hedge=true}; exports {@code data_session_reads_total},
+ * {@code data_session_hedged_reads_total} and {@code data_session_hedge_wins_total}, so the hedge
+ * rate is hedged/reads and the win rate is wins/hedged.
+ */
+public class HedgedReads {
+    private static final AttributeKey<String> CACHE = AttributeKey.stringKey("cache");
+
+    private final Ignite ignite;
+    private final LatencyTracker primaryLatency;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService timer;
+
+    private final LongCounter reads;
+    private final LongCounter hedged;
+    private final LongCounter wins;
+
+    public HedgedReads(final Ignite ignite, final double percentile, final long minDelayMillis,
+                       final long maxDelayMillis) {
+        this.ignite = ignite;
+        this.primaryLatency = new LatencyTracker(1024, percentile);
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "hedged-reads-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //-- Sorting the samples stays off the Ignite threads that complete reads
+        timer.scheduleWithFixedDelay(primaryLatency::recompute, 100, 100, TimeUnit.MILLISECONDS);
+
+        final Meter meter = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server");
+        reads = meter.counterBuilder("data_session_reads_total")
+                .setDescription("Session reads issued through the hedging read path")
+                .setUnit("1")
+                .build();
+        hedged = meter.counterBuilder("data_session_hedged_reads_total")
+                .setDescription("Session reads that issued a second read against a backup copy")
+                .setUnit("1")
+                .build();
+        wins = meter.counterBuilder("data_session_hedge_wins_total")
+                .setDescription("Hedged reads where the backup copy answered first")
+                .setUnit("1")
+                .build();
+        meter.gaugeBuilder("data_session_hedge_delay")
+                .setDescription("Current delay before a read is hedged")
+                .setUnit("ms")
+                .buildWithCallback(result -> result.record(hedgeDelayNanos() / 1_000_000d));
+    }
+
+    public static HedgedReads fromSystemProperties(final Ignite ignite) {
+        if (!Boolean.getBoolean("phoenix.read.hedge")) {
+            return null;
+        }
+        final String mode = System.getProperty("phoenix.storage.mode", DataSessionStore.MODE_PER_USER);
+        if (DataSessionStore.MODE_PER_USER.equals(mode)) {
+            throw new IllegalArgumentException("phoenix.read.hedge needs backup copies, which per-user caches do not have");
+        }
+        if (Integer.getInteger("phoenix.storage.backups", 1) < 1) {
+            throw new IllegalArgumentException("phoenix.read.hedge needs phoenix.storage.backups of at least 1");
+        }
+        return new HedgedReads(ignite,
+                Double.parseDouble(System.getProperty("phoenix.read.hedge.percentile", "0.95")),
+                Long.getLong("phoenix.read.hedge.minDelayMillis", 2L),
+                Long.getLong("phoenix.read.hedge.maxDelayMillis", 250L));
+    }
+
+    long hedgeDelayNanos() {
+        final long observed = primaryLatency.percentile();
+        return Math.max(minDelayNanos, Math.min(maxDelayNanos, observed == 0 ? maxDelayNanos : observed));
+    }
+
+    public <K, V> CompletableFuture<V> get(final IgniteCache<K, V> cache, final K key) {
+        final Attributes attributes = Attributes.of(CACHE, cache.getName());
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final AtomicLong backupStarted = new AtomicLong();
+        final IgniteFuture<?>[] backup = new IgniteFuture<?>[1];
+        final AtomicReference<RuntimeException> primaryError = new AtomicReference<>();
+        //-- Every read adds one primary sample, or the percentile would only see the fast ones
+        final AtomicBoolean primaryRecorded = new AtomicBoolean();
+
+        reads.add(1, attributes);
+
+        final long start = System.nanoTime();
+        final IgniteFuture<V> primary = cache.getAsync(key);
+
+        final ScheduledFuture<?> hedge = timer.schedule(() -> {
+            final ClusterNode node = backupNode(cache.getName(), key);
+            if (node == null || result.isDone()) {
+                return;
+            }
+            pending.incrementAndGet();
+            hedged.add(1, attributes);
+            backupStarted.set(System.nanoTime());
+
+            final IgniteFuture<V> read = IgniteInstrumentation.compute(ignite.compute(ignite.cluster().forNode(node)))
+                    .callAsync(new BackupPeek<>(cache.getName(), key));
+            backup[0] = read;
+            read.listen(f -> {
+                try {
+                    final V value = f.get();
+                    if (value == null) {
+                        //-- The backup may not hold the entry yet (rebalancing), so it can't prove absence
+                        if (pending.decrementAndGet() == 0) {
+                            completeWithPrimaryOutcome(result, primaryError.get());
+                        }
+                    } else if (result.complete(value)) {
+                        wins.add(1, attributes);
+                        //-- The primary took at least this long; the sample is a lower bound, not dropped
+                        if (primaryRecorded.compareAndSet(false, true)) {
+                            primaryLatency.record(System.nanoTime() - start);
+                        }
+                        cancelQuietly(primary);
+                    }
+                } catch (RuntimeException e) {
+                    if (pending.decrementAndGet() == 0) {
+                        completeWithPrimaryOutcome(result, primaryError.get());
+                    }
+                }
+            });
+        }, hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+
+        primary.listen(f -> {
+            if (primaryRecorded.compareAndSet(false, true)) {
+                primaryLatency.record(System.nanoTime() - start);
+            }
+            try {
+                final V value = f.get();
+                if (result.complete(value) && backupStarted.get() != 0) {
+                    cancelQuietly(backup[0]);
+                }
+            } catch (RuntimeException e) {
+                primaryError.set(e);
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+
+        result.whenComplete((value, error) -> hedge.cancel(false));
+        return result;
+    }
+
+    private static <V> void completeWithPrimaryOutcome(final CompletableFuture<V> result,
+                                                       final RuntimeException primaryError) {
+        if (primaryError != null) {
+            result.completeExceptionally(primaryError);
+        } else {
+            result.complete(null);
+        }
+    }
+
+    private ClusterNode backupNode(final String cacheName, final Object key) {
+        final Collection<ClusterNode> owners = ignite.affinity(cacheName).mapKeyToPrimaryAndBackups(key);
+        final Iterator<ClusterNode> it = owners.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        it.next(); //-- skip the primary
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static void cancelQuietly(final IgniteFuture<?> future) {
+        if (future == null || future.isDone()) {
+            return;
+        }
+        try {
+            future.cancel();
+        } catch (RuntimeException ignored) {
+            //-- Not every Ignite future supports cancellation; the late answer is simply dropped
+        }
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Reads an entry from the local backup copy on the node it is sent to.
+     */
+    private static class BackupPeek<K, V> implements IgniteCallable<V> {
+        private static final long serialVersionUID = 1L;
+
+        @IgniteInstanceResource
+        private transient Ignite ignite;
+
+        private final String cacheName;
+        private final K key;
+
+        BackupPeek(final String cacheName, final K key) {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+
+        @Override
+        public V call() {
+            final IgniteCache<K, V> cache = ignite.cache(cacheName);
+            return cache.localPeek(key, CachePeekMode.BACKUP);
+        }
+    }
+
+    /**
+     * Percentile over a ring of the most recent latency samples. Recording is a couple of atomic
+     * operations; {@link #recompute()} sorts, and runs on the hedging timer.
+     */
+    static final class LatencyTracker {
+        private final AtomicLongArray samples;
+        private final AtomicLong count = new AtomicLong();
+        private final double percentile;
+        private long recomputedAt;
+        private volatile long current;
+
+        LatencyTracker(final int capacity, final double percentile) {
+            this.samples = new AtomicLongArray(capacity);
+            this.percentile = percentile;
+        }
+
+        void record(final long nanos) {
+            final long n = count.getAndIncrement();
+            samples.set((int) (n % samples.length()), nanos);
+        }
+
+        void recompute() {
+            final long n = count.get();
+            if (n == recomputedAt) {
+                return;
+            }
+            recomputedAt = n;
+            final int size = (int) Math.min(n, samples.length());
+            final long[] copy = new long[size];
+            for (int i = 0; i < size; i++) {
+                copy[i] = samples.get(i);
+            }
+            Arrays.sort(copy);
+            current = copy[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+        }
+
+        long percentile() {
+            return current;
+        }
+    }
+}
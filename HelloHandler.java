@@ -4,35 +4,47 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanKind;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
 
 import java.io.IOException;
 import java.io.OutputStream;
 
 public class HelloHandler implements HttpHandler {
 
+    private static final Attributes PATH = Attributes.builder().put("path", "/hello").build();
+
     private final LongCounter httpRequestCounter;
+    private final DoubleHistogram httpRequestDuration;
     private final Tracer tracer;
 
     public HelloHandler(LongCounter httpRequestCounter) {
         this.httpRequestCounter = httpRequestCounter;
+        this.httpRequestDuration = GlobalOpenTelemetry.getMeter("hello-service")
+                .histogramBuilder("http_request_duration")
+                .setDescription("Latency of HTTP requests")
+                .setUnit("ms")
+                .build();
         this.tracer = GlobalOpenTelemetry.get().getTracer("hello-handler");
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
         // Start a new span
         Span span = tracer.spanBuilder("handleRequest")
                 .setSpanKind(SpanKind.SERVER)
                 .startSpan();
 
-        try {
+        // Metrics recorded while the span is current keep its trace as an exemplar
+        try (Scope scope = span.makeCurrent()) {
             // Increment the HTTP request counter
-            httpRequestCounter.add(1, Attributes.builder().put("path", "/hello").build());
+            httpRequestCounter.add(1, PATH);
 
             // Respond with "Hello, World!"
             String response = "Hello, World!";
@@ -45,6 +57,7 @@ public class HelloHandler implements HttpHandler {
             span.setAttribute("http.method", exchange.getRequestMethod());
             span.setAttribute("http.url", exchange.getRequestURI().toString());
             span.setStatus(StatusCode.OK);
+            httpRequestDuration.record((System.nanoTime() - start) / 1_000_000d, PATH);
         } catch (Exception e) {
             // Record exception and set span status to ERROR
             span.recordException(e);
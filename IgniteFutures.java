@@ -0,0 +1,29 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.ignite.lang.IgniteFuture;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapts the futures of the thick client to the {@link CompletableFuture}s the stores expose, which the
+ * thin client's futures already convert to; the handlers see one future type whichever backend is used.
+ */
+public final class IgniteFutures {
+    private IgniteFutures() {
+    }
+
+    /**
+     * @return A future completed with the outcome of {@code future}, on the thread that completes it.
+     */
+    public static <T> CompletableFuture<T> completable(final IgniteFuture<T> future) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        future.listen(f -> {
+            try {
+                result.complete(f.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,348 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteCompute;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.client.ClientCache;
+import org.apache.ignite.client.ClientCompute;
+import org.apache.ignite.lang.IgniteFuture;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Timing proxies for the {@link IgniteCache} and {@link IgniteCompute} instances handed to the
+ * request handlers, and for their thin-client counterparts {@link ClientCache} and {@link ClientCompute},
+ * so the share of request latency spent in the cluster is visible.
+ * <p>
+ * Every data operation is recorded in the {@code ignite_client_operation_duration} histogram,
+ * labelled by cache group (the cache name up to its first {@code ':'}, which keeps per-user caches
+ * in one series) and operation. Async operations are timed until their future completes, and queries
+ * until their cursor is closed or read to the end. When the calling request is sampled, each operation also becomes a
+ * child span. Calls go through a method handle built once per method, with the attributes built once
+ * per cache group, so an untraced operation costs no reflection and allocates no strings.
+ * Disabled with {@code phoenix.ignite.instrument=false}.
+ */
+public final class IgniteInstrumentation {
+    private static final AttributeKey<String> GROUP = AttributeKey.stringKey("cache_group");
+    private static final AttributeKey<String> OPERATION = AttributeKey.stringKey("operation");
+    private static final String COMPUTE_GROUP = "compute";
+
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("phoenix.ignite.instrument", "true"));
+
+    private static final Set<String> CACHE_OPERATIONS = new HashSet<>(Arrays.asList(
+            "get", "getAsync", "getAll", "getAllAsync", "getAndPut", "getAndPutAsync",
+            "put", "putAsync", "putAll", "putAllAsync", "putIfAbsent", "putIfAbsentAsync",
+            "containsKey", "containsKeyAsync", "replace", "replaceAsync",
+            "remove", "removeAsync", "removeAll", "removeAllAsync",
+            "invoke", "invokeAsync", "invokeAll", "invokeAllAsync",
+            "query", "localPeek", "clear", "clearAsync", "size", "sizeAsync"));
+
+    private static final Set<String> COMPUTE_OPERATIONS = new HashSet<>(Arrays.asList(
+            "run", "runAsync", "call", "callAsync", "apply", "applyAsync",
+            "broadcast", "broadcastAsync", "execute", "executeAsync", "executeAsync2",
+            "affinityRun", "affinityRunAsync", "affinityCall", "affinityCallAsync"));
+
+    private static final ConcurrentMap<String, Map<String, Attributes>> ATTRIBUTES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Method, Invoker> INVOKERS = new ConcurrentHashMap<>();
+
+    private static volatile DoubleHistogram duration;
+    private static volatile Tracer tracer;
+
+    private IgniteInstrumentation() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> IgniteCache<K, V> cache(final IgniteCache<K, V> cache) {
+        if (!ENABLED || cache == null || Proxy.isProxyClass(cache.getClass())) {
+            return cache;
+        }
+        return (IgniteCache<K, V>) Proxy.newProxyInstance(IgniteCache.class.getClassLoader(),
+                new Class<?>[] {IgniteCache.class}, new Timing(cache, groupOf(cache.getName()), CACHE_OPERATIONS));
+    }
+
+    public static IgniteCompute compute(final IgniteCompute compute) {
+        if (!ENABLED || compute == null || Proxy.isProxyClass(compute.getClass())) {
+            return compute;
+        }
+        return (IgniteCompute) Proxy.newProxyInstance(IgniteCompute.class.getClassLoader(),
+                new Class<?>[] {IgniteCompute.class}, new Timing(compute, COMPUTE_GROUP, COMPUTE_OPERATIONS));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ClientCache<K, V> cache(final ClientCache<K, V> cache) {
+        if (!ENABLED || cache == null || Proxy.isProxyClass(cache.getClass())) {
+            return cache;
+        }
+        return (ClientCache<K, V>) Proxy.newProxyInstance(ClientCache.class.getClassLoader(),
+                new Class<?>[] {ClientCache.class}, new Timing(cache, groupOf(cache.getName()), CACHE_OPERATIONS));
+    }
+
+    public static ClientCompute compute(final ClientCompute compute) {
+        if (!ENABLED || compute == null || Proxy.isProxyClass(compute.getClass())) {
+            return compute;
+        }
+        return (ClientCompute) Proxy.newProxyInstance(ClientCompute.class.getClassLoader(),
+                new Class<?>[] {ClientCompute.class}, new Timing(compute, COMPUTE_GROUP, COMPUTE_OPERATIONS));
+    }
+
+    /**
+     * @return The cache name up to its first {@code ':'}, so the per-user caches share one series.
+     */
+    private static String groupOf(final String cacheName) {
+        final int separator = cacheName.indexOf(':');
+        return separator < 0 ? cacheName : cacheName.substring(0, separator);
+    }
+
+    private static DoubleHistogram duration() {
+        DoubleHistogram histogram = duration;
+        if (histogram == null) {
+            histogram = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server")
+                    .histogramBuilder("ignite_client_operation_duration")
+                    .setDescription("Latency of Ignite cache and compute operations seen by the API node")
+                    .setUnit("ms")
+                    .build();
+            duration = histogram;
+        }
+        return histogram;
+    }
+
+    private static Tracer tracer() {
+        Tracer t = tracer;
+        if (t == null) {
+            t = GlobalOpenTelemetry.getTracer("com.clarifi.phoenix.ashes.server.IgniteInstrumentation");
+            tracer = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return The attributes of every timed operation of {@code group}, built once per group.
+     */
+    private static Map<String, Attributes> attributesOf(final String group) {
+        return ATTRIBUTES.computeIfAbsent(group, g -> {
+            final Map<String, Attributes> byOperation = new HashMap<>();
+            for (Set<String> operations : Arrays.asList(CACHE_OPERATIONS, COMPUTE_OPERATIONS)) {
+                for (String name : operations) {
+                    final String operation = operationOf(name);
+                    byOperation.put(operation, Attributes.of(GROUP, g, OPERATION, operation));
+                }
+            }
+            return byOperation;
+        });
+    }
+
+    /**
+     * getAsync -> get, and the thin client's executeAsync2 -> execute.
+     */
+    private static String operationOf(final String name) {
+        final int async = name.indexOf("Async");
+        return async < 0 ? name : name.substring(0, async);
+    }
+
+    /**
+     * How a proxied method is called: through a method handle taking the target and the argument array,
+     * and, for a timed operation, under which operation name.
+     */
+    private static final class Invoker {
+        final MethodHandle handle;
+        final String operation;
+
+        Invoker(final Method method, final Set<String> operations) {
+            try {
+                this.handle = MethodHandles.publicLookup().unreflect(method)
+                        .asSpreader(Object[].class, method.getParameterCount())
+                        .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot instrument " + method, e);
+            }
+            this.operation = operations.contains(method.getName()) ? operationOf(method.getName()) : null;
+        }
+    }
+
+    private static final class Timing implements InvocationHandler {
+        private static final Object[] NO_ARGS = new Object[0];
+
+        private final Object target;
+        private final Map<String, Attributes> attributes;
+        private final Set<String> operations;
+
+        Timing(final Object target, final String group, final Set<String> operations) {
+            this.target = target;
+            this.attributes = attributesOf(group);
+            this.operations = operations;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final Invoker invoker = INVOKERS.computeIfAbsent(method, m -> new Invoker(m, operations));
+            if (invoker.operation == null) {
+                final Object result = invoker.handle.invokeExact(target, args == null ? NO_ARGS : args);
+                //-- Keep projections such as withKeepBinary() or withTimeout() instrumented
+                if (result == target) {
+                    return proxy;
+                }
+                if (result instanceof IgniteCache) {
+                    return cache((IgniteCache<?, ?>) result);
+                }
+                if (result instanceof IgniteCompute) {
+                    return compute((IgniteCompute) result);
+                }
+                if (result instanceof ClientCache) {
+                    return cache((ClientCache<?, ?>) result);
+                }
+                if (result instanceof ClientCompute) {
+                    return compute((ClientCompute) result);
+                }
+                return result;
+            }
+
+            final Attributes operationAttributes = attributes.get(invoker.operation);
+            final Span span = Span.current().getSpanContext().isSampled()
+                    ? tracer().spanBuilder("ignite." + invoker.operation).setAllAttributes(operationAttributes).startSpan()
+                    : null;
+            final long start = System.nanoTime();
+
+            final Object result;
+            try {
+                result = invoker.handle.invokeExact(target, args == null ? NO_ARGS : args);
+            } catch (Throwable e) {
+                finish(operationAttributes, start, span, e);
+                throw e;
+            }
+
+            if (result instanceof IgniteFuture) {
+                ((IgniteFuture<?>) result).listen(f -> {
+                    Throwable error = null;
+                    try {
+                        f.get();
+                    } catch (RuntimeException e) {
+                        error = e;
+                    }
+                    finish(operationAttributes, start, span, error);
+                });
+            } else if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).whenComplete((value, error) -> finish(operationAttributes, start, span, error));
+            } else if (result instanceof QueryCursor) {
+                //-- A scan does its work while it is iterated
+                return new TimedCursor<>((QueryCursor<?>) result, operationAttributes, start, span);
+            } else {
+                finish(operationAttributes, start, span, null);
+            }
+            return result;
+        }
+    }
+
+    private static void finish(final Attributes attributes, final long start, final Span span, final Throwable error) {
+        //-- Completions run on Ignite's threads, so the operation's own span is the exemplar
+        duration().record((System.nanoTime() - start) / 1_000_000d, attributes,
+                span == null ? Context.root() : Context.root().with(span));
+        if (span != null) {
+            if (error != null) {
+                span.recordException(error);
+                span.setStatus(StatusCode.ERROR, String.valueOf(error.getMessage()));
+            }
+            span.end();
+        }
+    }
+
+    /**
+     * Times a query until its cursor is closed or fully read.
+     */
+    private static final class TimedCursor<T> implements QueryCursor<T> {
+        private final QueryCursor<T> cursor;
+        private final Attributes attributes;
+        private final long start;
+        private final Span span;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        TimedCursor(final QueryCursor<T> cursor, final Attributes attributes, final long start, final Span span) {
+            this.cursor = cursor;
+            this.attributes = attributes;
+            this.start = start;
+            this.span = span;
+        }
+
+        @Override
+        public List<T> getAll() {
+            Throwable error = null;
+            try {
+                return cursor.getAll();
+            } catch (RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                finishOnce(error);
+            }
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterator<T> iterator = cursor.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    try {
+                        final boolean hasNext = iterator.hasNext();
+                        if (!hasNext) {
+                            finishOnce(null);
+                        }
+                        return hasNext;
+                    } catch (RuntimeException e) {
+                        finishOnce(e);
+                        throw e;
+                    }
+                }
+
+                @Override
+                public T next() {
+                    try {
+                        return iterator.next();
+                    } catch (RuntimeException e) {
+                        finishOnce(e);
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            try {
+                cursor.close();
+            } finally {
+                finishOnce(null);
+            }
+        }
+
+        private void finishOnce(final Throwable error) {
+            if (finished.compareAndSet(false, true)) {
+                finish(attributes, start, span, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@code GET /management/jfr?seconds=N} records N seconds (30 by default, at most
+ * {@code phoenix.jfr.dump.maxSeconds}, 300) with the JDK's {@code profile} settings and answers with the
+ * {@code .jfr} file. No thread waits while recording: the dump is scheduled on the connection's IO thread
+ * and written from a worker. One recording at a time; a second request gets {@code 409}. {@link ServerApp}
+ * mounts it behind {@code TokenValidatorMiddleware}, as the delete route.
+ */
+public class JfrDumpHandler implements HttpHandler {
+    private static final Logger _logger = Logging.getLogger(JfrDumpHandler.class);
+
+    private final long maxSeconds = Long.getLong("phoenix.jfr.dump.maxSeconds", 300);
+    private final AtomicBoolean recording = new AtomicBoolean();
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws IOException, ParseException {
+        final long seconds = seconds(exchange.getQueryParameters().get("seconds"));
+        if (seconds <= 0 || seconds > maxSeconds) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.getResponseSender().send("seconds must be between 1 and " + maxSeconds);
+            return;
+        }
+        if (!recording.compareAndSet(false, true)) {
+            exchange.setStatusCode(StatusCodes.CONFLICT);
+            exchange.getResponseSender().send("A recording is already in progress");
+            return;
+        }
+
+        final Recording jfr;
+        try {
+            jfr = new Recording(Configuration.getConfiguration("profile"));
+            jfr.setName("on-demand");
+            jfr.start();
+        } catch (IOException | ParseException | RuntimeException e) {
+            recording.set(false);
+            throw e;
+        }
+        _logger.info("On-demand JFR recording started [seconds={}]", seconds);
+
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> exchange.getIoThread().executeAfter(
+                () -> exchange.getConnection().getWorker().execute(() -> finish(exchange, jfr)),
+                seconds, TimeUnit.SECONDS));
+    }
+
+    private static long seconds(final Deque<String> param) {
+        try {
+            return param == null ? 30 : Long.parseLong(param.getFirst());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void finish(final HttpServerExchange exchange, final Recording jfr) {
+        Path file = null;
+        try {
+            jfr.stop();
+            file = Files.createTempFile("phoenix-on-demand-", ".jfr");
+            jfr.dump(file);
+
+            exchange.startBlocking();
+            exchange.setStatusCode(StatusCodes.OK);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+            exchange.getResponseHeaders().put(Headers.CONTENT_DISPOSITION, "attachment; filename=\"phoenix.jfr\"");
+            exchange.setResponseContentLength(Files.size(file));
+            Files.copy(file, exchange.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            _logger.warn("On-demand JFR recording failed", e);
+            if (!exchange.isResponseStarted()) {
+                exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+            }
+        } finally {
+            jfr.close();
+            recording.set(false);
+            exchange.endExchange();
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    //-- Left in the temporary directory
+                }
+            }
+        }
+    }
+}
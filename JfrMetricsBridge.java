@@ -0,0 +1,252 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import com.clarifi.common.util.Logging;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns JDK Flight Recorder events into OpenTelemetry metrics, so GC pauses, allocation, parking and slow
+ * socket reads can be lined up with request latency without an external agent:
+ * <ul>
+ *     <li>{@code jvm_gc_pause} (ms, by {@code gc}) from {@code jdk.GarbageCollection};</li>
+ *     <li>{@code jvm_allocated_bytes} (by {@code pool}) from {@code jdk.ThreadAllocationStatistics};</li>
+ *     <li>{@code jvm_thread_park_duration} (ms, by {@code pool}) from {@code jdk.ThreadPark};</li>
+ *     <li>{@code jvm_socket_read_duration} (ms) and {@code jvm_socket_read_bytes} (by {@code pool}) from
+ *     {@code jdk.SocketRead}.</li>
+ * </ul>
+ * Parks and socket reads are recorded above {@code phoenix.jfr.threshold.millis} (10), which keeps the
+ * overhead low. Thread names are folded into their pool, see {@link #poolOf(String)}.
+ * <p>
+ * The runtime is Java 11, which has no {@code RecordingStream}: one recording runs continuously with a
+ * short max age, and every {@code phoenix.jfr.period.seconds} (10) it is dumped and the events that ended
+ * since the previous dump are read back.
+ */
+public class JfrMetricsBridge implements AutoCloseable {
+    private static final Logger _logger = Logging.getLogger(JfrMetricsBridge.class);
+
+    private static final AttributeKey<String> POOL = AttributeKey.stringKey("pool");
+    private static final AttributeKey<String> GC = AttributeKey.stringKey("gc");
+
+    private final Recording recording = new Recording();
+    private final Duration period;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, Attributes> attributes = new ConcurrentHashMap<>();
+    private final Map<Long, Long> allocatedByThread = new HashMap<>();
+    private final Map<Long, Instant> threadSeenAt = new HashMap<>();
+    private Instant watermark = Instant.now();
+
+    private final DoubleHistogram gcPause;
+    private final LongCounter allocated;
+    private final DoubleHistogram park;
+    private final DoubleHistogram socketRead;
+    private final LongCounter socketReadBytes;
+
+    public JfrMetricsBridge(final Meter meter, final Duration period, final Duration threshold) {
+        this.period = period;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "jfr-metrics-bridge");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        gcPause = meter.histogramBuilder("jvm_gc_pause")
+                .setDescription("Total stop-the-world pause of each garbage collection")
+                .setUnit("ms")
+                .build();
+        allocated = meter.counterBuilder("jvm_allocated_bytes")
+                .setDescription("Bytes allocated on the heap by the threads of each pool")
+                .setUnit("By")
+                .build();
+        park = meter.histogramBuilder("jvm_thread_park_duration")
+                .setDescription("Thread parks longer than the JFR threshold")
+                .setUnit("ms")
+                .build();
+        socketRead = meter.histogramBuilder("jvm_socket_read_duration")
+                .setDescription("Socket reads longer than the JFR threshold")
+                .setUnit("ms")
+                .build();
+        socketReadBytes = meter.counterBuilder("jvm_socket_read_bytes")
+                .setDescription("Bytes returned by socket reads longer than the JFR threshold")
+                .setUnit("By")
+                .build();
+
+        recording.setName("phoenix-metrics");
+        recording.enable("jdk.GarbageCollection");
+        recording.enable("jdk.ThreadAllocationStatistics").withPeriod(period);
+        recording.enable("jdk.ThreadPark").withThreshold(threshold).withoutStackTrace();
+        recording.enable("jdk.SocketRead").withThreshold(threshold).withoutStackTrace();
+        recording.setToDisk(true);
+        recording.setMaxAge(period.multipliedBy(3));
+    }
+
+    /**
+     * @return A started bridge, or {@code null} when {@code phoenix.jfr.enabled=false}.
+     */
+    public static JfrMetricsBridge startFromSystemProperties(final Meter meter) {
+        if (!Boolean.parseBoolean(System.getProperty("phoenix.jfr.enabled", "true"))) {
+            return null;
+        }
+        final JfrMetricsBridge bridge = new JfrMetricsBridge(meter,
+                Duration.ofSeconds(Long.getLong("phoenix.jfr.period.seconds", 10)),
+                Duration.ofMillis(Long.getLong("phoenix.jfr.threshold.millis", 10)));
+        bridge.start();
+        return bridge;
+    }
+
+    public void start() {
+        recording.start();
+        scheduler.scheduleWithFixedDelay(this::poll, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+        _logger.info("JFR metrics bridge started [period={}]", period);
+    }
+
+    private void poll() {
+        Path file = null;
+        try {
+            file = Files.createTempFile("phoenix-jfr-", ".jfr");
+            recording.dump(file);
+
+            Instant latest = watermark;
+            try (RecordingFile events = new RecordingFile(file)) {
+                while (events.hasMoreEvents()) {
+                    final RecordedEvent event = events.readEvent();
+                    final Instant end = event.getEndTime();
+                    if (!end.isAfter(watermark)) {
+                        continue;
+                    }
+                    if (end.isAfter(latest)) {
+                        latest = end;
+                    }
+                    record(event);
+                }
+            }
+            watermark = latest;
+
+            //-- Live threads report every period; forget threads silent for three, which have ended
+            final Instant forgetBefore = latest.minus(period.multipliedBy(3));
+            threadSeenAt.entrySet().removeIf(entry -> {
+                if (entry.getValue().isBefore(forgetBefore)) {
+                    allocatedByThread.remove(entry.getKey());
+                    return true;
+                }
+                return false;
+            });
+        } catch (IOException | RuntimeException e) {
+            _logger.warn("Failed to read the JFR recording", e);
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    //-- Left in the temporary directory
+                }
+            }
+        }
+    }
+
+    private void record(final RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case "jdk.GarbageCollection":
+                gcPause.record(millis(event.getDuration("sumOfPauses")),
+                        attributes.computeIfAbsent("gc/" + event.getString("name"), k -> Attributes.of(GC, k.substring(3))));
+                break;
+            case "jdk.ThreadAllocationStatistics": {
+                final RecordedThread thread = event.getThread("thread");
+                if (thread == null) {
+                    break;
+                }
+                final long total = event.getLong("allocated");
+                final Long previous = allocatedByThread.put(thread.getJavaThreadId(), total);
+                threadSeenAt.put(thread.getJavaThreadId(), event.getEndTime());
+                if (previous != null && total > previous) {
+                    allocated.add(total - previous, pool(thread));
+                }
+                break;
+            }
+            case "jdk.ThreadPark":
+                park.record(millis(event.getDuration()), pool(event.getThread()));
+                break;
+            case "jdk.SocketRead": {
+                final Attributes pool = pool(event.getThread());
+                socketRead.record(millis(event.getDuration()), pool);
+                final long bytes = event.getLong("bytesRead");
+                if (bytes > 0) {
+                    socketReadBytes.add(bytes, pool);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private Attributes pool(final RecordedThread thread) {
+        final String pool = poolOf(thread == null ? null : thread.getJavaName());
+        return attributes.computeIfAbsent(pool, k -> Attributes.of(POOL, k));
+    }
+
+    private static double millis(final Duration duration) {
+        return duration.toNanos() / 1_000_000d;
+    }
+
+    /**
+     * Folds a thread name into the pool it belongs to, keeping the {@code pool} label to a handful of values.
+     */
+    public static String poolOf(final String threadName) {
+        if (threadName == null) {
+            return "other";
+        }
+        if (threadName.startsWith("XNIO-")) {
+            return threadName.contains(" I/O-") ? "undertow-io" : threadName.contains(" task-") ? "undertow-worker" : "undertow";
+        }
+        if (threadName.startsWith("sys-stripe-")) {
+            return "ignite-striped";
+        }
+        if (threadName.startsWith("sys-#")) {
+            return "ignite-system";
+        }
+        if (threadName.startsWith("pub-#")) {
+            return "ignite-public";
+        }
+        if (threadName.startsWith("callback-#")) {
+            return "ignite-callback";
+        }
+        if (threadName.startsWith("grid-nio-worker") || threadName.startsWith("tcp-disco")
+                || threadName.startsWith("tcp-comm")) {
+            return "ignite-network";
+        }
+        if (threadName.startsWith("fair-dispatcher-")) {
+            return "dispatcher";
+        }
+        if (threadName.startsWith("pool-")) {
+            return "executor";
+        }
+        return "other";
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        recording.close();
+    }
+}
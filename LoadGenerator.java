@@ -0,0 +1,343 @@
+package com.clarifi.phoenix.ashes.loadgen;
+
+import com.clarifi.common.util.Logging;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a JSONL traffic capture (see {@link CapturedRequest}) against a running API server and
+ * reports latency per route.
+ * <p>
+ * In <b>open-loop</b> mode requests are started on a fixed schedule of {@code rate} per second no matter
+ * how fast the server answers, and each latency is measured from the request's <i>intended</i> start,
+ * so a stalled server shows up as the queueing delay real clients would see. In <b>closed-loop</b> mode
+ * {@code concurrency} clients each wait for a response before sending the next request; when a rate is
+ * given, each client is paced to its share of it and HdrHistogram back-fills the samples a stall
+ * prevented ({@link Histogram#recordValueWithExpectedInterval}), correcting for coordinated omission.
+ * <p>
+ * Usage: {@code LoadGenerator <capture.jsonl> <target> [open|closed] [rate/s] [concurrency] [seconds] [report.json]},
+ * e.g. {@code LoadGenerator capture.jsonl http://localhost:8083 open 500 64 60 run-a.json}.
+ * {@code PUT}, {@code POST} and {@code PATCH} requests without a body are skipped when the capture is
+ * loaded, since the server's {@code RequestCaptureHandler} does not keep bodies and replaying them empty would
+ * measure error responses.
+ * The JSON report holds the same percentiles as the printed table, so two runs can be diffed.
+ * <p>
+ * A generator owns the threads its HTTP client runs on; {@link #close()} releases them.
+ */
+public class LoadGenerator implements AutoCloseable {
+    private static final Logger _logger = Logging.getLogger(LoadGenerator.class);
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Set<String> NEEDS_BODY = new HashSet<>(Arrays.asList("PUT", "POST", "PATCH"));
+
+    private final List<CapturedRequest> requests;
+    private final String target;
+    private final ExecutorService executor;
+    private final HttpClient client;
+    private final Duration timeout;
+    private final ConcurrentMap<String, RouteStats> routes = new ConcurrentHashMap<>();
+
+    public LoadGenerator(final List<CapturedRequest> requests, final String target, final Duration timeout) {
+        this(requests, target, timeout, HttpClient.Version.HTTP_1_1);
+    }
+
+    /**
+     * @param version {@link HttpClient.Version#HTTP_1_1} opens one connection per concurrent client, while
+     *                {@link HttpClient.Version#HTTP_2} multiplexes them all over h2c connections.
+     */
+    public LoadGenerator(final List<CapturedRequest> requests, final String target, final Duration timeout,
+                         final HttpClient.Version version) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("The capture has no requests");
+        }
+        this.requests = requests;
+        this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        this.timeout = timeout;
+        this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .version(version)
+                .executor(executor)
+                .build();
+    }
+
+    public static List<CapturedRequest> load(final Path capture) throws IOException {
+        final List<CapturedRequest> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(capture, StandardCharsets.UTF_8)) {
+            String line;
+            int skipped = 0;
+            while ((line = reader.readLine()) != null) {
+                final CapturedRequest request = CapturedRequest.parse(line);
+                if (request == null) {
+                    continue;
+                }
+                if (request.getBody() == null && NEEDS_BODY.contains(request.getMethod())) {
+                    skipped++;
+                } else {
+                    requests.add(request);
+                }
+            }
+            if (skipped > 0) {
+                _logger.info("Skipped {} captured writes without a body", skipped);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Starts {@code rate} requests per second for {@code duration}, measuring from their intended start times.
+     */
+    public void runOpenLoop(final double rate, final Duration duration) throws InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final long start = System.nanoTime();
+        final long end = start + duration.toNanos();
+        final AtomicLong outstanding = new AtomicLong();
+
+        long intended = start;
+        for (int i = 0; intended < end; i++, intended = start + i * intervalNanos) {
+            final long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            final CapturedRequest request = requests.get(i % requests.size());
+            final RouteStats stats = stats(request);
+            final long intendedStart = intended;
+            outstanding.incrementAndGet();
+            client.sendAsync(httpRequest(request), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        stats.record(System.nanoTime() - intendedStart, response == null ? -1 : response.statusCode());
+                        outstanding.decrementAndGet();
+                    });
+        }
+
+        //-- Let requests still in flight finish, up to the request timeout
+        final long drainDeadline = System.nanoTime() + timeout.toNanos();
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Runs {@code concurrency} clients for {@code duration}, each sending its next request once the previous
+     * one completed; with {@code rate > 0} each client is paced to {@code rate / concurrency} per second.
+     */
+    public void runClosedLoop(final int concurrency, final double rate, final Duration duration) throws InterruptedException {
+        final long expectedIntervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * concurrency / rate) : 0;
+        final long end = System.nanoTime() + duration.toNanos();
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        final CountDownLatch done = new CountDownLatch(concurrency);
+
+        for (int c = 0; c < concurrency; c++) {
+            final int offset = c;
+            clients.execute(() -> {
+                try {
+                    long next = System.nanoTime();
+                    for (int i = offset; System.nanoTime() < end; i += concurrency) {
+                        final CapturedRequest request = requests.get(i % requests.size());
+                        final long started = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(httpRequest(request), HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        }
+                        stats(request).record(System.nanoTime() - started, status, expectedIntervalNanos);
+
+                        if (expectedIntervalNanos > 0) {
+                            next += expectedIntervalNanos;
+                            final long wait = next - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        clients.shutdown();
+    }
+
+    /**
+     * Stops the HTTP client's threads; requests still in flight fail.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private RouteStats stats(final CapturedRequest request) {
+        return routes.computeIfAbsent(request.getMethod() + ' ' + request.getRoute(), RouteStats::new);
+    }
+
+    private HttpRequest httpRequest(final CapturedRequest request) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(target + request.getPath()))
+                .timeout(timeout)
+                .method(request.getMethod(), request.getBody() == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(request.getBody()));
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Prints one line per route: count, errors, throughput and latency percentiles in milliseconds.
+     */
+    public void printReport(final PrintStream out, final Duration elapsed) {
+        out.printf("%-60s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                "route", "count", "errors", "req/s", "p50", "p90", "p99", "p99.9", "max");
+        for (RouteStats stats : sorted().values()) {
+            final Histogram h = stats.snapshot();
+            out.printf("%-60s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    stats.route, h.getTotalCount(), stats.errors.sum(),
+                    stats.completed.sum() / (elapsed.toNanos() / 1e9),
+                    millis(h.getValueAtPercentile(50)), millis(h.getValueAtPercentile(90)),
+                    millis(h.getValueAtPercentile(99)), millis(h.getValueAtPercentile(99.9)),
+                    millis(h.getMaxValue()));
+        }
+    }
+
+    /**
+     * Writes the report as JSON, one object per route, for comparing runs.
+     */
+    public void writeReport(final Writer out, final String mode, final Duration elapsed) {
+        final JsonObject report = new JsonObject();
+        report.addProperty("target", target);
+        report.addProperty("mode", mode);
+        report.addProperty("elapsedSeconds", elapsed.toNanos() / 1e9);
+
+        final JsonArray rows = new JsonArray();
+        for (RouteStats stats : sorted().values()) {
+            final Histogram h = stats.snapshot();
+            final JsonObject row = new JsonObject();
+            row.addProperty("route", stats.route);
+            row.addProperty("count", h.getTotalCount());
+            row.addProperty("completed", stats.completed.sum());
+            row.addProperty("errors", stats.errors.sum());
+            row.addProperty("p50Ms", millis(h.getValueAtPercentile(50)));
+            row.addProperty("p90Ms", millis(h.getValueAtPercentile(90)));
+            row.addProperty("p99Ms", millis(h.getValueAtPercentile(99)));
+            row.addProperty("p999Ms", millis(h.getValueAtPercentile(99.9)));
+            row.addProperty("maxMs", millis(h.getMaxValue()));
+            rows.add(row);
+        }
+        report.add("routes", rows);
+
+        new GsonBuilder().setPrettyPrinting().create().toJson(report, out);
+    }
+
+    private Map<String, RouteStats> sorted() {
+        return new TreeMap<>(routes);
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1e6;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator <capture.jsonl> <target> [open|closed] [rate/s] [concurrency] [seconds] [report.json]");
+            System.exit(2);
+        }
+
+        final List<CapturedRequest> requests = load(Paths.get(args[0]));
+        final String mode = args.length > 2 ? args[2] : "open";
+        final double rate = args.length > 3 ? Double.parseDouble(args[3]) : 100;
+        final int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        final Duration duration = Duration.ofSeconds(args.length > 5 ? Long.parseLong(args[5]) : 60);
+
+        try (LoadGenerator generator = new LoadGenerator(requests, args[1],
+                Duration.ofMillis(Long.getLong("phoenix.loadgen.timeout.millis", 30_000L)))) {
+            final long start = System.nanoTime();
+            if ("closed".equals(mode)) {
+                generator.runClosedLoop(concurrency, rate, duration);
+            } else {
+                generator.runOpenLoop(rate, duration);
+            }
+            final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            generator.printReport(System.out, elapsed);
+            if (args.length > 6) {
+                try (Writer out = Files.newBufferedWriter(Paths.get(args[6]), StandardCharsets.UTF_8)) {
+                    generator.writeReport(out, mode, elapsed);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static final class RouteStats {
+        final String route;
+        final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+        final Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        RouteStats(final String route) {
+            this.route = route;
+        }
+
+        void record(final long latencyNanos, final int status) {
+            record(latencyNanos, status, 0);
+        }
+
+        void record(final long latencyNanos, final int status, final long expectedIntervalNanos) {
+            final long value = Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS);
+            if (expectedIntervalNanos > 0) {
+                recorder.recordValueWithExpectedInterval(value, expectedIntervalNanos);
+            } else {
+                recorder.recordValue(value);
+            }
+            completed.increment();
+            if (status < 200 || status >= 400) {
+                errors.increment();
+            }
+        }
+
+        synchronized Histogram snapshot() {
+            total.add(recorder.getIntervalHistogram());
+            return total;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import com.clarifi.phoenix.ashes.loadgen.CapturedRequest;
+import com.clarifi.phoenix.ashes.loadgen.LoadGenerator;
+import com.clarifi.phoenix.ashes.metrics.OpenTelemetryConfig;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteBinary;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.binary.BinaryObjectBuilder;
+import org.apache.ignite.configuration.ClientConnectorConfiguration;
+import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.configuration.ThinClientConfiguration;
+import org.apache.ignite.spi.communication.tcp.TcpCommunicationSpi;
+import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Self-contained cluster for end-to-end performance runs: N Ignite server nodes, in this JVM or as
+ * local child JVMs, found through a static IP finder on loopback and working in temporary directories,
+ * plus a {@link ServerApp} joined to them as a client. Nothing outside the machine is needed.
+ * <p>
+ * Sessions are seeded through a {@link SessionFactory}, since how a {@link PackedDataSession} is built
+ * belongs to the common library: {@link BinarySessionFactory} by default, or the class named by
+ * {@code phoenix.harness.sessionFactory}.
+ * The scenarios replay GETs of the seeded sessions with the {@link LoadGenerator}: a throughput run in
+ * open loop, a latency run in closed loop with one client, and a connection run in closed loop with
+ * {@code phoenix.harness.connections} (1000) HTTP/1.1 clients, each holding its own keep-alive connection.
+ * Comparing the connection run under two sets of {@code phoenix.http.*} properties compares server profiles.
+ * <p>
+ * Usage: {@code LocalClusterHarness [nodes] [sessions] [sessionBytes] [rate/s] [seconds] [reportDir]}
+ * with {@code -Dphoenix.harness.forked=true} to run the server nodes as separate JVMs. The servers accept
+ * thin clients too, so the same run compares the data-access backends with {@code -Dphoenix.ignite.backend=thin
+ * -Dphoenix.storage.mode=partitioned}; with forked servers the reported startup time and heap are the API
+ * server's own.
+ */
+public class LocalClusterHarness implements AutoCloseable {
+    private static final Logger _logger = Logging.getLogger(LocalClusterHarness.class);
+
+    private static final int DISCOVERY_PORT = 47600;
+    private static final int COMMUNICATION_PORT = 47200;
+    private static final int THIN_CLIENT_PORT = ClientConnectorConfiguration.DFLT_PORT;
+
+    /**
+     * Builds a synthetic session of roughly {@code approxBytes} serialized bytes.
+     */
+    public interface SessionFactory {
+        PackedDataSession create(String userId, UUID sessionId, int approxBytes);
+    }
+
+    private final int nodes;
+    private final boolean forked;
+    private final Path workRoot;
+    private final List<Ignite> servers = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final Map<String, String> overriddenProperties = new LinkedHashMap<>();
+    private ServerApp app;
+    private long startupMillis;
+
+    public LocalClusterHarness(final int nodes, final boolean forked) throws IOException {
+        this.nodes = nodes;
+        this.forked = forked;
+        this.workRoot = Files.createTempDirectory("phoenix-harness");
+    }
+
+    /**
+     * @return Discovery addresses of the server nodes, as a static IP finder expects them.
+     */
+    public String discoveryAddresses() {
+        return "127.0.0.1:" + DISCOVERY_PORT + ".." + (DISCOVERY_PORT + nodes - 1);
+    }
+
+    /**
+     * @return Thin client addresses of the server nodes.
+     */
+    public String thinClientAddresses() {
+        return "127.0.0.1:" + THIN_CLIENT_PORT + ".." + (THIN_CLIENT_PORT + nodes - 1);
+    }
+
+    static IgniteConfiguration serverConfiguration(final int index, final int nodes, final Path workDir) {
+        final TcpDiscoveryVmIpFinder ipFinder = new TcpDiscoveryVmIpFinder();
+        ipFinder.setAddresses(Collections.singletonList("127.0.0.1:" + DISCOVERY_PORT + ".." + (DISCOVERY_PORT + nodes - 1)));
+
+        return new IgniteConfiguration()
+                .setIgniteInstanceName("harness-server-" + index)
+                .setWorkDirectory(workDir.toString())
+                .setPeerClassLoadingEnabled(true)
+                .setDiscoverySpi(new TcpDiscoverySpi()
+                        .setLocalAddress("127.0.0.1")
+                        .setLocalPort(DISCOVERY_PORT)
+                        .setLocalPortRange(nodes)
+                        .setIpFinder(ipFinder))
+                .setCommunicationSpi(new TcpCommunicationSpi()
+                        .setLocalAddress("127.0.0.1")
+                        .setLocalPort(COMMUNICATION_PORT)
+                        .setLocalPortRange(nodes + 1))
+                .setClientConnectorConfiguration(new ClientConnectorConfiguration()
+                        .setHost("127.0.0.1")
+                        .setPort(THIN_CLIENT_PORT)
+                        .setPortRange(nodes)
+                        .setThinClientConfiguration(new ThinClientConfiguration()
+                                .setMaxActiveComputeTasksPerConnection(1_000)));
+    }
+
+    /**
+     * Starts the server nodes, then the API server as a client of them on {@code httpPort}.
+     */
+    public ServerApp start(final int httpPort) throws Exception {
+        for (int i = 0; i < nodes; i++) {
+            final Path workDir = Files.createDirectories(workRoot.resolve("server-" + i));
+            if (forked) {
+                processes.add(fork(i, workDir));
+            } else {
+                servers.add(Ignition.start(serverConfiguration(i, nodes, workDir)));
+            }
+        }
+
+        //-- ServerApp only reads system properties; close() puts back what was there before
+        overrideProperty("phoenix.ignite.instanceName", "harness-client");
+        overrideProperty("phoenix.ignite.workDir", Files.createDirectories(workRoot.resolve("client")).toString());
+        overrideProperty("phoenix.ignite.discovery.addresses", discoveryAddresses());
+        overrideProperty("phoenix.ignite.thin.addresses", thinClientAddresses());
+        overrideProperty("phoenix.metrics.prometheus.port", "0");
+        overrideProperty("phoenix.http.port", Integer.toString(httpPort));
+        //-- Sessions are seeded through the store, so the other layouts need no write routes
+        overrideProperty("phoenix.storage.readOnly", "true");
+
+        //-- Either client waits until the forked servers are up
+        final long start = System.nanoTime();
+        app = new ServerApp();
+        app.startup();
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (forked) {
+            awaitServers(app.getBackend(), TimeUnit.MINUTES.toMillis(2));
+        }
+        return app;
+    }
+
+    private void overrideProperty(final String key, final String value) {
+        final String previous = System.setProperty(key, value);
+        if (!overriddenProperties.containsKey(key)) {
+            overriddenProperties.put(key, previous);
+        }
+    }
+
+    private void restoreProperties() {
+        for (Map.Entry<String, String> property : overriddenProperties.entrySet()) {
+            if (property.getValue() == null) {
+                System.clearProperty(property.getKey());
+            } else {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+        }
+        overriddenProperties.clear();
+    }
+
+    private Process fork(final int index, final Path workDir) throws IOException {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LocalClusterHarness.class.getName() + "$ServerNode",
+                Integer.toString(index), Integer.toString(nodes), workDir.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve("node.log").toFile())
+                .start();
+    }
+
+    private void awaitServers(final DataAccessBackend backend, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (backend.serverNodes() < nodes) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + backend.serverNodes()
+                        + " of " + nodes + " server nodes joined");
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Stores {@code sessions} synthetic sessions spread over {@code users} users.
+     *
+     * @return A GET request for every seeded session.
+     */
+    public List<CapturedRequest> seed(final SessionFactory factory, final int users, final int sessions,
+                                      final int approxBytes) {
+        final DataSessionStore store = app.getSessionStore();
+        final List<CapturedRequest> requests = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            final String userId = "harness-user-" + (i % users);
+            final UUID sessionId = UUID.randomUUID();
+            store.put(userId, sessionId, factory.create(userId, sessionId, approxBytes));
+            requests.add(new CapturedRequest(0, "GET", "/data-session/get/{sessionId}",
+                    ServerApp.PATH_API2 + "/data-session/get/" + sessionId + "?userId=" + userId,
+                    null, null, 0));
+        }
+        _logger.info("Seeded the harness cluster [sessions={}, users={}, approxBytes={}]", sessions, users, approxBytes);
+        return requests;
+    }
+
+    /**
+     * @return Time the API server took from construction until it was ready.
+     */
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    Path getWorkRoot() {
+        return workRoot;
+    }
+
+    /**
+     * @return Heap in use after a full collection, in bytes.
+     */
+    public static long heapAfterGc() {
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (app != null) {
+            app.shutdown();
+        }
+        for (Ignite server : servers) {
+            server.close();
+        }
+        for (Process process : processes) {
+            process.destroy();
+        }
+        restoreProperties();
+        try (Stream<Path> files = Files.walk(workRoot)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        final int sessionBytes = args.length > 2 ? Integer.parseInt(args[2]) : 64 * 1024;
+        final double rate = args.length > 3 ? Double.parseDouble(args[3]) : 200;
+        final Duration duration = Duration.ofSeconds(args.length > 4 ? Long.parseLong(args[4]) : 60);
+        final Path reportDir = Paths.get(args.length > 5 ? args[5] : ".");
+
+        final String factoryClass = System.getProperty("phoenix.harness.sessionFactory");
+        final int httpPort = Integer.getInteger("phoenix.harness.httpPort", 18083);
+        final String target = "http://localhost:" + httpPort;
+
+        try (LocalClusterHarness harness = new LocalClusterHarness(nodes, Boolean.getBoolean("phoenix.harness.forked"))) {
+            final ServerApp app = harness.start(httpPort);
+            final SessionFactory factory = factoryClass == null
+                    ? new BinarySessionFactory(app.getBackend().binary())
+                    : (SessionFactory) Class.forName(factoryClass).getDeclaredConstructor().newInstance();
+            System.out.printf("== Backend: %s, startup %d ms, heap after GC %.1f MB%n",
+                    System.getProperty("phoenix.ignite.backend", DataAccessBackend.THICK),
+                    harness.getStartupMillis(), heapAfterGc() / (1024d * 1024d));
+            final List<CapturedRequest> requests = harness.seed(factory, Math.max(1, sessions / 10), sessions, sessionBytes);
+            final Duration timeout = Duration.ofSeconds(30);
+
+            System.out.println("== Throughput: open loop at " + rate + " req/s");
+            try (LoadGenerator throughput = new LoadGenerator(requests, target, timeout)) {
+                final long start = System.nanoTime();
+                throughput.runOpenLoop(rate, duration);
+                report(throughput, "open", Duration.ofNanos(System.nanoTime() - start), reportDir.resolve("throughput.json"));
+            }
+
+            System.out.println("== Latency: closed loop, one client");
+            try (LoadGenerator latency = new LoadGenerator(requests, target, timeout)) {
+                final long start = System.nanoTime();
+                latency.runClosedLoop(1, 0, duration);
+                report(latency, "closed", Duration.ofNanos(System.nanoTime() - start), reportDir.resolve("latency.json"));
+            }
+
+            final int connections = Integer.getInteger("phoenix.harness.connections", 1_000);
+            System.out.println("== Connections: closed loop, " + connections + " clients");
+            try (LoadGenerator fanIn = new LoadGenerator(requests, target, timeout, HttpClient.Version.HTTP_1_1)) {
+                final long start = System.nanoTime();
+                fanIn.runClosedLoop(connections, 0, duration);
+                report(fanIn, "closed", Duration.ofNanos(System.nanoTime() - start), reportDir.resolve("connections.json"));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void report(final LoadGenerator generator, final String mode, final Duration elapsed,
+                               final Path file) throws IOException {
+        generator.printReport(System.out, elapsed);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            generator.writeReport(out, mode, elapsed);
+        }
+    }
+
+    /**
+     * Builds sessions through {@link IgniteBinary#builder} from the fields {@link PackedDataSession} declares,
+     * so it depends on no constructor of it. Every primitive array gets as many rows as add up to
+     * {@code approxBytes}: ascending for date columns, random otherwise. Strings, ids, timestamps and enums
+     * get the session's own values; any other field is left unset.
+     */
+    public static final class BinarySessionFactory implements SessionFactory {
+        private final IgniteBinary binary;
+        private final List<Field> fields = new ArrayList<>();
+        private final int rowBytes;
+
+        public BinarySessionFactory(final IgniteBinary binary) {
+            this.binary = binary;
+            int bytes = 0;
+            for (Class<?> type = PackedDataSession.class; type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                        continue;
+                    }
+                    fields.add(field);
+                    if (field.getType().isArray() && field.getType().getComponentType().isPrimitive()) {
+                        bytes += bytesOf(field.getType().getComponentType());
+                    }
+                }
+            }
+            this.rowBytes = Math.max(1, bytes);
+        }
+
+        @Override
+        public PackedDataSession create(final String userId, final UUID sessionId, final int approxBytes) {
+            final int rows = Math.max(1, approxBytes / rowBytes);
+            final BinaryObjectBuilder builder = binary.builder(PackedDataSession.class.getName());
+            for (Field field : fields) {
+                final Object value = valueOf(field, userId, sessionId, rows);
+                if (value != null) {
+                    builder.setField(field.getName(), value);
+                }
+            }
+            return builder.build().deserialize();
+        }
+
+        private static Object valueOf(final Field field, final String userId, final UUID sessionId, final int rows) {
+            final Class<?> type = field.getType();
+            final String name = field.getName().toLowerCase(Locale.ROOT);
+            if (type == String.class) {
+                return name.contains("user") ? userId : sessionId.toString();
+            }
+            if (type == UUID.class) {
+                return sessionId;
+            }
+            if (type == Instant.class) {
+                return Instant.now();
+            }
+            if (type == Timestamp.class) {
+                return new Timestamp(System.currentTimeMillis());
+            }
+            if (type == Date.class) {
+                return new Date();
+            }
+            if (type.isEnum()) {
+                return type.getEnumConstants()[0];
+            }
+            if (type.isArray() && type.getComponentType().isPrimitive()) {
+                return column(type.getComponentType(), rows, name.contains("date"));
+            }
+            return null;
+        }
+
+        private static Object column(final Class<?> component, final int rows, final boolean ascending) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final Object column = Array.newInstance(component, rows);
+            for (int i = 0; i < rows; i++) {
+                final int value = ascending ? i : random.nextInt(1_000_000);
+                if (component == boolean.class) {
+                    Array.setBoolean(column, i, (value & 1) == 0);
+                } else if (component == char.class) {
+                    Array.setChar(column, i, (char) ('a' + value % 26));
+                } else if (component == byte.class) {
+                    Array.setByte(column, i, (byte) value);
+                } else if (component == short.class) {
+                    Array.setShort(column, i, (short) value);
+                } else {
+                    Array.setInt(column, i, value);
+                }
+            }
+            return column;
+        }
+
+        private static int bytesOf(final Class<?> primitive) {
+            if (primitive == long.class || primitive == double.class) {
+                return 8;
+            }
+            if (primitive == int.class || primitive == float.class) {
+                return 4;
+            }
+            return primitive == short.class || primitive == char.class ? 2 : 1;
+        }
+    }
+
+    /**
+     * Entry point of the AppCDS training run ({@code appCdsArchive} in build.gradle): telemetry, one
+     * in-process server node, the API server joined to it and a few seconds of session reads, so the
+     * recorded class list covers startup and the read path; then exits.
+     */
+    public static final class Training {
+        public static void main(final String[] args) throws Exception {
+            OpenTelemetryConfig.setup();
+            final int httpPort = Integer.getInteger("phoenix.harness.httpPort", 18083);
+            try (LocalClusterHarness harness = new LocalClusterHarness(1, false)) {
+                harness.start(httpPort);
+                final List<CapturedRequest> requests = Collections.singletonList(new CapturedRequest(0, "GET",
+                        "/data-session/get/{sessionId}",
+                        ServerApp.PATH_API2 + "/data-session/get/" + UUID.randomUUID() + "?userId=harness-user-0",
+                        null, null, 0));
+                try (LoadGenerator generator = new LoadGenerator(requests, "http://localhost:" + httpPort,
+                        Duration.ofSeconds(10))) {
+                    generator.runClosedLoop(4, 0, Duration.ofSeconds(5));
+                }
+            }
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Entry point of a forked server node: {@code <index> <nodes> <workDir>}.
+     */
+    public static final class ServerNode {
+        public static void main(final String[] args) {
+            Ignition.start(serverConfiguration(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Paths.get(args[2])));
+        }
+    }
+}
@@ -20,9 +20,17 @@ package org.apache.ignite.spi.metric.opencensus;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import io.opencensus.common.Scope;
 import io.opencensus.stats.Aggregation.LastValue;
@@ -55,6 +63,7 @@ import org.apache.ignite.spi.metric.LongMetric;
 import org.apache.ignite.spi.metric.Metric;
 import org.apache.ignite.spi.metric.ObjectMetric;
 import org.apache.ignite.spi.metric.ReadOnlyMetricManager;
+import org.apache.ignite.spi.metric.ReadOnlyMetricRegistry;
 import org.jetbrains.annotations.Nullable;
 
 import static io.opencensus.tags.TagMetadata.TagTtl.UNLIMITED_PROPAGATION;
@@ -66,6 +75,12 @@ import static io.opencensus.tags.TagMetadata.TagTtl.UNLIMITED_PROPAGATION;
  * <br>
  * Please, note, metrics recorded with the OpenCensus API each {@link #period} milliseconds.
  * <br>
+ * To avoid a CPU spike once per period, registries are split into {@link #setExportSlices(int) slices}
+ * by name and one slice is exported every {@code period / slices} milliseconds, so every registry is
+ * still exported once per period. Slices with many registries (nodes with many caches) can be exported
+ * in parallel on a small {@link ForkJoinPool}, see {@link #setExportParallelism(int)}. The duration of
+ * every slice export is recorded in {@link #SLICE_DURATION_MEASURE}.
+ * <br>
  * To enable export from OpenCensus to the wild user should configure OpenCensus exporter.
  * Please, see <a href="https://opencensus.io/exporters/supported-exporters/java/">OpenCensus documentation</a> for additional information.
  *
@@ -104,6 +119,45 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
     /** Tags metadata. */
     public static final TagMetadata METADATA = TagMetadata.create(UNLIMITED_PROPAGATION);
 
+    /** Slice of the self-metric with export durations. */
+    public static final TagKey SLICE_TAG = TagKey.create("slice");
+
+    /** Name of the self-metric with export durations. */
+    public static final String SLICE_DURATION_MEASURE = "metrics.export.slice.duration";
+
+    /** Default number of slices. */
+    public static final int DFLT_EXPORT_SLICES = 4;
+
+    /** Default minimal number of registries in a slice to export it in parallel. */
+    public static final int DFLT_PARALLEL_THRESHOLD = 64;
+
+    /** Number of slices the registries are split into. */
+    private int exportSlices = DFLT_EXPORT_SLICES;
+
+    /** Timer exporting one slice per tick. */
+    private ScheduledExecutorService execSvc;
+
+    /** Scheduled slice export. */
+    private ScheduledFuture<?> fut;
+
+    /** Threads exporting a slice in parallel; {@code 0} to export on the timer thread only. */
+    private int exportParallelism;
+
+    /** Minimal number of registries in a slice to export it in parallel. */
+    private int parallelThreshold = DFLT_PARALLEL_THRESHOLD;
+
+    /** Pool exporting slices in parallel, if enabled. */
+    private ForkJoinPool exportPool;
+
+    /** Slice to export next. */
+    private final AtomicInteger nextSlice = new AtomicInteger();
+
+    /** Slice values in the form of {@link TagValue}. */
+    private TagValue[] sliceValues;
+
+    /** Self-metric with export durations. */
+    private MeasureDouble sliceDuration;
+
     /** Ignite instance name in the form of {@link TagValue}. */
     private TagValue instanceNameValue;
 
@@ -125,10 +179,10 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
      * Opencensus measures.
      * Values obtained from Ignite recorded to them.
      */
-    private Map<String, Measure> measures = new HashMap<>();
+    private Map<String, Measure> measures = new ConcurrentHashMap<>();
 
     /** Cached histogram metrics intervals names. */
-    private final Map<String, T2<long[], String[]>> histogramNames = new HashMap<>();
+    private final Map<String, T2<long[], String[]>> histogramNames = new ConcurrentHashMap<>();
 
     /** */
     private static final Function<Metric, Measure> CREATE_LONG = m ->
@@ -140,16 +194,78 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
 
     /** {@inheritDoc} */
     @Override public void export() {
+        int slice = Math.floorMod(nextSlice.getAndIncrement(), exportSlices);
+
+        long start = System.nanoTime();
+
+        List<ReadOnlyMetricRegistry> regs = new ArrayList<>();
+
+        mreg.forEach(reg -> {
+            if (filter != null && !filter.test(reg))
+                return;
+
+            if (Math.floorMod(reg.name().hashCode(), exportSlices) == slice)
+                regs.add(reg);
+        });
+
+        if (exportPool != null && regs.size() >= parallelThreshold)
+            exportParallel(regs);
+        else
+            export(regs);
+
+        try (Scope sliceScope = tagScope(slice)) {
+            Stats.getStatsRecorder().newMeasureMap()
+                .put(sliceDuration, (System.nanoTime() - start) / 1_000_000d)
+                .record();
+        }
+    }
+
+    /**
+     * Exports {@code regs} on the {@link #exportPool}, in chunks of about {@link #parallelThreshold} registries.
+     *
+     * @param regs Registries of one slice.
+     */
+    private void exportParallel(List<ReadOnlyMetricRegistry> regs) {
+        int chunks = Math.min(exportParallelism, (regs.size() + parallelThreshold - 1) / parallelThreshold);
+        int chunkSize = (regs.size() + chunks - 1) / chunks;
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+
+        for (int from = 0; from < regs.size(); from += chunkSize) {
+            List<ReadOnlyMetricRegistry> chunk = regs.subList(from, Math.min(regs.size(), from + chunkSize));
+
+            tasks.add(exportPool.submit(() -> export(chunk)));
+        }
+
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+            catch (ExecutionException e) {
+                log.error("Failed to export metrics", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Records the values of {@code regs} with the OpenCensus API; one {@link MeasureMap} per call, so calls
+     * for disjoint registries may run concurrently.
+     *
+     * @param regs Registries to export.
+     */
+    private void export(List<ReadOnlyMetricRegistry> regs) {
         StatsRecorder recorder = Stats.getStatsRecorder();
 
         try (Scope globalScope = tagScope()) {
             MeasureMap mmap = recorder.newMeasureMap();
 
-            mreg.forEach(mreg -> {
-                if (filter != null && !filter.test(mreg))
-                    return;
-
-                mreg.forEach(metric -> {
+            for (ReadOnlyMetricRegistry reg : regs) {
+                reg.forEach(metric -> {
                     if (metric instanceof LongMetric ||
                         metric instanceof IntMetric ||
                         metric instanceof BooleanMetric ||
@@ -215,7 +331,7 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
                             "[" + metric.getClass() + "] not supported by Opencensus exporter");
                     }
                 });
-            });
+            }
 
             mmap.record();
         }
@@ -223,6 +339,16 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
 
     /** */
     private Scope tagScope() {
+        return tagsBuilder().buildScoped();
+    }
+
+    /** */
+    private Scope tagScope(int slice) {
+        return tagsBuilder().put(SLICE_TAG, sliceValues[slice], METADATA).buildScoped();
+    }
+
+    /** */
+    private TagContextBuilder tagsBuilder() {
         TagContextBuilder builder = Tags.getTagger().currentBuilder();
 
         if (sendInstanceName)
@@ -234,7 +360,7 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
         if (sendConsistentId)
             builder.put(CONSISTENT_ID_TAG, consistenIdValue, METADATA);
 
-        return builder.buildScoped();
+        return builder;
     }
 
     /** */
@@ -264,7 +390,8 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
 
     /** {@inheritDoc} */
     @Override public void spiStart(@Nullable String igniteInstanceName) throws IgniteSpiException {
-        super.spiStart(igniteInstanceName);
+        if (exportParallelism > 0)
+            exportPool = new ForkJoinPool(exportParallelism);
 
         if (sendInstanceName) {
             tags.add(INSTANCE_NAME_TAG);
@@ -285,7 +412,61 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
             consistenIdValue = TagValue.create("unknown");
         }
 
+        sliceValues = new TagValue[exportSlices];
+
+        for (int i = 0; i < exportSlices; i++)
+            sliceValues[i] = TagValue.create(Integer.toString(i));
+
+        List<TagKey> sliceTags = new ArrayList<>(tags);
+
+        sliceTags.add(SLICE_TAG);
+
+        sliceDuration = MeasureDouble.create(SLICE_DURATION_MEASURE, "Duration of the export of one slice of metric registries", "ms");
+
+        Stats.getViewManager().registerView(View.create(Name.create(SLICE_DURATION_MEASURE),
+            sliceDuration.getDescription(), sliceDuration, LastValue.create(), sliceTags));
+
         mreg.addMetricRegistryRemoveListener(mreg -> mreg.forEach(metric -> histogramNames.remove(metric.name())));
+
+        //-- Scheduled last, so the first export sees the pool, the tags and the slice values set above.
+        //-- The timer fires once per slice; every registry is still exported once per configured period.
+        //-- The adapter's own timer would fire once per period, so it is not started.
+        long slicePeriod = Math.max(1, getPeriod() / exportSlices);
+
+        execSvc = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opencensus-metrics-exporter-" + igniteInstanceName);
+
+            t.setDaemon(true);
+
+            return t;
+        });
+
+        fut = execSvc.scheduleWithFixedDelay(() -> {
+            try {
+                export();
+            }
+            catch (Exception e) {
+                log.error("Metrics export error. " +
+                    "This exporter will be stopped [spiClass=" + getClass() + ",name=" + getName() + ']', e);
+
+                throw e;
+            }
+        }, slicePeriod, slicePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /** {@inheritDoc} */
+    @Override public void spiStop() throws IgniteSpiException {
+        if (fut != null)
+            fut.cancel(false);
+
+        if (execSvc != null)
+            execSvc.shutdown();
+
+        if (exportPool != null) {
+            exportPool.shutdownNow();
+
+            exportPool = null;
+        }
     }
 
     /** {@inheritDoc} */
@@ -344,4 +525,32 @@ public class OpenCensusMetricExporterSpi extends PushMetricsExporterAdapter {
     public void setSendConsistentId(boolean sendConsistentId) {
         this.sendConsistentId = sendConsistentId;
     }
+
+    /**
+     * Sets the number of slices registries are split into; one slice is exported every {@code period / slices}
+     * milliseconds. {@code 1} exports everything at once, every period.
+     *
+     * @param exportSlices Number of slices.
+     */
+    public void setExportSlices(int exportSlices) {
+        this.exportSlices = Math.max(1, exportSlices);
+    }
+
+    /**
+     * Sets the number of threads exporting a slice in parallel. {@code 0}, the default, exports on the timer thread.
+     *
+     * @param exportParallelism Number of threads.
+     */
+    public void setExportParallelism(int exportParallelism) {
+        this.exportParallelism = Math.max(0, exportParallelism);
+    }
+
+    /**
+     * Sets the minimal number of registries in a slice for it to be exported in parallel.
+     *
+     * @param parallelThreshold Number of registries.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
 }
@@ -18,6 +18,7 @@
 package org.apache.ignite.spi.tracing.opencensus;
 
 import io.opencensus.trace.AttributeValue;
+import io.opencensus.trace.Tracing;
 import org.apache.ignite.spi.tracing.SpanStatus;
 import org.apache.ignite.spi.tracing.SpiSpecificSpan;
 
@@ -31,6 +32,9 @@ public class OpenCensusSpanAdapter implements SpiSpecificSpan {
     /** Flag indicates that span is ended. */
     private volatile boolean ended;
 
+    /** Serialized span context, computed on first use; the context of a span never changes. */
+    private volatile byte[] serializedCtx;
+
     /**
      * @param span OpenCensus span delegate.
      */
@@ -43,6 +47,19 @@ public class OpenCensusSpanAdapter implements SpiSpecificSpan {
         return span;
     }
 
+    /**
+     * @return Span context in OpenCensus binary format. The same array is returned to every caller,
+     * so it must not be modified.
+     */
+    byte[] serializedContext() {
+        byte[] res = serializedCtx;
+
+        if (res == null)
+            serializedCtx = res = Tracing.getPropagationComponent().getBinaryFormat().toByteArray(span.getContext());
+
+        return res;
+    }
+
     /** {@inheritDoc} */
     @Override public OpenCensusSpanAdapter addTag(String tagName, String tagVal) {
         tagVal = tagVal != null ? tagVal : "null";
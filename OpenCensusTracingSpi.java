@@ -19,12 +19,18 @@ package org.apache.ignite.spi.tracing.opencensus;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
+import io.opencensus.trace.SpanContext;
 import io.opencensus.trace.Tracing;
+import io.opencensus.trace.propagation.SpanContextParseException;
 import io.opencensus.trace.export.SpanExporter;
 import io.opencensus.trace.samplers.Samplers;
 import org.apache.ignite.internal.tracing.TracingSpiType;
+import org.apache.ignite.internal.util.typedef.internal.A;
+import org.apache.ignite.internal.util.typedef.internal.U;
 import org.apache.ignite.spi.IgniteSpiAdapter;
+import org.apache.ignite.spi.IgniteSpiConfiguration;
 import org.apache.ignite.spi.IgniteSpiConsistencyChecked;
 import org.apache.ignite.spi.IgniteSpiException;
 import org.apache.ignite.spi.IgniteSpiMultipleInstancesSupport;
@@ -49,16 +55,29 @@ import org.jetbrains.annotations.Nullable;
  * </code>
  *
  * See constructors description for detailed explanation.
+ *
+ * A span's context is serialized once and reused for every message the span is attached to, and the last
+ * parsed remote contexts are kept in a small direct-mapped cache (see {@link #setRemoteContextCacheSize(int)}),
+ * so fan-out operations do not pay for the same context once per message on either side.
  */
 @IgniteSpiMultipleInstancesSupport(value = true)
 @IgniteSpiConsistencyChecked(optional = true)
 public class OpenCensusTracingSpi extends IgniteSpiAdapter implements TracingSpi<OpenCensusSpanAdapter> {
+    /** Default number of parsed remote span contexts kept. */
+    public static final int DFLT_REMOTE_CTX_CACHE_SIZE = 256;
+
     /** Configured exporters. */
     private final List<OpenCensusTraceExporter> exporters;
 
     /** Flag indicates that external Tracing is used in environment. In this case no exporters will be started. */
     private final boolean externalProvider;
 
+    /** Number of parsed remote span contexts kept, a power of two. */
+    private int remoteCtxCacheSize = DFLT_REMOTE_CTX_CACHE_SIZE;
+
+    /** Parsed remote span contexts, indexed by the hash of their serialized form; created on start. */
+    private volatile AtomicReferenceArray<RemoteContext> remoteCtxs;
+
     /**
      * This constructor is used if environment (JVM) already has OpenCensus tracing.
      * In this case traces from the node will go trough externally registered exporters by an user himself.
@@ -91,7 +110,7 @@ public class OpenCensusTracingSpi extends IgniteSpiAdapter implements TracingSpi
         return new OpenCensusSpanAdapter(
             Tracing.getTracer().spanBuilderWithRemoteParent(
                 name,
-                Tracing.getPropagationComponent().getBinaryFormat().fromByteArray(parentSerializedSpan)
+                remoteContext(parentSerializedSpan)
             )
                 .setSampler(Samplers.alwaysSample())
                 .startSpan()
@@ -123,9 +142,58 @@ public class OpenCensusTracingSpi extends IgniteSpiAdapter implements TracingSpi
         }
     }
 
+    /**
+     * Parses a remote span context, or takes it from the cache when the same bytes were parsed recently.
+     *
+     * @param serialized Span context in OpenCensus binary format.
+     * @return Parsed span context.
+     * @throws SpanContextParseException If the bytes are not a span context.
+     */
+    SpanContext remoteContext(byte[] serialized) throws SpanContextParseException {
+        AtomicReferenceArray<RemoteContext> cache = remoteCtxs;
+
+        if (serialized == null || cache == null)
+            return Tracing.getPropagationComponent().getBinaryFormat().fromByteArray(serialized);
+
+        int idx = Arrays.hashCode(serialized) & (cache.length() - 1);
+
+        RemoteContext cached = cache.get(idx);
+
+        if (cached != null && Arrays.equals(cached.serialized, serialized))
+            return cached.ctx;
+
+        SpanContext ctx = Tracing.getPropagationComponent().getBinaryFormat().fromByteArray(serialized);
+
+        // The message owns its array, keep a copy so the cache key cannot change.
+        cache.set(idx, new RemoteContext(serialized.clone(), ctx));
+
+        return ctx;
+    }
+
     /** {@inheritDoc} */
     @Override public byte[] serialize(@NotNull OpenCensusSpanAdapter span) {
-        return Tracing.getPropagationComponent().getBinaryFormat().toByteArray(span.impl().getContext());
+        return span.serializedContext();
+    }
+
+    /**
+     * Sets how many parsed remote span contexts are kept, rounded up to a power of two; {@code 0} disables
+     * the cache. Default is {@link #DFLT_REMOTE_CTX_CACHE_SIZE}.
+     *
+     * @param size Number of contexts kept.
+     * @return {@code this} for chaining.
+     */
+    @IgniteSpiConfiguration(optional = true)
+    public OpenCensusTracingSpi setRemoteContextCacheSize(int size) {
+        A.ensure(size >= 0, "size >= 0");
+
+        remoteCtxCacheSize = size;
+
+        return this;
+    }
+
+    /** @return Number of parsed remote span contexts kept. */
+    public int getRemoteContextCacheSize() {
+        return remoteCtxCacheSize;
     }
 
     /** {@inheritDoc} */
@@ -135,6 +203,8 @@ public class OpenCensusTracingSpi extends IgniteSpiAdapter implements TracingSpi
 
     /** {@inheritDoc} */
     @Override public void spiStart(String igniteInstanceName) throws IgniteSpiException {
+        remoteCtxs = remoteCtxCacheSize == 0 ? null : new AtomicReferenceArray<>(U.ceilPow2(remoteCtxCacheSize));
+
         if (!externalProvider && exporters != null)
             for (OpenCensusTraceExporter exporter : exporters)
                 exporter.start(igniteInstanceName);
@@ -151,4 +221,22 @@ public class OpenCensusTracingSpi extends IgniteSpiAdapter implements TracingSpi
     @Override public byte type() {
         return TracingSpiType.OPEN_CENSUS_TRACING_SPI.index();
     }
+
+    /** Parsed remote span context with the bytes it was parsed from. */
+    private static final class RemoteContext {
+        /** Span context in OpenCensus binary format. */
+        private final byte[] serialized;
+
+        /** Parsed span context. */
+        private final SpanContext ctx;
+
+        /**
+         * @param serialized Span context in OpenCensus binary format.
+         * @param ctx Parsed span context.
+         */
+        private RemoteContext(byte[] serialized, SpanContext ctx) {
+            this.serialized = serialized;
+            this.ctx = ctx;
+        }
+    }
 }
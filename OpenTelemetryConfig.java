@@ -1,16 +1,21 @@
 package com.clarifi.phoenix.ashes.metrics;
 
+import com.clarifi.common.util.Logging;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
 import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 
+import java.io.IOException;
 import java.time.Duration;
 
 public class OpenTelemetryConfig {
@@ -19,23 +24,45 @@ public class OpenTelemetryConfig {
     private static LongCounter httpRequestCounter;
 
     public static void setup() {
-        // Configure the OTLP gRPC exporter for traces
-        OtlpGrpcSpanExporter otlpSpanExporter = OtlpGrpcSpanExporter.builder()
+        // Spool to local disk and send over OTLP/HTTP if asked to; otherwise export over gRPC
+        SpoolingOtlpExporter spooling = null;
+        if (Boolean.getBoolean("phoenix.otlp.spool.enabled")) {
+            try {
+                spooling = SpoolingOtlpExporter.fromSystemProperties();
+            } catch (IOException e) {
+                Logging.getLogger(OpenTelemetryConfig.class).warn("Telemetry spool unavailable, exporting without it", e);
+            }
+        }
+
+        // Configure the OTLP exporter for traces
+        SpanExporter otlpSpanExporter = spooling != null ? spooling.spanExporter() : OtlpGrpcSpanExporter.builder()
                 .setEndpoint("http://localhost:4317") // Set the OTLP endpoint
                 .build();
 
+        // The SDK's batch processor, or with phoenix.otel.spans.processor=ring a lock-free ring buffer
+        RingBufferSpanProcessor ringProcessor = null;
+        SpanProcessor spanProcessor;
+        if ("ring".equals(System.getProperty("phoenix.otel.spans.processor", "batch"))) {
+            ringProcessor = RingBufferSpanProcessor.fromSystemProperties(otlpSpanExporter);
+            spanProcessor = ringProcessor;
+        } else {
+            spanProcessor = BatchSpanProcessor.builder(otlpSpanExporter).build();
+        }
+
         // Set up the tracer provider with the OTLP exporter
         SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
-                .addSpanProcessor(BatchSpanProcessor.builder(otlpSpanExporter).build())
+                .addSpanProcessor(spanProcessor)
                 .setResource(createResource())
                 .build();
 
-        // Configure the OTLP gRPC exporter for metrics
-        OtlpGrpcMetricExporter otlpMetricExporter = OtlpGrpcMetricExporter.builder()
+        // Configure the OTLP exporter for metrics
+        MetricExporter otlpMetricExporter = spooling != null ? spooling.metricExporter() : OtlpGrpcMetricExporter.builder()
                 .setEndpoint("http://localhost:4317") // Set the OTLP endpoint
                 .build();
 
-        // Set up the meter provider with the OTLP exporter
+        // Set up the meter provider with the OTLP exporter. Exemplars use the SDK's trace_based filter: only
+        // measurements recorded in the context of a sampled span are kept, at most one per histogram bucket
+        // per export interval
         SdkMeterProvider meterProvider = SdkMeterProvider.builder()
                 .setResource(createResource())
                 .registerMetricReader(PeriodicMetricReader.builder(otlpMetricExporter)
@@ -55,6 +82,20 @@ public class OpenTelemetryConfig {
                 .setDescription("Total number of HTTP requests")
                 .setUnit("1")
                 .build();
+
+        if (spooling != null) {
+            spooling.registerMetrics(GlobalOpenTelemetry.getMeter(SERVICE_NAME));
+        }
+        if (ringProcessor != null) {
+            ringProcessor.registerMetrics(GlobalOpenTelemetry.getMeter(SERVICE_NAME));
+        }
+
+        // Bridge JFR events (GC pauses, allocation, parks, slow socket reads) into metrics
+        try {
+            JfrMetricsBridge.startFromSystemProperties(GlobalOpenTelemetry.getMeter(SERVICE_NAME));
+        } catch (RuntimeException e) {
+            Logging.getLogger(OpenTelemetryConfig.class).warn("JFR metrics unavailable", e);
+        }
     }
 
     private static Resource createResource() {
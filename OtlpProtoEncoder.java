@@ -0,0 +1,412 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import com.google.protobuf.ByteString;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.proto.collector.metrics.v1.ExportMetricsServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.ArrayValue;
+import io.opentelemetry.proto.common.v1.InstrumentationScope;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.metrics.v1.AggregationTemporality;
+import io.opentelemetry.proto.metrics.v1.Exemplar;
+import io.opentelemetry.proto.metrics.v1.ExponentialHistogram;
+import io.opentelemetry.proto.metrics.v1.ExponentialHistogramDataPoint;
+import io.opentelemetry.proto.metrics.v1.Gauge;
+import io.opentelemetry.proto.metrics.v1.Histogram;
+import io.opentelemetry.proto.metrics.v1.HistogramDataPoint;
+import io.opentelemetry.proto.metrics.v1.Metric;
+import io.opentelemetry.proto.metrics.v1.NumberDataPoint;
+import io.opentelemetry.proto.metrics.v1.ResourceMetrics;
+import io.opentelemetry.proto.metrics.v1.ScopeMetrics;
+import io.opentelemetry.proto.metrics.v1.Sum;
+import io.opentelemetry.proto.metrics.v1.Summary;
+import io.opentelemetry.proto.metrics.v1.SummaryDataPoint;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.metrics.data.DoubleExemplarData;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.ExemplarData;
+import io.opentelemetry.sdk.metrics.data.ExponentialHistogramBuckets;
+import io.opentelemetry.sdk.metrics.data.ExponentialHistogramPointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongExemplarData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.data.SummaryPointData;
+import io.opentelemetry.sdk.metrics.data.ValueAtQuantile;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+/**
+ * Encodes SDK span and metric batches as OTLP export requests using the generated classes of
+ * {@code opentelemetry-proto}, the public form of the protocol, rather than the exporters' internal
+ * marshalers, which may change in any release.
+ */
+final class OtlpProtoEncoder {
+    private OtlpProtoEncoder() {
+    }
+
+    static byte[] traces(final Collection<SpanData> spans) {
+        final ExportTraceServiceRequest.Builder request = ExportTraceServiceRequest.newBuilder();
+        group(spans, SpanData::getResource, SpanData::getInstrumentationScopeInfo).forEach((resource, scopes) -> {
+            final ResourceSpans.Builder resourceSpans = ResourceSpans.newBuilder()
+                    .setResource(resource(resource))
+                    .setSchemaUrl(nullToEmpty(resource.getSchemaUrl()));
+            scopes.forEach((scope, data) -> {
+                final ScopeSpans.Builder scopeSpans = ScopeSpans.newBuilder()
+                        .setScope(scope(scope))
+                        .setSchemaUrl(nullToEmpty(scope.getSchemaUrl()));
+                for (SpanData span : data) {
+                    scopeSpans.addSpans(span(span));
+                }
+                resourceSpans.addScopeSpans(scopeSpans);
+            });
+            request.addResourceSpans(resourceSpans);
+        });
+        return request.build().toByteArray();
+    }
+
+    static byte[] metrics(final Collection<MetricData> metrics) {
+        final ExportMetricsServiceRequest.Builder request = ExportMetricsServiceRequest.newBuilder();
+        group(metrics, MetricData::getResource, MetricData::getInstrumentationScopeInfo).forEach((resource, scopes) -> {
+            final ResourceMetrics.Builder resourceMetrics = ResourceMetrics.newBuilder()
+                    .setResource(resource(resource))
+                    .setSchemaUrl(nullToEmpty(resource.getSchemaUrl()));
+            scopes.forEach((scope, data) -> {
+                final ScopeMetrics.Builder scopeMetrics = ScopeMetrics.newBuilder()
+                        .setScope(scope(scope))
+                        .setSchemaUrl(nullToEmpty(scope.getSchemaUrl()));
+                for (MetricData metric : data) {
+                    scopeMetrics.addMetrics(metric(metric));
+                }
+                resourceMetrics.addScopeMetrics(scopeMetrics);
+            });
+            request.addResourceMetrics(resourceMetrics);
+        });
+        return request.build().toByteArray();
+    }
+
+    private static <T> Map<Resource, Map<InstrumentationScopeInfo, List<T>>> group(
+            final Collection<T> items, final Function<T, Resource> resourceOf,
+            final Function<T, InstrumentationScopeInfo> scopeOf) {
+        final Map<Resource, Map<InstrumentationScopeInfo, List<T>>> grouped = new LinkedHashMap<>();
+        for (T item : items) {
+            grouped.computeIfAbsent(resourceOf.apply(item), r -> new LinkedHashMap<>())
+                    .computeIfAbsent(scopeOf.apply(item), s -> new ArrayList<>())
+                    .add(item);
+        }
+        return grouped;
+    }
+
+    private static io.opentelemetry.proto.resource.v1.Resource resource(final Resource resource) {
+        return io.opentelemetry.proto.resource.v1.Resource.newBuilder()
+                .addAllAttributes(attributes(resource.getAttributes()))
+                .build();
+    }
+
+    private static InstrumentationScope scope(final InstrumentationScopeInfo scope) {
+        return InstrumentationScope.newBuilder()
+                .setName(scope.getName())
+                .setVersion(nullToEmpty(scope.getVersion()))
+                .addAllAttributes(attributes(scope.getAttributes()))
+                .build();
+    }
+
+    private static Span span(final SpanData span) {
+        final Span.Builder builder = Span.newBuilder()
+                .setTraceId(ByteString.copyFrom(span.getSpanContext().getTraceIdBytes()))
+                .setSpanId(ByteString.copyFrom(span.getSpanContext().getSpanIdBytes()))
+                .setTraceState(traceState(span.getSpanContext()))
+                .setName(span.getName())
+                .setKind(kind(span.getKind()))
+                .setStartTimeUnixNano(span.getStartEpochNanos())
+                .setEndTimeUnixNano(span.getEndEpochNanos())
+                .addAllAttributes(attributes(span.getAttributes()))
+                .setDroppedAttributesCount(span.getTotalAttributeCount() - span.getAttributes().size())
+                .setDroppedEventsCount(span.getTotalRecordedEvents() - span.getEvents().size())
+                .setDroppedLinksCount(span.getTotalRecordedLinks() - span.getLinks().size())
+                .setStatus(Status.newBuilder()
+                        .setCode(statusCode(span.getStatus().getStatusCode()))
+                        .setMessage(nullToEmpty(span.getStatus().getDescription())));
+        if (span.getParentSpanContext().isValid()) {
+            builder.setParentSpanId(ByteString.copyFrom(span.getParentSpanContext().getSpanIdBytes()));
+        }
+        for (EventData event : span.getEvents()) {
+            builder.addEvents(Span.Event.newBuilder()
+                    .setName(event.getName())
+                    .setTimeUnixNano(event.getEpochNanos())
+                    .addAllAttributes(attributes(event.getAttributes()))
+                    .setDroppedAttributesCount(event.getDroppedAttributesCount()));
+        }
+        for (LinkData link : span.getLinks()) {
+            builder.addLinks(Span.Link.newBuilder()
+                    .setTraceId(ByteString.copyFrom(link.getSpanContext().getTraceIdBytes()))
+                    .setSpanId(ByteString.copyFrom(link.getSpanContext().getSpanIdBytes()))
+                    .setTraceState(traceState(link.getSpanContext()))
+                    .addAllAttributes(attributes(link.getAttributes()))
+                    .setDroppedAttributesCount(link.getTotalAttributeCount() - link.getAttributes().size()));
+        }
+        return builder.build();
+    }
+
+    private static Span.SpanKind kind(final io.opentelemetry.api.trace.SpanKind kind) {
+        switch (kind) {
+            case SERVER:
+                return Span.SpanKind.SPAN_KIND_SERVER;
+            case CLIENT:
+                return Span.SpanKind.SPAN_KIND_CLIENT;
+            case PRODUCER:
+                return Span.SpanKind.SPAN_KIND_PRODUCER;
+            case CONSUMER:
+                return Span.SpanKind.SPAN_KIND_CONSUMER;
+            default:
+                return Span.SpanKind.SPAN_KIND_INTERNAL;
+        }
+    }
+
+    private static Status.StatusCode statusCode(final io.opentelemetry.api.trace.StatusCode code) {
+        switch (code) {
+            case OK:
+                return Status.StatusCode.STATUS_CODE_OK;
+            case ERROR:
+                return Status.StatusCode.STATUS_CODE_ERROR;
+            default:
+                return Status.StatusCode.STATUS_CODE_UNSET;
+        }
+    }
+
+    private static String traceState(final SpanContext context) {
+        //-- W3C tracestate header form: key=value pairs separated by commas
+        final StringJoiner joiner = new StringJoiner(",");
+        context.getTraceState().forEach((key, value) -> joiner.add(key + '=' + value));
+        return joiner.toString();
+    }
+
+    private static Metric metric(final MetricData metric) {
+        final Metric.Builder builder = Metric.newBuilder()
+                .setName(metric.getName())
+                .setDescription(metric.getDescription())
+                .setUnit(metric.getUnit());
+        switch (metric.getType()) {
+            case LONG_GAUGE: {
+                final Gauge.Builder gauge = Gauge.newBuilder();
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    gauge.addDataPoints(longPoint(point));
+                }
+                return builder.setGauge(gauge).build();
+            }
+            case DOUBLE_GAUGE: {
+                final Gauge.Builder gauge = Gauge.newBuilder();
+                for (DoublePointData point : metric.getDoubleGaugeData().getPoints()) {
+                    gauge.addDataPoints(doublePoint(point));
+                }
+                return builder.setGauge(gauge).build();
+            }
+            case LONG_SUM: {
+                final Sum.Builder sum = Sum.newBuilder()
+                        .setIsMonotonic(metric.getLongSumData().isMonotonic())
+                        .setAggregationTemporality(temporality(metric.getLongSumData().getAggregationTemporality()));
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    sum.addDataPoints(longPoint(point));
+                }
+                return builder.setSum(sum).build();
+            }
+            case DOUBLE_SUM: {
+                final Sum.Builder sum = Sum.newBuilder()
+                        .setIsMonotonic(metric.getDoubleSumData().isMonotonic())
+                        .setAggregationTemporality(temporality(metric.getDoubleSumData().getAggregationTemporality()));
+                for (DoublePointData point : metric.getDoubleSumData().getPoints()) {
+                    sum.addDataPoints(doublePoint(point));
+                }
+                return builder.setSum(sum).build();
+            }
+            case SUMMARY: {
+                final Summary.Builder summary = Summary.newBuilder();
+                for (SummaryPointData point : metric.getSummaryData().getPoints()) {
+                    final SummaryDataPoint.Builder dataPoint = SummaryDataPoint.newBuilder()
+                            .setStartTimeUnixNano(point.getStartEpochNanos())
+                            .setTimeUnixNano(point.getEpochNanos())
+                            .addAllAttributes(attributes(point.getAttributes()))
+                            .setCount(point.getCount())
+                            .setSum(point.getSum());
+                    for (ValueAtQuantile quantile : point.getValues()) {
+                        dataPoint.addQuantileValues(SummaryDataPoint.ValueAtQuantile.newBuilder()
+                                .setQuantile(quantile.getQuantile())
+                                .setValue(quantile.getValue()));
+                    }
+                    summary.addDataPoints(dataPoint);
+                }
+                return builder.setSummary(summary).build();
+            }
+            case HISTOGRAM: {
+                final Histogram.Builder histogram = Histogram.newBuilder()
+                        .setAggregationTemporality(temporality(metric.getHistogramData().getAggregationTemporality()));
+                for (HistogramPointData point : metric.getHistogramData().getPoints()) {
+                    final HistogramDataPoint.Builder dataPoint = HistogramDataPoint.newBuilder()
+                            .setStartTimeUnixNano(point.getStartEpochNanos())
+                            .setTimeUnixNano(point.getEpochNanos())
+                            .addAllAttributes(attributes(point.getAttributes()))
+                            .setCount(point.getCount())
+                            .setSum(point.getSum())
+                            .addAllExplicitBounds(point.getBoundaries())
+                            .addAllBucketCounts(point.getCounts())
+                            .addAllExemplars(exemplars(point));
+                    if (point.hasMin()) {
+                        dataPoint.setMin(point.getMin());
+                    }
+                    if (point.hasMax()) {
+                        dataPoint.setMax(point.getMax());
+                    }
+                    histogram.addDataPoints(dataPoint);
+                }
+                return builder.setHistogram(histogram).build();
+            }
+            case EXPONENTIAL_HISTOGRAM: {
+                final ExponentialHistogram.Builder histogram = ExponentialHistogram.newBuilder()
+                        .setAggregationTemporality(
+                                temporality(metric.getExponentialHistogramData().getAggregationTemporality()));
+                for (ExponentialHistogramPointData point : metric.getExponentialHistogramData().getPoints()) {
+                    final ExponentialHistogramDataPoint.Builder dataPoint = ExponentialHistogramDataPoint.newBuilder()
+                            .setStartTimeUnixNano(point.getStartEpochNanos())
+                            .setTimeUnixNano(point.getEpochNanos())
+                            .addAllAttributes(attributes(point.getAttributes()))
+                            .setCount(point.getCount())
+                            .setSum(point.getSum())
+                            .setScale(point.getScale())
+                            .setZeroCount(point.getZeroCount())
+                            .setPositive(buckets(point.getPositiveBuckets()))
+                            .setNegative(buckets(point.getNegativeBuckets()))
+                            .addAllExemplars(exemplars(point));
+                    if (point.hasMin()) {
+                        dataPoint.setMin(point.getMin());
+                    }
+                    if (point.hasMax()) {
+                        dataPoint.setMax(point.getMax());
+                    }
+                    histogram.addDataPoints(dataPoint);
+                }
+                return builder.setExponentialHistogram(histogram).build();
+            }
+            default:
+                return builder.build();
+        }
+    }
+
+    private static NumberDataPoint.Builder longPoint(final LongPointData point) {
+        return NumberDataPoint.newBuilder()
+                .setStartTimeUnixNano(point.getStartEpochNanos())
+                .setTimeUnixNano(point.getEpochNanos())
+                .addAllAttributes(attributes(point.getAttributes()))
+                .setAsInt(point.getValue())
+                .addAllExemplars(exemplars(point));
+    }
+
+    private static NumberDataPoint.Builder doublePoint(final DoublePointData point) {
+        return NumberDataPoint.newBuilder()
+                .setStartTimeUnixNano(point.getStartEpochNanos())
+                .setTimeUnixNano(point.getEpochNanos())
+                .addAllAttributes(attributes(point.getAttributes()))
+                .setAsDouble(point.getValue())
+                .addAllExemplars(exemplars(point));
+    }
+
+    private static ExponentialHistogramDataPoint.Buckets.Builder buckets(final ExponentialHistogramBuckets buckets) {
+        return ExponentialHistogramDataPoint.Buckets.newBuilder()
+                .setOffset(buckets.getOffset())
+                .addAllBucketCounts(buckets.getBucketCounts());
+    }
+
+    private static AggregationTemporality temporality(
+            final io.opentelemetry.sdk.metrics.data.AggregationTemporality temporality) {
+        return temporality == io.opentelemetry.sdk.metrics.data.AggregationTemporality.DELTA
+                ? AggregationTemporality.AGGREGATION_TEMPORALITY_DELTA
+                : AggregationTemporality.AGGREGATION_TEMPORALITY_CUMULATIVE;
+    }
+
+    private static List<Exemplar> exemplars(final PointData point) {
+        final List<? extends ExemplarData> exemplars = point.getExemplars();
+        final List<Exemplar> encoded = new ArrayList<>(exemplars.size());
+        for (ExemplarData exemplar : exemplars) {
+            final Exemplar.Builder builder = Exemplar.newBuilder()
+                    .setTimeUnixNano(exemplar.getEpochNanos())
+                    .addAllFilteredAttributes(attributes(exemplar.getFilteredAttributes()));
+            if (exemplar instanceof LongExemplarData) {
+                builder.setAsInt(((LongExemplarData) exemplar).getValue());
+            } else if (exemplar instanceof DoubleExemplarData) {
+                builder.setAsDouble(((DoubleExemplarData) exemplar).getValue());
+            }
+            if (exemplar.getSpanContext().isValid()) {
+                builder.setTraceId(ByteString.copyFrom(exemplar.getSpanContext().getTraceIdBytes()))
+                        .setSpanId(ByteString.copyFrom(exemplar.getSpanContext().getSpanIdBytes()));
+            }
+            encoded.add(builder.build());
+        }
+        return encoded;
+    }
+
+    private static List<KeyValue> attributes(final Attributes attributes) {
+        final List<KeyValue> encoded = new ArrayList<>(attributes.size());
+        attributes.forEach((key, value) -> encoded.add(KeyValue.newBuilder()
+                .setKey(key.getKey())
+                .setValue(value(key, value))
+                .build()));
+        return encoded;
+    }
+
+    private static AnyValue value(final AttributeKey<?> key, final Object value) {
+        switch (key.getType()) {
+            case BOOLEAN:
+                return AnyValue.newBuilder().setBoolValue((Boolean) value).build();
+            case LONG:
+                return AnyValue.newBuilder().setIntValue((Long) value).build();
+            case DOUBLE:
+                return AnyValue.newBuilder().setDoubleValue((Double) value).build();
+            case STRING_ARRAY:
+            case BOOLEAN_ARRAY:
+            case LONG_ARRAY:
+            case DOUBLE_ARRAY: {
+                final ArrayValue.Builder array = ArrayValue.newBuilder();
+                for (Object element : (List<?>) value) {
+                    array.addValues(scalar(element));
+                }
+                return AnyValue.newBuilder().setArrayValue(array).build();
+            }
+            default:
+                return AnyValue.newBuilder().setStringValue(String.valueOf(value)).build();
+        }
+    }
+
+    private static AnyValue scalar(final Object value) {
+        if (value instanceof Boolean) {
+            return AnyValue.newBuilder().setBoolValue((Boolean) value).build();
+        }
+        if (value instanceof Long) {
+            return AnyValue.newBuilder().setIntValue((Long) value).build();
+        }
+        if (value instanceof Double) {
+            return AnyValue.newBuilder().setDoubleValue((Double) value).build();
+        }
+        return AnyValue.newBuilder().setStringValue(String.valueOf(value)).build();
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value == null ? "" : value;
+    }
+}
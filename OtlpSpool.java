@@ -0,0 +1,387 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Ring of memory-mapped segment files holding encoded telemetry batches until they can be delivered.
+ * <p>
+ * Each segment starts with the offset of its first unread record, followed by records of
+ * {@code [int length][byte signal][int crc32][payload]}; the length is written last, so a record torn
+ * by a crash reads as the end of the segment, as does any record whose checksum does not match. Empty
+ * batches are not spooled, since a zero length marks the end. At most {@code maxSegments} segments exist: when a new
+ * one is needed the oldest is dropped with whatever it still holds, which bounds disk usage at
+ * {@code maxSegments * segmentBytes}. Segments left by a previous run are replayed on open.
+ * <p>
+ * A spool directory belongs to one process at a time: opening it takes a {@link FileLock} on its
+ * {@code lock} file, released by {@link #close()}. {@link #claim} picks the first free directory under a
+ * shared parent, so several processes on one host each get their own and a restarted process picks up
+ * what an earlier one left.
+ * <p>
+ * Thread-safe; appends and reads are serialized on the spool.
+ */
+public class OtlpSpool {
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER = 8;
+    private static final int RECORD_HEADER = 9;
+    private static final String LOCK_FILE = "lock";
+    private static final int MAX_INSTANCES = 64;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private long nextSequence;
+
+    /**
+     * @throws SpoolInUseException If another process, or another spool in this one, holds the directory.
+     */
+    public OtlpSpool(final Path directory, final int segmentBytes, final int maxSegments) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new SpoolInUseException(directory);
+        }
+        this.lock = acquired;
+
+        try {
+            final List<Path> existing;
+            try (Stream<Path> files = Files.list(directory)) {
+                existing = files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            for (Path file : existing) {
+                final String name = file.getFileName().toString();
+                final long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.addLast(Segment.open(file, sequence, segmentBytes));
+                nextSequence = sequence + 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the first of {@code parent/0}, {@code parent/1}, ... that no other spool holds.
+     */
+    public static OtlpSpool claim(final Path parent, final int segmentBytes, final int maxSegments) throws IOException {
+        for (int i = 0; i < MAX_INSTANCES; i++) {
+            try {
+                return new OtlpSpool(parent.resolve(Integer.toString(i)), segmentBytes, maxSegments);
+            } catch (SpoolInUseException e) {
+                //-- Held by another process on this host, try the next one
+            }
+        }
+        throw new IOException("All " + MAX_INSTANCES + " spool directories under " + parent + " are in use");
+    }
+
+    /**
+     * @return The largest payload a single record can hold.
+     */
+    public int maxPayload() {
+        return segmentBytes - HEADER - RECORD_HEADER;
+    }
+
+    /**
+     * Appends a batch, dropping the oldest segment if the spool is full. An empty batch has nothing to
+     * deliver and is not written.
+     *
+     * @return Number of batches dropped to make room, or {@code -1} if {@code payload} is larger than
+     *         {@link #maxPayload()} and was not spooled.
+     */
+    public synchronized int append(final byte signal, final byte[] payload) throws IOException {
+        if (payload.length > maxPayload()) {
+            return -1;
+        }
+        if (payload.length == 0) {
+            return 0;
+        }
+
+        int dropped = 0;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.remaining() < RECORD_HEADER + payload.length) {
+            if (tail != null) {
+                tail.buffer.force();
+            }
+            if (segments.size() >= maxSegments) {
+                dropped = dropHead();
+            }
+            tail = Segment.create(directory.resolve(String.format("%020d%s", nextSequence, SUFFIX)),
+                    nextSequence++, segmentBytes);
+            segments.addLast(tail);
+        }
+
+        tail.write(signal, payload);
+        return dropped;
+    }
+
+    /**
+     * @return The oldest unread batch, or {@code null} if the spool is empty; it stays in the spool
+     *         until {@link #commit}ted.
+     */
+    public synchronized Record peek() throws IOException {
+        Segment head;
+        while ((head = segments.peekFirst()) != null) {
+            final Record record = head.read();
+            if (record != null) {
+                return record;
+            }
+            if (head == segments.peekLast()) {
+                return null;
+            }
+            //-- Fully read and no longer written to
+            segments.removeFirst();
+            head.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Marks {@code record} as delivered. Does nothing if its segment was dropped in the meantime.
+     */
+    public synchronized void commit(final Record record) {
+        final Segment head = segments.peekFirst();
+        if (head != null && head.sequence == record.sequence && head.readOffset == record.offset) {
+            head.setReadOffset(record.next);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.readOffset < segment.writeOffset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Bytes of batches not yet delivered.
+     */
+    public synchronized long pendingBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.writeOffset - segment.readOffset;
+        }
+        return bytes;
+    }
+
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.closeChannel();
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException ignored) {
+            //-- The lock goes away with the process anyway
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private int dropHead() throws IOException {
+        final Segment head = segments.removeFirst();
+        final int unread = head.countUnread();
+        head.delete();
+        return unread;
+    }
+
+    /**
+     * The spool directory is held by another {@link OtlpSpool}.
+     */
+    public static final class SpoolInUseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SpoolInUseException(final Path directory) {
+            super("Telemetry spool " + directory + " is in use");
+        }
+    }
+
+    /**
+     * A spooled batch.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final int offset;
+        private final int next;
+        private final byte signal;
+        private final byte[] payload;
+
+        Record(final long sequence, final int offset, final int next, final byte signal, final byte[] payload) {
+            this.sequence = sequence;
+            this.offset = offset;
+            this.next = next;
+            this.signal = signal;
+            this.payload = payload;
+        }
+
+        public byte getSignal() {
+            return signal;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private static final class Segment {
+        final Path file;
+        final long sequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int readOffset;
+        int writeOffset;
+
+        private Segment(final Path file, final long sequence, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(final Path file, final long sequence, final int size) throws IOException {
+            final Segment segment = map(file, sequence, size);
+            segment.setReadOffset(HEADER);
+            segment.writeOffset = HEADER;
+            return segment;
+        }
+
+        static Segment open(final Path file, final long sequence, final int size) throws IOException {
+            final Segment segment = map(file, sequence, size);
+            final int stored = segment.buffer.getInt(0);
+            segment.readOffset = stored < HEADER || stored > size ? HEADER : stored;
+
+            //-- Find the end of the last complete record
+            int offset = segment.readOffset;
+            int next;
+            while ((next = segment.nextOffset(offset)) > 0) {
+                offset = next;
+            }
+            segment.writeOffset = offset;
+            return segment;
+        }
+
+        private static Segment map(final Path file, final long sequence, final int size) throws IOException {
+            final FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        int remaining() {
+            return buffer.capacity() - writeOffset;
+        }
+
+        void write(final byte signal, final byte[] payload) {
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+
+            final int offset = writeOffset;
+            buffer.put(offset + 4, signal);
+            buffer.putInt(offset + 5, (int) crc.getValue());
+            at(offset + RECORD_HEADER).put(payload);
+            buffer.putInt(offset, payload.length);
+            writeOffset = offset + RECORD_HEADER + payload.length;
+        }
+
+        /**
+         * @return The record at the read offset, or {@code null} at the end of the segment; a record that
+         *         fails its checksum ends the segment, as it would on reopen.
+         */
+        Record read() {
+            if (readOffset >= writeOffset) {
+                return null;
+            }
+            final int next = nextOffset(readOffset);
+            if (next < 0) {
+                writeOffset = readOffset;
+                return null;
+            }
+            final byte[] payload = new byte[next - readOffset - RECORD_HEADER];
+            at(readOffset + RECORD_HEADER).get(payload);
+            return new Record(sequence, readOffset, next, buffer.get(readOffset + 4), payload);
+        }
+
+        /**
+         * @return Offset after the valid record at {@code offset}, or {@code -1} if there is none.
+         */
+        int nextOffset(final int offset) {
+            if (offset + RECORD_HEADER > buffer.capacity()) {
+                return -1;
+            }
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > buffer.capacity()) {
+                return -1;
+            }
+
+            final CRC32 crc = new CRC32();
+            final ByteBuffer payload = at(offset + RECORD_HEADER);
+            payload.limit(offset + RECORD_HEADER + length);
+            crc.update(payload);
+            return (int) crc.getValue() == buffer.getInt(offset + 5) ? offset + RECORD_HEADER + length : -1;
+        }
+
+        private ByteBuffer at(final int offset) {
+            final ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            return view;
+        }
+
+        int countUnread() {
+            int count = 0;
+            for (int offset = readOffset; offset < writeOffset; offset += RECORD_HEADER + buffer.getInt(offset)) {
+                count++;
+            }
+            return count;
+        }
+
+        void setReadOffset(final int offset) {
+            readOffset = offset;
+            buffer.putInt(0, offset);
+        }
+
+        void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                //-- The mapping stays valid until the buffer is collected
+            }
+        }
+
+        void delete() throws IOException {
+            closeChannel();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheKeyConfiguration;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * All data sessions in one partitioned cache keyed by {@link DataSessionKey}. A user's sessions
+ * are colocated on one primary node, and the cluster carries a single partition map no matter
+ * how many users there are.
+ * <p>
+ * Access times are kept in {@link DataSessionAccessTimes}, so touches and idle scans never read or
+ * rewrite a session. The per-user writers ({@code UpdateDataSessionTimestamp} and the put, post and delete
+ * handlers) know nothing of this cache, which is why {@link ServerApp} only starts read-only in this mode.
+ */
+public class PartitionedDataSessionStore implements DataSessionStore {
+    public static final String CACHE_NAME = "data-sessions";
+
+    private static final Logger _logger = Logging.getLogger(PartitionedDataSessionStore.class);
+    private static final int REMOVE_BATCH_SIZE = 512;
+
+    private final IgniteCache<DataSessionKey, PackedDataSession> cache;
+    private final Ignite ignite;
+    private final IgniteCache<DataSessionKey, Long> accessTimes;
+    private final HedgedReads hedgedReads;
+
+    public PartitionedDataSessionStore(final Ignite ignite, final int backups, final HedgedReads hedgedReads) {
+        this.cache = IgniteInstrumentation.cache(ignite.getOrCreateCache(configuration(backups)));
+        this.ignite = ignite;
+        this.accessTimes = IgniteInstrumentation.cache(ignite.getOrCreateCache(DataSessionAccessTimes.configuration(backups)));
+        this.hedgedReads = hedgedReads;
+    }
+
+    public static CacheConfiguration<DataSessionKey, PackedDataSession> configuration(final int backups) {
+        return new CacheConfiguration<DataSessionKey, PackedDataSession>(CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(backups)
+                .setKeyConfiguration(keyConfiguration());
+    }
+
+    /**
+     * Declares the affinity field explicitly as well, so thin clients with partition awareness
+     * can route keys to their primary node.
+     */
+    static CacheKeyConfiguration keyConfiguration() {
+        return new CacheKeyConfiguration(DataSessionKey.class.getName(), "userId");
+    }
+
+    public IgniteCache<DataSessionKey, PackedDataSession> cache() {
+        return cache;
+    }
+
+    @Override
+    public boolean hasUser(final String userId) {
+        return DataSessionAccessTimes.hasUser(ignite, accessTimes, userId);
+    }
+
+    @Override
+    public PackedDataSession get(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        return hedgedReads == null
+                ? Deadline.await(cache.getAsync(key)) : Deadline.await(hedgedReads.get(cache, key));
+    }
+
+    @Override
+    public CompletableFuture<PackedDataSession> getAsync(final String userId, final UUID sessionId) {
+        return IgniteFutures.completable(cache.getAsync(new DataSessionKey(userId, sessionId)));
+    }
+
+    @Override
+    public boolean contains(final String userId, final UUID sessionId) {
+        return Deadline.await(cache.containsKeyAsync(new DataSessionKey(userId, sessionId)));
+    }
+
+    @Override
+    public void put(final String userId, final UUID sessionId, final PackedDataSession session) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        cache.put(key, session);
+        accessTimes.put(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+        return Deadline.await(cache.<DataSessionKey, BinaryObject>withKeepBinary()
+                .invokeAsync(new DataSessionKey(userId, sessionId), new DataSessionProjection.OfBinary<>(projection)));
+    }
+
+    @Override
+    public boolean remove(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        accessTimes.remove(key);
+        return cache.remove(key);
+    }
+
+    @Override
+    public boolean touch(final String userId, final UUID sessionId) {
+        accessTimes.invokeAsync(new DataSessionKey(userId, sessionId),
+                new DataSessionAccessTimes.Touch(System.currentTimeMillis()));
+        return true;
+    }
+
+    @Override
+    public int evictIdle(final Duration maxIdle) {
+        //-- The filter runs on the server nodes over the access times, only idle keys travel back
+        final ScanQuery<DataSessionKey, Long> query =
+                new ScanQuery<>(new DataSessionAccessTimes.IdleFilter(maxIdle.toMillis()));
+
+        int evicted = 0;
+        final Set<DataSessionKey> batch = new HashSet<>();
+        try (QueryCursor<Cache.Entry<DataSessionKey, Long>> cursor = accessTimes.query(query)) {
+            for (Cache.Entry<DataSessionKey, Long> entry : cursor) {
+                batch.add(entry.getKey());
+                if (batch.size() == REMOVE_BATCH_SIZE) {
+                    evicted += batch.size();
+                    removeAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            evicted += batch.size();
+            removeAll(batch);
+        }
+
+        if (evicted > 0) {
+            _logger.info("Evicted {} idle data sessions from '{}'", evicted, CACHE_NAME);
+        }
+        return evicted;
+    }
+
+    private void removeAll(final Set<DataSessionKey> keys) {
+        cache.removeAll(keys);
+        accessTimes.removeAll(keys);
+    }
+}
@@ -0,0 +1,130 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Legacy layout: one {@code user-data-sessions:<userId>} cache per user.
+ */
+public class PerUserDataSessionStore implements DataSessionStore {
+    private static final Logger _logger = Logging.getLogger(PerUserDataSessionStore.class);
+
+    private final Ignite ignite;
+    private final HedgedReads hedgedReads;
+    //-- Instrumented proxies by cache name, so a request does not build one per lookup
+    private final ConcurrentMap<String, IgniteCache<UUID, PackedDataSession>> caches = new ConcurrentHashMap<>();
+
+    public PerUserDataSessionStore(final Ignite ignite, final HedgedReads hedgedReads) {
+        this.ignite = ignite;
+        this.hedgedReads = hedgedReads;
+    }
+
+    public static String cacheName(final String userId) {
+        return String.format("%s:%s", ServerApp.PREFIX_CACHE_USER_DATA_SESSIONS, userId);
+    }
+
+    private IgniteCache<UUID, PackedDataSession> cache(final String userId) {
+        final String name = cacheName(userId);
+        final IgniteCache<UUID, PackedDataSession> cached = caches.get(name);
+        if (cached != null && !cached.isClosed()) {
+            return cached;
+        }
+        final IgniteCache<UUID, PackedDataSession> cache =
+                IgniteInstrumentation.cache(ignite.<UUID, PackedDataSession>cache(name));
+        if (cache == null) {
+            caches.remove(name);
+        } else {
+            caches.put(name, cache);
+        }
+        return cache;
+    }
+
+    @Override
+    public boolean hasUser(final String userId) {
+        return cache(userId) != null;
+    }
+
+    @Override
+    public PackedDataSession get(final String userId, final UUID sessionId) {
+        final IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        if (cache == null) {
+            return null;
+        }
+        return hedgedReads == null
+                ? Deadline.await(cache.getAsync(sessionId)) : Deadline.await(hedgedReads.get(cache, sessionId));
+    }
+
+    @Override
+    public CompletableFuture<PackedDataSession> getAsync(final String userId, final UUID sessionId) {
+        final IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        return cache == null ? CompletableFuture.completedFuture(null) : IgniteFutures.completable(cache.getAsync(sessionId));
+    }
+
+    @Override
+    public boolean contains(final String userId, final UUID sessionId) {
+        final IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        return cache != null && Deadline.await(cache.containsKeyAsync(sessionId));
+    }
+
+    @Override
+    public void put(final String userId, final UUID sessionId, final PackedDataSession session) {
+        IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        if (cache == null) {
+            cache = IgniteInstrumentation.cache(ignite.<UUID, PackedDataSession>getOrCreateCache(cacheName(userId)));
+            caches.put(cacheName(userId), cache);
+        }
+        cache.put(sessionId, session);
+    }
+
+    @Override
+    public byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+        final IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        return cache == null ? null : Deadline.await(cache.<UUID, BinaryObject>withKeepBinary()
+                .invokeAsync(sessionId, new DataSessionProjection.OfBinary<>(projection)));
+    }
+
+    @Override
+    public boolean remove(final String userId, final UUID sessionId) {
+        final IgniteCache<UUID, PackedDataSession> cache = cache(userId);
+        return cache != null && cache.remove(sessionId);
+    }
+
+    @Override
+    public int evictIdle(final Duration maxIdle) {
+        int cleared = 0;
+        for (String cacheName : ignite.cacheNames()) {
+            if (!cacheName.startsWith(ServerApp.PREFIX_CACHE_USER_DATA_SESSIONS)) {
+                continue;
+            }
+            final IgniteCache<UUID, PackedDataSession> userDataSessionCache = ignite.cache(cacheName);
+
+            try (QueryCursor<Cache.Entry<UUID, PackedDataSession>> cursor = userDataSessionCache.query(new ScanQuery<>())) {
+                for (Cache.Entry<UUID, PackedDataSession> entry : cursor) {
+                    final Duration idle = Duration.between(entry.getValue().getLastAccessedAt(), Instant.now());
+                    if (idle.toMinutes() > maxIdle.toMinutes()) {
+                        final String userCacheName = cacheName(entry.getValue().getUserId());
+                        ignite.cache(userCacheName).clear();
+                        caches.remove(userCacheName);
+                        cleared++;
+                        _logger.info("Cache '{}' is cleared", userCacheName);
+                    }
+                }
+            }
+        }
+        return cleared;
+    }
+}
@@ -0,0 +1,102 @@
+package com.clarifi.phoenix.ashes.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of compressed response bodies, bounded by the total number of cached bytes.
+ * Keys identify one encoding of one version of a payload, so a hot data session is compressed
+ * once and then served from memory until it changes or falls out of the cache.
+ * <p>
+ * The cache is split into stripes by key hash, each an LRU under its own lock, so concurrent GETs
+ * of different sessions rarely contend on the same lock. The byte budget is shared: a payload may
+ * take up to all of it, and while the cache is over budget the stripes take turns giving up their
+ * least recently used entry.
+ */
+public class PrecompressedPayloadCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long maxBytes;
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicInteger nextVictim = new AtomicInteger();
+
+    public PrecompressedPayloadCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public static String key(final String sessionId, final long version, final String encoding) {
+        return sessionId + '/' + Long.toHexString(version) + '/' + encoding;
+    }
+
+    private Stripe stripe(final String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    public byte[] get(final String key) {
+        return stripe(key).get(key);
+    }
+
+    public void put(final String key, final byte[] compressed) {
+        if (compressed.length > maxBytes) {
+            return;
+        }
+        currentBytes.addAndGet(stripe(key).put(key, compressed));
+
+        //-- Stop after a full round of empty stripes: what is left over is in flight in another put
+        int empty = 0;
+        while (currentBytes.get() > maxBytes && empty < STRIPES) {
+            final long freed = stripes[nextVictim.getAndIncrement() & (STRIPES - 1)].evictEldest(key);
+            if (freed < 0) {
+                empty++;
+            } else {
+                empty = 0;
+                currentBytes.addAndGet(-freed);
+            }
+        }
+    }
+
+    public long size() {
+        return currentBytes.get();
+    }
+
+    private static final class Stripe {
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        synchronized byte[] get(final String key) {
+            return entries.get(key);
+        }
+
+        /**
+         * @return By how many bytes the stripe grew.
+         */
+        synchronized long put(final String key, final byte[] compressed) {
+            final byte[] previous = entries.put(key, compressed);
+            return previous == null ? compressed.length : compressed.length - previous.length;
+        }
+
+        /**
+         * @return Size of the least recently used entry, which was removed, or {@code -1} if the stripe is
+         * empty or that entry is {@code kept}, the one being added.
+         */
+        synchronized long evictEldest(final String kept) {
+            final Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+            if (!it.hasNext()) {
+                return -1;
+            }
+            final Map.Entry<String, byte[]> eldest = it.next();
+            if (eldest.getKey().equals(kept)) {
+                return -1;
+            }
+            it.remove();
+            return eldest.getValue().length;
+        }
+    }
+}
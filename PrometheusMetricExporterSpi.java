@@ -0,0 +1,574 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ignite.spi.metric.prometheus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.ignite.internal.util.typedef.internal.U;
+import org.apache.ignite.spi.IgniteSpiAdapter;
+import org.apache.ignite.spi.IgniteSpiException;
+import org.apache.ignite.spi.IgniteSpiMultipleInstancesSupport;
+import org.apache.ignite.spi.metric.BooleanMetric;
+import org.apache.ignite.spi.metric.DoubleMetric;
+import org.apache.ignite.spi.metric.HistogramMetric;
+import org.apache.ignite.spi.metric.IntMetric;
+import org.apache.ignite.spi.metric.LongMetric;
+import org.apache.ignite.spi.metric.Metric;
+import org.apache.ignite.spi.metric.MetricExporterSpi;
+import org.apache.ignite.spi.metric.ObjectMetric;
+import org.apache.ignite.spi.metric.ReadOnlyMetricManager;
+import org.apache.ignite.spi.metric.ReadOnlyMetricRegistry;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <a href="https://prometheus.io">Prometheus</a> scrape endpoint for Ignite metrics. <br>
+ * <br>
+ * Unlike a push exporter this SPI does no work between scrapes: every {@code GET /metrics} reads the
+ * current values of the {@link ReadOnlyMetricManager} registries and renders them in the Prometheus text
+ * format (or OpenMetrics, when the scraper asks for it) into a buffer reused across scrapes. <br>
+ * <br>
+ * Metrics are selected by {@link #setIncludes(String...)} and {@link #setExcludes(String...)}: regular
+ * expressions matched against the full Ignite metric name, compiled once and evaluated once per metric,
+ * not once per scrape. The time spent rendering is exposed as {@code ignite_scrape_duration_seconds}. <br>
+ * <br>
+ * Characters Prometheus does not allow are replaced by {@code '_'}, so two metric names may map to the same
+ * Prometheus name; the one seen later gets a suffix derived from its full Ignite name, which stays the same
+ * across restarts, and a warning is logged. Ignite histograms keep no sum of their values and nothing bounds
+ * the values in the {@code +Inf} bucket, so histograms are exported without {@code _sum}: use
+ * {@code histogram_quantile} over the buckets instead of {@code rate(_sum) / rate(_count)}. <br>
+ * <br>
+ * Scrapes are rendered one at a time. Changing the filters does not wait for a scrape in progress: the
+ * scrape finishes with the filters it started with and the next one uses the new ones.
+ *
+ * Example of exporter configuration:
+ * <pre>
+ * {@code
+ *   PrometheusMetricExporterSpi spi = new PrometheusMetricExporterSpi();
+ *
+ *   spi.setPort(9404);
+ *   spi.setExcludes("sys\\.Threads.*", "io\\.statisticsCache\\..*");
+ *
+ *   cfg.setMetricExporterSpi(spi);
+ * }
+ * </pre>
+ *
+ * @see ReadOnlyMetricManager
+ */
+@IgniteSpiMultipleInstancesSupport(true)
+public class PrometheusMetricExporterSpi extends IgniteSpiAdapter implements MetricExporterSpi {
+    /** Default port, the one the JMX exporter agent used to listen on. */
+    public static final int DFLT_PORT = 9404;
+
+    /** Default path of the scrape endpoint. */
+    public static final String DFLT_PATH = "/metrics";
+
+    /** Content type of the Prometheus text format. */
+    public static final String TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Content type of the OpenMetrics text format. */
+    public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /** Name of the self-metric with the duration of the previous scrape. */
+    private static final String SCRAPE_DURATION = "ignite_scrape_duration_seconds";
+
+    /** Metric registry. */
+    private ReadOnlyMetricManager mreg;
+
+    /** Metric filter. */
+    private @Nullable Predicate<ReadOnlyMetricRegistry> filter;
+
+    /** Host to bind. */
+    private String host = "0.0.0.0";
+
+    /** Port to bind. */
+    private int port = DFLT_PORT;
+
+    /** Path of the scrape endpoint. */
+    private String path = DFLT_PATH;
+
+    /** Include and exclude filters, with the names resolved under them; replaced when a filter changes. */
+    private volatile Selection sel = new Selection(new Pattern[0], new Pattern[0]);
+
+    /** Serializes filter changes. */
+    private final Object selMux = new Object();
+
+    /** Text of the last scrape; reused. */
+    private final StringBuilder text = new StringBuilder(64 * 1024);
+
+    /** Encoded bytes of the last scrape; reused and grown as needed. */
+    private ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+
+    /** */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    /** Duration of the previous scrape, in nanoseconds. */
+    private long lastScrapeNanos;
+
+    /** HTTP server. */
+    private HttpServer srv;
+
+    /** Thread serving scrapes. */
+    private ExecutorService exec;
+
+    /** {@inheritDoc} */
+    @Override public void spiStart(@Nullable String igniteInstanceName) throws IgniteSpiException {
+        mreg.addMetricRegistryRemoveListener(reg -> {
+            Selection sel0 = sel;
+
+            reg.forEach(metric -> {
+                Series s = sel0.series.remove(metric.name());
+
+                if (s != null && s.name != null)
+                    sel0.owners.remove(s.name, metric.name());
+            });
+        });
+
+        try {
+            srv = HttpServer.create(new InetSocketAddress(host, port), 16);
+        }
+        catch (IOException e) {
+            throw new IgniteSpiException("Failed to bind the Prometheus endpoint [host=" + host + ", port=" + port + ']', e);
+        }
+
+        srv.createContext(path, this::handle);
+        exec = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "prometheus-exporter-" + igniteInstanceName);
+
+            t.setDaemon(true);
+
+            return t;
+        });
+
+        srv.setExecutor(exec);
+        srv.start();
+
+        if (log.isInfoEnabled())
+            log.info("Prometheus endpoint started [host=" + host + ", port=" + port + ", path=" + path + ']');
+    }
+
+    /** {@inheritDoc} */
+    @Override public void spiStop() throws IgniteSpiException {
+        if (srv != null) {
+            srv.stop(0);
+
+            srv = null;
+        }
+
+        if (exec != null) {
+            exec.shutdownNow();
+
+            exec = null;
+        }
+    }
+
+    /** */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+
+                return;
+            }
+
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+
+            synchronized (this) {
+                ByteBuffer buf = scrape(openMetrics);
+
+                exchange.getResponseHeaders().set("Content-Type",
+                    openMetrics ? OPENMETRICS_CONTENT_TYPE : TEXT_CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, buf.remaining());
+
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            log.error("Failed to render metrics", e);
+
+            exchange.sendResponseHeaders(500, -1);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders all the selected metrics.
+     *
+     * @param openMetrics Whether to render the OpenMetrics format instead of the Prometheus text format.
+     * @return Encoded metrics; valid until the next scrape.
+     */
+    public synchronized ByteBuffer scrape(boolean openMetrics) {
+        long start = System.nanoTime();
+
+        Selection sel0 = sel;
+
+        text.setLength(0);
+
+        mreg.forEach(reg -> {
+            if (filter != null && !filter.test(reg))
+                return;
+
+            reg.forEach(metric -> render(sel0, metric));
+        });
+
+        text.append("# TYPE ").append(SCRAPE_DURATION).append(" gauge\n")
+            .append(SCRAPE_DURATION).append(' ').append(lastScrapeNanos / 1e9).append('\n');
+
+        if (openMetrics)
+            text.append("# EOF\n");
+
+        ByteBuffer res = encode();
+
+        lastScrapeNanos = System.nanoTime() - start;
+
+        return res;
+    }
+
+    /** */
+    private void render(Selection sel0, Metric metric) {
+        Series s = sel0.series.get(metric.name());
+
+        if (s == null) {
+            boolean selected = sel0.selected(metric.name());
+
+            s = new Series(selected ? uniqueName(sel0, metric.name()) : null, selected);
+
+            sel0.series.put(metric.name(), s);
+        }
+
+        if (!s.selected)
+            return;
+
+        if (metric instanceof LongMetric)
+            gauge(s, metric).append(((LongMetric)metric).value()).append('\n');
+        else if (metric instanceof IntMetric)
+            gauge(s, metric).append(((IntMetric)metric).value()).append('\n');
+        else if (metric instanceof BooleanMetric)
+            gauge(s, metric).append(((BooleanMetric)metric).value() ? 1 : 0).append('\n');
+        else if (metric instanceof DoubleMetric)
+            value(gauge(s, metric), ((DoubleMetric)metric).value()).append('\n');
+        else if (metric instanceof HistogramMetric)
+            histogram(s, metric, (HistogramMetric)metric);
+        else if (metric instanceof ObjectMetric && ((ObjectMetric<?>)metric).type() == Date.class) {
+            Date val = ((ObjectMetric<Date>)metric).value();
+
+            if (val != null)
+                gauge(s, metric).append(val.getTime()).append('\n');
+        }
+        else if (metric instanceof ObjectMetric && ((ObjectMetric<?>)metric).type() == OffsetDateTime.class) {
+            OffsetDateTime val = ((ObjectMetric<OffsetDateTime>)metric).value();
+
+            if (val != null)
+                gauge(s, metric).append(val.toInstant().toEpochMilli()).append('\n');
+        }
+    }
+
+    /** Writes the header and name of a gauge; the caller appends the value. */
+    private StringBuilder gauge(Series s, Metric metric) {
+        header(s, metric, "gauge");
+
+        return text.append(s.name).append(' ');
+    }
+
+    /** */
+    private void histogram(Series s, Metric metric, HistogramMetric hist) {
+        long[] bounds = hist.bounds();
+        long[] vals = hist.value();
+
+        header(s, metric, "histogram");
+
+        long cnt = 0;
+
+        for (int i = 0; i < vals.length; i++) {
+            cnt += vals[i];
+
+            text.append(s.name).append("_bucket{le=\"");
+
+            if (i < bounds.length)
+                text.append(bounds[i]);
+            else
+                text.append("+Inf");
+
+            text.append("\"} ").append(cnt).append('\n');
+        }
+
+        text.append(s.name).append("_count ").append(cnt).append('\n');
+    }
+
+    /** */
+    private void header(Series s, Metric metric, String type) {
+        if (metric.description() != null) {
+            text.append("# HELP ").append(s.name).append(' ');
+
+            escape(metric.description());
+
+            text.append('\n');
+        }
+
+        text.append("# TYPE ").append(s.name).append(' ').append(type).append('\n');
+    }
+
+    /** */
+    private StringBuilder value(StringBuilder sb, double val) {
+        if (Double.isNaN(val))
+            return sb.append("NaN");
+
+        if (Double.isInfinite(val))
+            return sb.append(val > 0 ? "+Inf" : "-Inf");
+
+        return sb.append(val);
+    }
+
+    /** Appends a HELP text, escaping backslashes and line feeds. */
+    private void escape(String help) {
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+
+            if (c == '\\')
+                text.append("\\\\");
+            else if (c == '\n')
+                text.append("\\n");
+            else
+                text.append(c);
+        }
+    }
+
+    /** Encodes {@link #text} into {@link #bytes}, growing it if needed. */
+    private ByteBuffer encode() {
+        int max = (int)(text.length() * encoder.maxBytesPerChar());
+
+        if (bytes.capacity() < max)
+            bytes = ByteBuffer.allocate(Math.max(max, bytes.capacity() * 2));
+
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text), bytes, true);
+        encoder.flush(bytes);
+        bytes.flip();
+
+        return bytes;
+    }
+
+    /**
+     * @param sel0 Selection the name is resolved under.
+     * @param metricName Ignite metric name.
+     * @return Prometheus name of the metric, suffixed if another metric already has the plain one.
+     */
+    private String uniqueName(Selection sel0, String metricName) {
+        String name = prometheusName(metricName);
+        String owner = sel0.owners.putIfAbsent(name, metricName);
+
+        if (owner == null || owner.equals(metricName))
+            return name;
+
+        String suffix = name + '_' + Integer.toHexString(metricName.hashCode());
+        String suffixed = suffix;
+
+        // The suffix itself may be taken, by a metric whose plain name it is or by one with the same hash.
+        for (int i = 2; ; i++) {
+            String prev = sel0.owners.putIfAbsent(suffixed, metricName);
+
+            if (prev == null || prev.equals(metricName))
+                break;
+
+            suffixed = suffix + '_' + i;
+        }
+
+        U.warn(log, "Metric names map to the same Prometheus name, exporting the second with a suffix [first=" +
+            owner + ", second=" + metricName + ", name=" + suffixed + ']');
+
+        return suffixed;
+    }
+
+    /**
+     * @param name Ignite metric name.
+     * @return Name that is valid in Prometheus: {@code cache.my-cache.CacheGets -> ignite_cache_my_cache_CacheGets}.
+     */
+    static String prometheusName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 7).append("ignite_");
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+        }
+
+        return sb.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setMetricRegistry(ReadOnlyMetricManager mreg) {
+        this.mreg = mreg;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setExportFilter(Predicate<ReadOnlyMetricRegistry> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param host Host to bind the endpoint to.
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * @param port Port to bind the endpoint to.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param path Path of the scrape endpoint.
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Only metrics whose full name matches one of {@code regexes} are exported; all metrics if none are set.
+     *
+     * @param regexes Regular expressions.
+     */
+    public void setIncludes(String... regexes) {
+        synchronized (selMux) {
+            sel = new Selection(compile(regexes), sel.excludes);
+        }
+    }
+
+    /**
+     * Metrics whose full name matches one of {@code regexes} are not exported, even if included.
+     *
+     * @param regexes Regular expressions.
+     */
+    public void setExcludes(String... regexes) {
+        synchronized (selMux) {
+            sel = new Selection(sel.includes, compile(regexes));
+        }
+    }
+
+    /** */
+    private static Pattern[] compile(String... regexes) {
+        if (regexes == null)
+            return new Pattern[0];
+
+        Pattern[] res = new Pattern[regexes.length];
+
+        for (int i = 0; i < regexes.length; i++)
+            res[i] = Pattern.compile(regexes[i]);
+
+        return res;
+    }
+
+    /**
+     * Splits a comma separated list of regular expressions, as given in a system property.
+     *
+     * @param list List, possibly {@code null} or empty.
+     * @return Regular expressions.
+     */
+    public static String[] regexes(@Nullable String list) {
+        if (list == null || list.trim().isEmpty())
+            return new String[0];
+
+        List<String> res = new ArrayList<>();
+
+        for (String regex : list.split(",")) {
+            if (!regex.trim().isEmpty())
+                res.add(regex.trim());
+        }
+
+        return res.toArray(new String[0]);
+    }
+
+    /** Filters and the per metric state resolved under them. */
+    private static final class Selection {
+        /** Included metric names; everything if empty. */
+        final Pattern[] includes;
+
+        /** Excluded metric names. */
+        final Pattern[] excludes;
+
+        /** Per metric name: whether it passes the filters and its Prometheus name. */
+        final Map<String, Series> series = new ConcurrentHashMap<>();
+
+        /** Per Prometheus name: the metric name it was given to, so a second metric with it is detected. */
+        final Map<String, String> owners = new ConcurrentHashMap<>();
+
+        /** */
+        Selection(Pattern[] includes, Pattern[] excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        /** */
+        boolean selected(String name) {
+            boolean included = includes.length == 0;
+
+            for (int i = 0; !included && i < includes.length; i++)
+                included = includes[i].matcher(name).matches();
+
+            if (!included)
+                return false;
+
+            for (Pattern exclude : excludes) {
+                if (exclude.matcher(name).matches())
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    /** Cached rendering state of one metric. */
+    private static final class Series {
+        /** Prometheus name, {@code null} if the metric is not selected. */
+        final String name;
+
+        /** Whether the metric passes the include and exclude filters. */
+        final boolean selected;
+
+        /** */
+        Series(String name, boolean selected) {
+            this.name = name;
+            this.selected = selected;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.clarifi.phoenix.ashes.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user token buckets, implemented as GCRA (generic cell rate algorithm): each bucket is a
+ * single {@link AtomicLong} holding the theoretical arrival time of the next request, updated
+ * with one CAS. Buckets live in a {@link ConcurrentHashMap}, which stripes them across bins.
+ * <p>
+ * User ids come from the request, so the map is bounded: a bucket whose arrival time has passed is
+ * full again and no different from a new one, so {@link #evictIdle()} drops it. When
+ * {@code maxUsers} buckets are still in use, users without a bucket share a single overflow bucket.
+ */
+public class RateLimiter {
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxUsers;
+
+    /**
+     * @param permitsPerSecond Sustained rate per user.
+     * @param burst            Requests a user may issue back to back on top of the sustained rate.
+     * @param maxUsers         Buckets kept before new users share the overflow bucket.
+     */
+    public RateLimiter(final double permitsPerSecond, final int burst, final int maxUsers) {
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * Math.max(0, burst);
+        this.maxUsers = maxUsers;
+    }
+
+    public static RateLimiter fromSystemProperties() {
+        final double rate = Double.parseDouble(System.getProperty("phoenix.ratelimit.rps", "0"));
+        if (rate <= 0) {
+            return null;
+        }
+        return new RateLimiter(rate, Integer.getInteger("phoenix.ratelimit.burst", 20),
+                Integer.getInteger("phoenix.ratelimit.maxUsers", 100_000));
+    }
+
+    /**
+     * @return {@code 0} if the request is allowed, otherwise the nanoseconds to wait before retrying.
+     */
+    public long tryAcquire(final String userId) {
+        final AtomicLong tat = bucket(userId);
+        final long now = System.nanoTime();
+        while (true) {
+            final long current = tat.get();
+            final long start = current == 0 ? now : Math.max(current, now);
+            final long wait = start - now - burstToleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (tat.compareAndSet(current, start + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong bucket(final String userId) {
+        final AtomicLong tat = buckets.get(userId);
+        if (tat != null) {
+            return tat;
+        }
+        if (buckets.size() >= maxUsers) {
+            evictIdle();
+            if (buckets.size() >= maxUsers) {
+                return overflow;
+            }
+        }
+        return buckets.computeIfAbsent(userId, id -> new AtomicLong());
+    }
+
+    /**
+     * Drops the buckets that are full again; only one caller scans at a time.
+     *
+     * @return Number of buckets dropped.
+     */
+    public int evictIdle() {
+        if (!evicting.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            final long now = System.nanoTime();
+            int evicted = 0;
+            for (Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator(); it.hasNext(); ) {
+                //-- A request racing the removal gets its one permit back, no more
+                if (it.next().getValue().get() - now <= 0) {
+                    it.remove();
+                    evicted++;
+                }
+            }
+            return evicted;
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    int size() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,49 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.PathTemplateMatch;
+import io.undertow.util.StatusCodes;
+
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejects requests of users over their {@link RateLimiter} budget with 429 and a {@code Retry-After}.
+ * The user is taken from the {@code userId} query parameter, or the {@code {userId}} path parameter.
+ */
+public class RateLimitingHandler implements HttpHandler {
+    private final RateLimiter limiter;
+    private final HttpHandler next;
+
+    public RateLimitingHandler(final RateLimiter limiter, final HttpHandler next) {
+        this.limiter = limiter;
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final String userId = userIdOf(exchange);
+        if (userId != null) {
+            final long waitNanos = limiter.tryAcquire(userId);
+            if (waitNanos > 0) {
+                final long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+                exchange.setStatusCode(StatusCodes.TOO_MANY_REQUESTS);
+                exchange.getResponseHeaders().put(Headers.RETRY_AFTER, Long.toString(seconds));
+                exchange.getResponseSender().send(String.format("Rate limit exceeded for user '%s'", userId));
+                return;
+            }
+        }
+        next.handleRequest(exchange);
+    }
+
+    static String userIdOf(final HttpServerExchange exchange) {
+        final Deque<String> param = exchange.getQueryParameters().get("userId");
+        if (param != null && !param.isEmpty()) {
+            return param.getFirst();
+        }
+        final PathTemplateMatch pathMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        return pathMatch == null ? null : pathMatch.getParameters().get("userId");
+    }
+}
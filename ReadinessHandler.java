@@ -0,0 +1,46 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Answers {@code 503} with {@code Retry-After} until the server is marked ready, so the HTTP listener
+ * can be bound while the Ignite client is still joining. {@link #probe()} is the readiness endpoint
+ * for the orchestrator (200 when ready, 503 before).
+ */
+public class ReadinessHandler implements HttpHandler {
+    private final HttpHandler next;
+    private volatile boolean ready;
+
+    public ReadinessHandler(final HttpHandler next) {
+        this.next = next;
+    }
+
+    public void markReady() {
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (!ready) {
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, "1");
+            exchange.endExchange();
+            return;
+        }
+        next.handleRequest(exchange);
+    }
+
+    public HttpHandler probe() {
+        return exchange -> {
+            exchange.setStatusCode(ready ? StatusCodes.OK : StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.endExchange();
+        };
+    }
+}
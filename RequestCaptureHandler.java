@@ -0,0 +1,176 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.loadgen.CapturedRequest;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.PathTemplateMatch;
+import org.apache.logging.log4j.Logger;
+import org.jctools.queues.MpscArrayQueue;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends a sample of live traffic to a JSONL capture file that the load generator can replay.
+ * <p>
+ * The request thread only builds the {@link CapturedRequest} when the exchange completes and offers it
+ * to a bounded lock-free queue; a single background thread does the JSON encoding and file I/O. When
+ * the queue is full the request is not captured. Only the headers that change how a request is served
+ * are kept, never credentials. Request bodies are not captured, so only {@code GET} and {@code HEAD}
+ * requests are: a replayed write without its body would be a different request.
+ * <p>
+ * {@link #close()} stops the background thread once it has written what is queued, and closes the file.
+ */
+public class RequestCaptureHandler implements HttpHandler, Closeable {
+    private static final Logger _logger = Logging.getLogger(RequestCaptureHandler.class);
+
+    private static final HttpString[] CAPTURED_HEADERS = {
+            new HttpString("Accept"),
+            new HttpString("Accept-Encoding"),
+            new HttpString("If-None-Match"),
+            DeadlineHandler.REQUEST_TIMEOUT
+    };
+
+    private final HttpHandler next;
+    private final double sampleRate;
+    private final MpscArrayQueue<CapturedRequest> queue = new MpscArrayQueue<>(4096);
+    private final LongAdder skipped = new LongAdder();
+    private final BufferedWriter writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public RequestCaptureHandler(final Path file, final double sampleRate, final HttpHandler next) throws IOException {
+        this.next = next;
+        this.sampleRate = sampleRate;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        this.thread = new Thread(this::write, "request-capture");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return A capturing handler if {@code phoenix.capture.file} is set, sampling
+     *         {@code phoenix.capture.sampleRate} (1.0) of the requests; {@code null} otherwise.
+     */
+    public static RequestCaptureHandler fromSystemProperties(final HttpHandler next) {
+        final String file = System.getProperty("phoenix.capture.file");
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new RequestCaptureHandler(Paths.get(file),
+                    Double.parseDouble(System.getProperty("phoenix.capture.sampleRate", "1.0")), next);
+        } catch (IOException e) {
+            _logger.warn("Traffic capture disabled, cannot open {}", file, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final HttpString method = exchange.getRequestMethod();
+        if ((Methods.GET.equals(method) || Methods.HEAD.equals(method))
+                && (sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            final long timestampMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            exchange.addExchangeCompleteListener((ex, nextListener) -> {
+                try {
+                    if (!queue.offer(capture(ex, timestampMicros))) {
+                        skipped.increment();
+                    }
+                } finally {
+                    nextListener.proceed();
+                }
+            });
+        }
+        next.handleRequest(exchange);
+    }
+
+    private static CapturedRequest capture(final HttpServerExchange exchange, final long timestampMicros) {
+        final PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        final String query = exchange.getQueryString();
+
+        Map<String, String> headers = null;
+        for (HttpString name : CAPTURED_HEADERS) {
+            final HeaderValues values = exchange.getRequestHeaders().get(name);
+            if (values != null) {
+                if (headers == null) {
+                    headers = new LinkedHashMap<>();
+                }
+                headers.put(name.toString(), values.getFirst());
+            }
+        }
+
+        return new CapturedRequest(timestampMicros,
+                exchange.getRequestMethod().toString(),
+                match == null ? null : match.getMatchedTemplate(),
+                query == null || query.isEmpty() ? exchange.getRequestURI() : exchange.getRequestURI() + '?' + query,
+                headers,
+                null,
+                exchange.getStatusCode());
+    }
+
+    private void write() {
+        while (true) {
+            final CapturedRequest request = queue.poll();
+            if (request == null) {
+                if (!running) {
+                    break;
+                }
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    _logger.warn("Failed to flush the traffic capture", e);
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                continue;
+            }
+            try {
+                writer.write(request.toJson());
+                writer.newLine();
+            } catch (IOException e) {
+                _logger.warn("Failed to write the traffic capture", e);
+            }
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            _logger.warn("Failed to close the traffic capture", e);
+        }
+    }
+
+    /**
+     * Stops capturing; requests still queued are written before the file is closed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
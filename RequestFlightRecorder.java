@@ -0,0 +1,285 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.undertow.server.HttpHandler;
+import io.undertow.util.Headers;
+
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Keeps summaries of the most recent requests in memory, for looking at what slow requests had in common
+ * after their spans were exported: a ring of the last {@code phoenix.flightRecorder.capacity} (4096)
+ * requests, and the {@code phoenix.flightRecorder.topK} (10) slowest of each of the last
+ * {@code phoenix.flightRecorder.minutes} (15) minutes. Both are served as JSON by {@link #handler()}.
+ * <p>
+ * Recording takes a sequence number with one atomic increment, claims its slot with a compare-and-set of the
+ * slot's version and writes the fields in place, bracketed by that version, which readers check; it neither
+ * locks nor allocates. If the ring wraps while a writer is still in a slot, the request that lapped it skips
+ * the ring instead of writing over the same slot, so under more concurrent writers than slots some requests
+ * are missing from {@link #recent}, never torn. A request that is not among the slowest of its minute costs
+ * one more volatile read; only a new top-K entry takes a lock.
+ */
+public class RequestFlightRecorder {
+    private static final AtomicLongFieldUpdater<Slot> VERSION = AtomicLongFieldUpdater.newUpdater(Slot.class, "version");
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final int topK;
+    private final int minutes;
+    private final PriorityQueue<Summary> slowest = new PriorityQueue<>((a, b) -> Long.compare(a.totalNanos, b.totalNanos));
+    private final Deque<Minute> history = new ArrayDeque<>();
+    private volatile long currentMinute;
+    //-- Requests at or under this cannot enter the current minute's top-K
+    private volatile long threshold;
+
+    public RequestFlightRecorder(final int capacity, final int topK, final int minutes) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.topK = topK;
+        this.minutes = minutes;
+    }
+
+    public static RequestFlightRecorder fromSystemProperties() {
+        return new RequestFlightRecorder(
+                Integer.getInteger("phoenix.flightRecorder.capacity", 4096),
+                Integer.getInteger("phoenix.flightRecorder.topK", 10),
+                Integer.getInteger("phoenix.flightRecorder.minutes", 15));
+    }
+
+    /**
+     * Records a finished request; times are in nanoseconds, zero when the stage did not run.
+     */
+    public void record(final String route, final String userId, final int status, final int bytes,
+                       final long igniteNanos, final long serializationNanos, final long queueNanos,
+                       final long totalNanos) {
+        final long now = System.currentTimeMillis();
+        final long seq = sequence.getAndIncrement();
+        final Slot slot = slots[(int) (seq & mask)];
+
+        //-- The compare-and-set also keeps the field writes below from being seen before the odd version
+        if (claim(slot, seq)) {
+            slot.timestamp = now;
+            slot.route = route;
+            slot.userId = userId;
+            slot.status = status;
+            slot.bytes = bytes;
+            slot.igniteNanos = igniteNanos;
+            slot.serializationNanos = serializationNanos;
+            slot.queueNanos = queueNanos;
+            slot.totalNanos = totalNanos;
+            slot.version = 2 * seq + 2;
+        }
+
+        final long minute = TimeUnit.MILLISECONDS.toMinutes(now);
+        if (minute == currentMinute && totalNanos <= threshold) {
+            return;
+        }
+        offerSlowest(minute, new Summary(now, route, userId, status, bytes,
+                igniteNanos, serializationNanos, queueNanos, totalNanos));
+    }
+
+    /**
+     * Marks {@code slot} as being written for request {@code seq}, unless another writer is still in it or a
+     * newer request already took it.
+     */
+    private static boolean claim(final Slot slot, final long seq) {
+        while (true) {
+            final long version = slot.version;
+            if ((version & 1) != 0 || version > 2 * seq) {
+                return false;
+            }
+            if (VERSION.compareAndSet(slot, version, 2 * seq + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void offerSlowest(final long minute, final Summary summary) {
+        if (minute != currentMinute) {
+            if (minute < currentMinute) {
+                //-- Finished just before the minute rolled over; too late to rank
+                return;
+            }
+            if (!slowest.isEmpty()) {
+                history.addFirst(new Minute(currentMinute, sortedSlowest()));
+                while (history.size() > minutes) {
+                    history.removeLast();
+                }
+            }
+            slowest.clear();
+            currentMinute = minute;
+            threshold = 0;
+        }
+
+        if (slowest.size() < topK) {
+            slowest.add(summary);
+        } else if (summary.totalNanos > slowest.peek().totalNanos) {
+            slowest.poll();
+            slowest.add(summary);
+        }
+        if (slowest.size() == topK) {
+            threshold = slowest.peek().totalNanos;
+        }
+    }
+
+    private List<Summary> sortedSlowest() {
+        final List<Summary> sorted = new ArrayList<>(slowest);
+        sorted.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return sorted;
+    }
+
+    /**
+     * @return Up to {@code limit} of the most recent requests, newest first.
+     */
+    public List<Summary> recent(final int limit) {
+        final long last = sequence.get() - 1;
+        final int count = (int) Math.min(Math.min(Math.max(0, limit), slots.length), last + 1);
+        final List<Summary> recent = new ArrayList<>(count);
+        for (long seq = last; seq > last - count; seq--) {
+            final Slot slot = slots[(int) (seq & mask)];
+            final long version = slot.version;
+            if (version != 2 * seq + 2) {
+                //-- Still being written, or already overwritten by a newer request
+                continue;
+            }
+            final Summary summary = new Summary(slot.timestamp, slot.route, slot.userId, slot.status, slot.bytes,
+                    slot.igniteNanos, slot.serializationNanos, slot.queueNanos, slot.totalNanos);
+            //-- Keep the field reads above from moving past the version re-check
+            VarHandle.loadLoadFence();
+            if (slot.version == version) {
+                recent.add(summary);
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * @return The slowest requests of the current and past minutes, newest minute first.
+     */
+    public synchronized List<Minute> slowest() {
+        final List<Minute> minutesList = new ArrayList<>(history.size() + 1);
+        if (!slowest.isEmpty()) {
+            minutesList.add(new Minute(currentMinute, sortedSlowest()));
+        }
+        minutesList.addAll(history);
+        return minutesList;
+    }
+
+    /**
+     * {@code GET ?limit=N} answers with the {@code N} (100, at most the ring's capacity) most recent requests and
+     * the slowest of each minute. {@link ServerApp} mounts it behind {@code TokenValidatorMiddleware}.
+     */
+    public HttpHandler handler() {
+        return exchange -> {
+            final Deque<String> limit = exchange.getQueryParameters().get("limit");
+            int count = 100;
+            try {
+                count = limit == null ? count : Math.max(0, Integer.parseInt(limit.getFirst()));
+            } catch (NumberFormatException ignored) {
+                //-- Keep the default
+            }
+
+            final JsonObject report = new JsonObject();
+            final JsonArray recentRows = new JsonArray();
+            for (Summary summary : recent(count)) {
+                recentRows.add(summary.toJson());
+            }
+            report.add("recent", recentRows);
+
+            final JsonArray minuteRows = new JsonArray();
+            for (Minute minute : slowest()) {
+                final JsonObject row = new JsonObject();
+                row.addProperty("minute", Instant.ofEpochMilli(TimeUnit.MINUTES.toMillis(minute.minute)).toString());
+                final JsonArray requests = new JsonArray();
+                for (Summary summary : minute.slowest) {
+                    requests.add(summary.toJson());
+                }
+                row.add("slowest", requests);
+                minuteRows.add(row);
+            }
+            report.add("slowestPerMinute", minuteRows);
+
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            exchange.getResponseSender().send(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+        };
+    }
+
+    private static final class Slot {
+        volatile long version;
+        long timestamp;
+        String route;
+        String userId;
+        int status;
+        int bytes;
+        long igniteNanos;
+        long serializationNanos;
+        long queueNanos;
+        long totalNanos;
+    }
+
+    public static final class Summary {
+        final long timestamp;
+        final String route;
+        final String userId;
+        final int status;
+        final int bytes;
+        final long igniteNanos;
+        final long serializationNanos;
+        final long queueNanos;
+        final long totalNanos;
+
+        Summary(final long timestamp, final String route, final String userId, final int status, final int bytes,
+                final long igniteNanos, final long serializationNanos, final long queueNanos, final long totalNanos) {
+            this.timestamp = timestamp;
+            this.route = route;
+            this.userId = userId;
+            this.status = status;
+            this.bytes = bytes;
+            this.igniteNanos = igniteNanos;
+            this.serializationNanos = serializationNanos;
+            this.queueNanos = queueNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        JsonObject toJson() {
+            final JsonObject row = new JsonObject();
+            row.addProperty("timestamp", Instant.ofEpochMilli(timestamp).toString());
+            row.addProperty("route", route);
+            row.addProperty("userId", userId);
+            row.addProperty("status", status);
+            row.addProperty("bytes", bytes);
+            row.addProperty("igniteMs", igniteNanos / 1e6);
+            row.addProperty("serializationMs", serializationNanos / 1e6);
+            row.addProperty("queueMs", queueNanos / 1e6);
+            row.addProperty("totalMs", totalNanos / 1e6);
+            return row;
+        }
+    }
+
+    public static final class Minute {
+        final long minute;
+        final List<Summary> slowest;
+
+        Minute(final long minute, final List<Summary> slowest) {
+            this.minute = minute;
+            this.slowest = slowest;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.jctools.queues.MpscArrayQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Span processor that hands ended spans to a bounded lock-free multi-producer single-consumer queue
+ * and exports them in batches from a single thread.
+ * <p>
+ * Request threads only pay for one {@code offer} into a {@link MpscArrayQueue}; when the queue is full
+ * the span is dropped and counted instead of blocking. The export thread drains up to
+ * {@code maxBatchSize} spans at a time and exports when a batch is full or {@code scheduleDelay} has
+ * passed since the last export, idling with an Agrona {@link BackoffIdleStrategy} in between.
+ */
+public class RingBufferSpanProcessor implements SpanProcessor {
+    private static final AttributeKey<String> OUTCOME = AttributeKey.stringKey("outcome");
+
+    private final SpanExporter exporter;
+    private final MpscArrayQueue<ReadableSpan> queue;
+    private final int maxBatchSize;
+    private final long scheduleDelayNanos;
+    private final long exportTimeoutNanos;
+    private final Thread worker;
+    private final Queue<CompletableResultCode> flushRequests = new ConcurrentLinkedQueue<>();
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running = true;
+    private final CompletableResultCode stopped = new CompletableResultCode();
+    private final AtomicReference<CompletableResultCode> shutdownResult = new AtomicReference<>();
+
+    public RingBufferSpanProcessor(final SpanExporter exporter, final int capacity, final int maxBatchSize,
+                                   final long scheduleDelayMillis, final long exportTimeoutMillis) {
+        this.exporter = exporter;
+        this.queue = new MpscArrayQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.scheduleDelayNanos = TimeUnit.MILLISECONDS.toNanos(scheduleDelayMillis);
+        this.exportTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(exportTimeoutMillis);
+
+        this.worker = new Thread(this::work, "span-ring-exporter");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Processor configured by {@code phoenix.otel.spans.capacity} (8192), {@code phoenix.otel.spans.batchSize}
+     * (512), {@code phoenix.otel.spans.delayMillis} (1000) and {@code phoenix.otel.spans.timeoutMillis} (30000),
+     * the defaults of the SDK's {@code BatchSpanProcessor}.
+     */
+    public static RingBufferSpanProcessor fromSystemProperties(final SpanExporter exporter) {
+        return new RingBufferSpanProcessor(exporter,
+                Integer.getInteger("phoenix.otel.spans.capacity", 8192),
+                Integer.getInteger("phoenix.otel.spans.batchSize", 512),
+                Long.getLong("phoenix.otel.spans.delayMillis", 1_000L),
+                Long.getLong("phoenix.otel.spans.timeoutMillis", 30_000L));
+    }
+
+    /**
+     * Registers {@code span_processor_spans_total} by outcome (exported, dropped, failed) and
+     * {@code span_processor_queue_size}; call once the SDK using this processor is built.
+     */
+    public void registerMetrics(final Meter meter) {
+        final Attributes exportedOutcome = Attributes.of(OUTCOME, "exported");
+        final Attributes droppedOutcome = Attributes.of(OUTCOME, "dropped");
+        final Attributes failedOutcome = Attributes.of(OUTCOME, "failed");
+
+        meter.counterBuilder("span_processor_spans_total")
+                .setDescription("Ended spans handled by the span processor")
+                .setUnit("1")
+                .buildWithCallback(result -> {
+                    result.record(exported.sum(), exportedOutcome);
+                    result.record(dropped.sum(), droppedOutcome);
+                    result.record(failed.sum(), failedOutcome);
+                });
+        meter.gaugeBuilder("span_processor_queue_size")
+                .setDescription("Ended spans waiting to be exported")
+                .setUnit("1")
+                .ofLongs()
+                .buildWithCallback(result -> result.record(queue.size()));
+    }
+
+    @Override
+    public void onStart(final Context parentContext, final ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(final ReadableSpan span) {
+        if (!span.getSpanContext().isSampled()) {
+            return;
+        }
+        if (!running || !queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    /**
+     * Completes once every span that ended before the call was exported, failing if any export failed;
+     * a flush already under way does not count, since spans may have ended after it drained the queue.
+     */
+    @Override
+    public CompletableResultCode forceFlush() {
+        if (!running) {
+            return stopped;
+        }
+        final CompletableResultCode request = new CompletableResultCode();
+        flushRequests.add(request);
+        //-- Raced with shutdown: the worker may be past its last flush, which covers this one anyway
+        return running ? request : stopped;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        //-- Only the first call stops the worker and shuts the exporter down; later ones wait for it
+        final CompletableResultCode result = new CompletableResultCode();
+        final CompletableResultCode previous = shutdownResult.compareAndExchange(null, result);
+        if (previous != null) {
+            return previous;
+        }
+        running = false;
+        stopped.whenComplete(() -> exporter.shutdown().whenComplete(result::succeed));
+        return result;
+    }
+
+    private void work() {
+        final IdleStrategy idle = new BackoffIdleStrategy(100, 10, TimeUnit.MICROSECONDS.toNanos(1),
+                TimeUnit.MILLISECONDS.toNanos(10));
+        final List<SpanData> batch = new ArrayList<>(maxBatchSize);
+        long nextExport = System.nanoTime() + scheduleDelayNanos;
+
+        while (running) {
+            final int drained = queue.drain(span -> batch.add(span.toSpanData()), maxBatchSize - batch.size());
+
+            if (!flushRequests.isEmpty()) {
+                flush(batch);
+                nextExport = System.nanoTime() + scheduleDelayNanos;
+            } else if (batch.size() >= maxBatchSize || (!batch.isEmpty() && System.nanoTime() - nextExport >= 0)) {
+                export(batch);
+                nextExport = System.nanoTime() + scheduleDelayNanos;
+            }
+            idle.idle(drained);
+        }
+
+        flush(batch);
+        stopped.succeed();
+    }
+
+    /**
+     * Answers the flush requests made so far: everything they were made after is in the queue by now.
+     */
+    private void flush(final List<SpanData> batch) {
+        final List<CompletableResultCode> requests = new ArrayList<>();
+        CompletableResultCode request;
+        while ((request = flushRequests.poll()) != null) {
+            requests.add(request);
+        }
+
+        final boolean success = drainAll(batch);
+        for (CompletableResultCode answered : requests) {
+            if (success) {
+                answered.succeed();
+            } else {
+                answered.fail();
+            }
+        }
+    }
+
+    /**
+     * @return Whether every export succeeded.
+     */
+    private boolean drainAll(final List<SpanData> batch) {
+        boolean success = true;
+        do {
+            queue.drain(span -> batch.add(span.toSpanData()), maxBatchSize - batch.size());
+            if (!batch.isEmpty()) {
+                success &= export(batch);
+            }
+        } while (!queue.isEmpty());
+        return success;
+    }
+
+    /**
+     * @return Whether the exporter accepted the batch in time.
+     */
+    private boolean export(final List<SpanData> batch) {
+        final int size = batch.size();
+        try {
+            final CompletableResultCode result = exporter.export(new ArrayList<>(batch))
+                    .join(exportTimeoutNanos, TimeUnit.NANOSECONDS);
+            if (result.isSuccess()) {
+                exported.add(size);
+                return true;
+            }
+            failed.add(size);
+            return false;
+        } catch (RuntimeException e) {
+            failed.add(size);
+            return false;
+        } finally {
+            batch.clear();
+        }
+    }
+}
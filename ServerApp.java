@@ -3,26 +3,28 @@ package com.clarifi.phoenix.ashes.server;
 
 import com.clarifi.common.util.Logging;
 import  com.clarifi.common.application.App;
-import com.clarifi.phoenix.ashes.common.PackedDataSession;
 import com.clarifi.phoenix.ashes.metrics.HelloHandler;
 import com.clarifi.phoenix.ashes.metrics.MetricsConfig;
 import com.clarifi.phoenix.ashes.metrics.OpenTelemetryConfig;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
+import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.*;
 import io.undertow.server.handlers.encoding.EncodingHandler;
 import io.undertow.server.handlers.resource.FileResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
 import io.undertow.util.StatusCodes;
 import org.apache.ignite.Ignite;
-import org.apache.ignite.IgniteCache;
 import org.apache.ignite.Ignition;
-import org.apache.ignite.cache.query.QueryCursor;
-import org.apache.ignite.cache.query.ScanQuery;
 import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.kubernetes.configuration.KubernetesConnectionConfiguration;
 import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.TcpDiscoveryIpFinder;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.kubernetes.TcpDiscoveryKubernetesIpFinder;
 import org.apache.ignite.spi.discovery.tcp.ipfinder.multicast.TcpDiscoveryMulticastIpFinder;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
+import org.apache.ignite.spi.metric.prometheus.PrometheusMetricExporterSpi;
 import org.apache.logging.log4j.Logger;
 
 import com.sun.net.httpserver.HttpServer;
@@ -30,14 +32,11 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 
 
-import javax.cache.Cache;
 import java.io.File;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.*;
 
 public class ServerApp {
@@ -48,26 +47,108 @@ public class ServerApp {
 
     private final BlockingQueue<Runnable> queue;
     private final ExecutorService executor;
-    private Ignite ignite;
+    private final FairDispatcher dispatcher;
+    private final DataSessionJobRegistry jobRegistry;
+    private final CompressionPolicy compressionPolicy;
+    private final RequestFlightRecorder flightRecorder;
+    private final RateLimiter rateLimiter;
+    private DataAccessBackend backend;
+    private final StartupOrchestrator startup;
+    private ReadinessHandler readiness;
+    private RequestCaptureHandler capture;
+    private Undertow httpServer;
+    private ScheduledExecutorService scheduler;
 
 
 
     public ServerApp() {
+        this(new StartupOrchestrator());
+    }
+
+    public ServerApp(final StartupOrchestrator startup) {
+        this.startup = startup;
         // todo: replace with Glav's threading library
         queue = new ArrayBlockingQueue<>(32);
         executor = new ThreadPoolExecutor(
                 2, 4, 5L, TimeUnit.MINUTES, queue);
+        dispatcher = FairDispatcher.fromSystemProperties();
+        jobRegistry = new DataSessionJobRegistry(TimeUnit.MINUTES.toMillis(10),
+                TimeUnit.MINUTES.toMillis(Long.getLong("phoenix.jobs.staleMinutes", 30)));
+        compressionPolicy = CompressionPolicy.fromSystemProperties();
+        flightRecorder = RequestFlightRecorder.fromSystemProperties();
+        rateLimiter = RateLimiter.fromSystemProperties();
     }
 
+    public RequestFlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public DataAccessBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return The client node, or {@code null} with the thin client backend.
+     */
     public Ignite getIgnite() {
-        return ignite;
+        return backend == null ? null : backend.getIgnite();
+    }
+
+    public DataSessionStore getSessionStore() {
+        return backend.getSessionStore();
+    }
+
+    public DataSessionVersions.Store getSessionVersions() {
+        return backend.getSessionVersions();
     }
 
     public ExecutorService getExecutor() {
         return executor;
     }
 
-    public void start() {
+    public FairDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public DataSessionJobRegistry getJobRegistry() {
+        return jobRegistry;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Connects to the cluster through the backend named by {@code phoenix.ignite.backend}, see
+     * {@link DataAccessBackend}.
+     * <p>
+     * Only the per-user layout on the thick backend serves the write routes (see {@link #legacyStorage}).
+     * Any other combination starts only with {@code phoenix.storage.readOnly=true}, for servers whose
+     * sessions are written by some other process, such as {@link LocalClusterHarness} seeding them.
+     */
+    public void start() throws InterruptedException {
+        if (!legacyWrites() && !Boolean.getBoolean("phoenix.storage.readOnly")) {
+            throw new IllegalStateException("phoenix.storage.mode="
+                    + System.getProperty("phoenix.storage.mode", DataSessionStore.MODE_PER_USER)
+                    + " with phoenix.ignite.backend="
+                    + System.getProperty("phoenix.ignite.backend", DataAccessBackend.THICK)
+                    + " cannot serve the write routes; set phoenix.storage.readOnly=true to start read-only");
+        }
+
+        final String mode = System.getProperty("phoenix.ignite.backend", DataAccessBackend.THICK);
+        switch (mode) {
+            case DataAccessBackend.THICK:
+                backend = new ThickClientBackend(startClientNode());
+                break;
+            case DataAccessBackend.THIN:
+                backend = ThinClientBackend.fromSystemProperties();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown phoenix.ignite.backend: " + mode);
+        }
+    }
+
+    static Ignite startClientNode() {
         final IgniteConfiguration cfg = new IgniteConfiguration();
 
 
@@ -75,28 +156,90 @@ public class ServerApp {
         cfg.setClientMode(true);
         cfg.setPeerClassLoadingEnabled(true);
 
-        cfg.setWorkDirectory("/home/nicolae.ovidiu@ciq.internal/DataSessionMapReduce2-main/PhoenixPodman-data-sessions-map-reduce/api-server");
+        final String instanceName = System.getProperty("phoenix.ignite.instanceName");
+        if (instanceName != null) {
+            cfg.setIgniteInstanceName(instanceName);
+        }
+        cfg.setWorkDirectory(System.getProperty("phoenix.ignite.workDir",
+                "/home/nicolae.ovidiu@ciq.internal/DataSessionMapReduce2-main/PhoenixPodman-data-sessions-map-reduce/api-server"));
 
         // Setting up an IP Finder to ensure the client can locate the servers.
-        final TcpDiscoveryMulticastIpFinder ipFinder = new TcpDiscoveryMulticastIpFinder();
-        ipFinder.setAddresses(Collections.singletonList("127.0.0.1:47500..47509"));
-        cfg.setDiscoverySpi(new TcpDiscoverySpi().setIpFinder(ipFinder));
-
-        ignite = Ignition.start(cfg);
-
-        System.out.println(">> Started the client node");
+        cfg.setDiscoverySpi(new TcpDiscoverySpi().setIpFinder(ipFinder()));
+
+        //-- Scraped directly by Prometheus; replaces the JMX exporter agent
+        final int metricsPort = Integer.getInteger("phoenix.metrics.prometheus.port", PrometheusMetricExporterSpi.DFLT_PORT);
+        if (metricsPort > 0) {
+            final PrometheusMetricExporterSpi prometheus = new PrometheusMetricExporterSpi();
+            prometheus.setPort(metricsPort);
+            prometheus.setIncludes(PrometheusMetricExporterSpi.regexes(System.getProperty("phoenix.metrics.prometheus.include")));
+            prometheus.setExcludes(PrometheusMetricExporterSpi.regexes(System.getProperty("phoenix.metrics.prometheus.exclude")));
+            cfg.setMetricExporterSpi(prometheus);
+        }
 
-        System.out.printf("\tNode ID: %s\n\tOS: %s\tJRE: %s\n",
+        final Ignite ignite = Ignition.start(cfg);
+        _logger.info("Started the client node [nodeId={}, os={}, jre={}]",
                 ignite.cluster().localNode().id(),
                 System.getProperty("os.name"),
                 System.getProperty("java.runtime.name")
         );
+        return ignite;
+    }
+
+    /**
+     * {@code phoenix.ignite.discovery} selects how servers are found: {@code static} from the
+     * comma-separated {@code phoenix.ignite.discovery.addresses}, {@code kubernetes} from the endpoints
+     * of {@code phoenix.ignite.discovery.k8s.service} in {@code phoenix.ignite.discovery.k8s.namespace},
+     * or {@code multicast} (the default unless addresses are given). Static and Kubernetes discovery
+     * skip the multicast rounds a joining client otherwise waits for.
+     */
+    private static TcpDiscoveryIpFinder ipFinder() {
+        final String addresses = System.getProperty("phoenix.ignite.discovery.addresses");
+        final String mode = System.getProperty("phoenix.ignite.discovery", addresses != null ? "static" : "multicast");
+
+        switch (mode) {
+            case "static": {
+                if (addresses == null) {
+                    throw new IllegalArgumentException("Static discovery needs phoenix.ignite.discovery.addresses");
+                }
+                final TcpDiscoveryVmIpFinder ipFinder = new TcpDiscoveryVmIpFinder();
+                ipFinder.setAddresses(Arrays.asList(addresses.split(",")));
+                return ipFinder;
+            }
+            case "kubernetes":
+                return new TcpDiscoveryKubernetesIpFinder(kubernetesConnection());
+            case "multicast": {
+                final TcpDiscoveryMulticastIpFinder ipFinder = new TcpDiscoveryMulticastIpFinder();
+                ipFinder.setAddresses(Collections.singletonList("127.0.0.1:47500..47509"));
+                return ipFinder;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown phoenix.ignite.discovery: " + mode);
+        }
+    }
+
+    static KubernetesConnectionConfiguration kubernetesConnection() {
+        final KubernetesConnectionConfiguration k8s = new KubernetesConnectionConfiguration();
+        k8s.setNamespace(System.getProperty("phoenix.ignite.discovery.k8s.namespace", "default"));
+        k8s.setServiceName(System.getProperty("phoenix.ignite.discovery.k8s.service", "ignite"));
+        return k8s;
     }
 
     public static void main(final String[] args) throws Throwable {
-        // Set up OpenTelemetry configuration
-        OpenTelemetryConfig.setup();
+        final StartupOrchestrator startup = new StartupOrchestrator();
+
+        //-- Sets up logging and the application framework that every later phase uses, so nothing overlaps it
+        App.initBeforeAnythingElse(args, 0, "Server App", "1.0.0");
+
+        //-- Handlers and dispatchers register instruments, so telemetry has to be in place first;
+        //-- only the /hello server, which nothing else uses, overlaps the rest of startup
+        startup.inline("telemetry", OpenTelemetryConfig::setup);
+        startup.phase("hello-server", ServerApp::startHelloServer, "telemetry");
+        final ServerApp appServer = new ServerApp(startup);
 
+        App.appMain(appServer::startup, appServer::shutdown);
+    }
+
+    private static void startHelloServer() {
         try {
             // Create HTTP server on port 8080
             HttpServer server = HttpServer.create(new InetSocketAddress(8087), 0);
@@ -108,38 +251,65 @@ public class ServerApp {
             server.setExecutor(null); // creates a default executor
             server.start();
 
-            System.out.println("Server started on port 8087");
+            _logger.info("Server started on port 8087");
 
         } catch (IOException e) {
-            e.printStackTrace();
+            _logger.error("Failed to start the /hello server", e);
         }
+    }
 
+    /**
+     * Joins the cluster and binds the HTTP listener concurrently; {@code /api2} answers 503 until both
+     * are done, and {@code /health/ready} reports the same.
+     * With {@code phoenix.startup.exitAfterReady} the process exits once ready, to time startup alone; the
+     * AppCDS training run uses {@link LocalClusterHarness.Training} instead, which also serves requests.
+     */
+    void startup(){
+        startup.phase("ignite", this::start);
+        startup.phase("http", this::startHttp);
+        startup.awaitAll();
+
+        scheduler = Executors.newScheduledThreadPool(1);
+        scheduler.scheduleAtFixedRate(new CacheCleanerTask(backend.getSessionStore()),0,2,TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(jobRegistry::evictFinished,1,1,TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(dispatcher::evictIdle,1,1,TimeUnit.MINUTES);
+        if (rateLimiter != null) {
+            scheduler.scheduleAtFixedRate(rateLimiter::evictIdle,1,1,TimeUnit.MINUTES);
+        }
 
-        App.initBeforeAnythingElse(args, 0, "Server App", "1.0.0");
-
-        final ServerApp appServer = new ServerApp();
+        readiness.markReady();
+        startup.recordMetrics();
 
-        App.appMain(appServer::startup, appServer::shutdown);
+        if (Boolean.getBoolean("phoenix.startup.exitAfterReady")) {
+            shutdown();
+            System.exit(0);
+        }
     }
 
-    private void startup(){
-        this.start();
+    private void startHttp() {
 
         final HttpHandler createUser = new ResponseCodeHandler(StatusCodes.NOT_FOUND);
         final HttpHandler getUser = new ResponseCodeHandler(StatusCodes.NOT_FOUND);
 
-        final HttpHandler putNewDataSession = new LoggingHandler(new RequestBufferingHandler(new BlockingHandler(
-                new DataSessionPutHandler(this)), 1));
+        //-- These handlers use the per-user caches directly; see legacyStorage()
+        final HttpHandler putNewDataSession = legacyStorage("update", new LoggingHandler(new RequestBufferingHandler(new BlockingHandler(
+                new DataSessionPutHandler(this)), 1)));
+        //-- Nothing registers builds in the job registry yet (the post handler does not), so the status, cancel
+        //-- and events handlers stay unmounted until it does: they could only ever answer "no such job"
         final HttpHandler cancelDataSession = new ResponseCodeHandler(StatusCodes.NOT_FOUND);
         final HttpHandler getDataSessionStatus = new ResponseCodeHandler(StatusCodes.NOT_FOUND);
-        final HttpHandler getDataSession = new LoggingHandler(new EncodingHandler.Builder().build(null).wrap(
-                new DataSessionGetHandler(this)));
-        final HttpHandler postNewDataSession = new LoggingHandler(new RequestBufferingHandler(new BlockingHandler(
-                new DataSessionPostHandler(this)), 1));
-        final HttpHandler deleteDataSession = new TokenValidatorMiddleware(new LoggingHandler(new DataSessionDeleteHandler(this)));
-
-        final HttpHandler countIssues = new LoggingHandler(new DataSessionCountIssuesHandler(this));
-        final HttpHandler getTimeSeries = new LoggingHandler(new GetTimeSeriesHandler(this));
+        //-- The GET handler negotiates its own encoding so it can serve precompressed payloads
+        final HttpHandler getDataSession = new LoggingHandler(withDeadline("get", new DataSessionGetHandler(this)));
+        final HttpHandler postNewDataSession = legacyStorage("new", new LoggingHandler(new RequestBufferingHandler(new BlockingHandler(
+                new DataSessionPostHandler(this)), 1)));
+        final HttpHandler deleteDataSession = legacyStorage("delete",
+                new TokenValidatorMiddleware(new LoggingHandler(new DataSessionDeleteHandler(this))));
+
+        //-- No deadline: these handlers block on the caches themselves and never consult Deadline.current()
+        final HttpHandler countIssues = legacyStorage("count-issues",
+                new LoggingHandler(new DataSessionCountIssuesHandler(this)));
+        final HttpHandler getTimeSeries = legacyStorage("time-series", new LoggingHandler(
+                new EncodingHandler(compressionPolicy.repository()).setNext(new GetTimeSeriesHandler(this))));
         final HttpHandler getCrossSectional = new ResponseCodeHandler(StatusCodes.NOT_FOUND);
 
         final HttpHandler fallback = new RequestDumpingHandler(new ResponseCodeHandler(StatusCodes.BAD_REQUEST));
@@ -148,66 +318,113 @@ public class ServerApp {
                 .addWelcomeFiles("index.html")
                 .setDirectoryListingEnabled(true);
 
+        final RoutingHandler api = Handlers.routing()
+                .get("/user/get/{userId}", limited(getUser))
+                .put("/user/create/{userId}", limited(createUser))
+
+                .put("/data-session/update", limited(putNewDataSession))
+                .post("/data-session/new", limited(postNewDataSession))
+                .get("/data-session/status/{sessionId}", limited(getDataSessionStatus))
+                .get("/data-session/cancel/{sessionId}", limited(cancelDataSession))
+                .get("/data-session/get/{sessionId}", limited(getDataSession))
+                .delete("/data-session/delete/{sessionId}", limited(deleteDataSession))
+                .get("/data-sessions/count-issues/{userId}", limited(countIssues))
+
+                .get("/time-series/{issueId}/{date}/{dataItemId}", limited(getTimeSeries))
+                .get("/cross-sectional/{issueId}/{date}", limited(getCrossSectional))
+
+                .setFallbackHandler(fallback);
+
+        readiness = new ReadinessHandler(api);
+        capture = RequestCaptureHandler.fromSystemProperties(readiness);
         final PathHandler handler = Handlers.path()
                 .addPrefixPath("/swagger-ui", resourceHandler)
-                .addPrefixPath(PATH_API2, Handlers.routing()
-                        .get("/user/get/{userId}", getUser)
-                        .put("/user/create/{userId}", createUser)
-
-                        .put("/data-session/update", putNewDataSession)
-                        .post("/data-session/new", postNewDataSession)
-                        .get("/data-session/status/{sessionId}", getDataSessionStatus)
-                        .get("/data-session/cancel/{sessionId}", cancelDataSession)
-                        .get("/data-session/get/{sessionId}", getDataSession)
-                        .delete("/data-session/delete/{sessionId}", deleteDataSession)
-                        .get("/data-sessions/count-issues/{userId}", countIssues)
-
-                        .get("/time-series/{issueId}/{date}/{dataItemId}", getTimeSeries)
-                        .get("/cross-sectional/{issueId}/{date}", getCrossSectional)
-
-                        .setFallbackHandler(fallback)
-                );
-
-        final Undertow httpServer = Undertow.builder()
-                .addHttpListener(8083, "localhost")
+                .addExactPath("/health/live", new ResponseCodeHandler(StatusCodes.OK))
+                .addExactPath("/health/ready", readiness.probe())
+                .addExactPath("/management/jfr", new TokenValidatorMiddleware(new JfrDumpHandler()))
+                .addExactPath("/management/requests", new TokenValidatorMiddleware(flightRecorder.handler()))
+                .addPrefixPath(PATH_API2, capture != null ? capture : readiness);
+
+        final ServerProfile profile = ServerProfile.fromSystemProperties();
+        httpServer = profile.builder()
                 .setHandler(handler)
                 .build();
 
         httpServer.start();
+        _logger.info("API server started: {}", profile);
+    }
+
+    /**
+     * Rate limits a route; applied per route, since the user may be a path parameter that only the
+     * {@link RoutingHandler} extracts.
+     */
+    private HttpHandler limited(final HttpHandler next) {
+        return rateLimiter == null ? next : new RateLimitingHandler(rateLimiter, next);
+    }
+
+    /**
+     * The put, post, delete, count-issues and time-series handlers (and {@code UpdateDataSessionTimestamp})
+     * read and write the {@code user-data-sessions:<userId>} caches through the client node instead of going
+     * through {@link DataSessionStore}. With any other {@code phoenix.storage.mode}, or with the thin backend
+     * that has no client node, they would write sessions no reader sees, so their routes answer 501 instead;
+     * {@link #start} refuses that unless the server was started read-only on purpose.
+     */
+    private static HttpHandler legacyStorage(final String route, final HttpHandler next) {
+        if (legacyWrites()) {
+            return next;
+        }
+        _logger.warn("Route '{}' needs the per-user layout on the thick backend and answers 501", route);
+        return new ResponseCodeHandler(StatusCodes.NOT_IMPLEMENTED);
+    }
+
+    /**
+     * @return Whether the per-user write handlers, which bypass {@link DataSessionStore}, are mounted.
+     */
+    static boolean legacyWrites() {
+        return DataSessionStore.MODE_PER_USER.equals(
+                System.getProperty("phoenix.storage.mode", DataSessionStore.MODE_PER_USER))
+                && DataAccessBackend.THICK.equals(
+                System.getProperty("phoenix.ignite.backend", DataAccessBackend.THICK));
+    }
 
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(new CacheCleanerTask(ignite),0,2,TimeUnit.MINUTES);
+    /**
+     * Bounds a route by {@code phoenix.deadline.<route>.millis}, or {@code phoenix.deadline.default.millis}
+     * (10s); clients may ask for less, or for up to {@code phoenix.deadline.max.millis} (60s), with
+     * {@code X-Request-Timeout}.
+     */
+    private static HttpHandler withDeadline(final String route, final HttpHandler next) {
+        final long defaultMillis = Long.getLong("phoenix.deadline." + route + ".millis",
+                Long.getLong("phoenix.deadline.default.millis", 10_000L));
+        return new DeadlineHandler(route, defaultMillis, Long.getLong("phoenix.deadline.max.millis", 60_000L), next);
     }
 
-    private void shutdown(){}
+    void shutdown(){
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+        if (capture != null) {
+            capture.close();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        dispatcher.stop();
+        executor.shutdownNow();
+        if (backend != null) {
+            backend.close();
+        }
+    }
 
     private static class CacheCleanerTask implements Runnable{
-        private final Ignite ignite;
+        private final DataSessionStore store;
 
-        CacheCleanerTask(Ignite ignite){
-            this.ignite = ignite;
+        CacheCleanerTask(DataSessionStore store){
+            this.store = store;
         }
         @Override
         public void run() {
-            System.out.println("Clearing Caches which are not used for over 2 minutes");
-            Collection<String> cacheList = ignite.cacheNames();
-
-            for(String cacheName : cacheList){
-                final IgniteCache<UUID, PackedDataSession> userDataSessionCache = ignite.cache(cacheName);
-
-                try(QueryCursor<Cache.Entry<UUID, PackedDataSession>> cursor =userDataSessionCache.query(new ScanQuery<>())){
-                    for(Cache.Entry<UUID, PackedDataSession> entry : cursor){
-                        Instant currentTime = Instant.now();
-                        long minutesDifference = Duration.between(entry.getValue().getLastAccessedAt(),currentTime).toMinutes();
-                        if(minutesDifference > 2){
-                            final String userCacheName = String.format(
-                                    "%s:%s", ServerApp.PREFIX_CACHE_USER_DATA_SESSIONS, entry.getValue().getUserId());
-                            ignite.cache(userCacheName).clear();
-                            System.out.println("Cache '"+userCacheName+ "' is cleared");
-                        }
-                    }
-                }
-            }
+            _logger.info("Clearing Caches which are not used for over 2 minutes");
+            store.evictIdle(Duration.ofMinutes(2));
         }
     }
 }
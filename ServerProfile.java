@@ -0,0 +1,92 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import org.xnio.Options;
+
+/**
+ * Listener and connection settings for the API's Undertow server.
+ * <p>
+ * Every setting can be overridden with a {@code phoenix.http.*} system property; the defaults
+ * size the IO threads to the core count, use 16 KiB direct buffers and enable HTTP/2 cleartext
+ * (h2c, both prior-knowledge and {@code Upgrade}) so clients can multiplex requests over a
+ * single keep-alive connection. The listener binds {@code phoenix.http.host} (localhost), so it is
+ * only reachable from outside the machine when that is set, as the container image does.
+ */
+public class ServerProfile {
+    private final String host;
+    private final int port;
+    private final int ioThreads;
+    private final int workerThreads;
+    private final int bufferSize;
+    private final boolean directBuffers;
+    private final boolean http2;
+    private final int maxConcurrentStreams;
+    private final int backlog;
+    private final int idleTimeoutMillis;
+
+    public ServerProfile(final String host, final int port, final int ioThreads, final int workerThreads,
+                         final int bufferSize, final boolean directBuffers, final boolean http2,
+                         final int maxConcurrentStreams, final int backlog, final int idleTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.ioThreads = ioThreads;
+        this.workerThreads = workerThreads;
+        this.bufferSize = bufferSize;
+        this.directBuffers = directBuffers;
+        this.http2 = http2;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.backlog = backlog;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public static ServerProfile fromSystemProperties() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int ioThreads = Integer.getInteger("phoenix.http.ioThreads", Math.max(2, cores));
+
+        return new ServerProfile(
+                System.getProperty("phoenix.http.host", "localhost"),
+                Integer.getInteger("phoenix.http.port", 8083),
+                ioThreads,
+                Integer.getInteger("phoenix.http.workerThreads", ioThreads * 8),
+                Integer.getInteger("phoenix.http.bufferSize", 16 * 1024),
+                Boolean.parseBoolean(System.getProperty("phoenix.http.directBuffers", "true")),
+                Boolean.parseBoolean(System.getProperty("phoenix.http.http2", "true")),
+                Integer.getInteger("phoenix.http.maxConcurrentStreams", 256),
+                Integer.getInteger("phoenix.http.backlog", 4096),
+                Integer.getInteger("phoenix.http.idleTimeoutMillis", 60_000));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Undertow.Builder builder() {
+        return Undertow.builder()
+                .addHttpListener(port, host)
+                .setIoThreads(ioThreads)
+                .setWorkerThreads(workerThreads)
+                .setBufferSize(bufferSize)
+                .setDirectBuffers(directBuffers)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, http2)
+                .setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams)
+                .setServerOption(UndertowOptions.ALWAYS_SET_KEEP_ALIVE, true)
+                .setServerOption(UndertowOptions.IDLE_TIMEOUT, idleTimeoutMillis)
+                .setSocketOption(Options.BACKLOG, backlog)
+                .setSocketOption(Options.TCP_NODELAY, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true);
+    }
+
+    @Override
+    public String toString() {
+        return "ServerProfile [host=" + host + ", port=" + port + ", ioThreads=" + ioThreads +
+                ", workerThreads=" + workerThreads + ", bufferSize=" + bufferSize +
+                ", directBuffers=" + directBuffers + ", http2=" + http2 +
+                ", maxConcurrentStreams=" + maxConcurrentStreams + ", backlog=" + backlog +
+                ", idleTimeoutMillis=" + idleTimeoutMillis + "]";
+    }
+}
@@ -0,0 +1,53 @@
+package com.clarifi.phoenix.ashes.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller starts the call,
+ * everyone arriving while it is in flight gets the same future. The key is released before the
+ * future completes, so callers arriving afterwards start a fresh call and never see stale results.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public CompletableFuture<V> execute(final K key, final Supplier<CompletableFuture<V>> call) {
+        final CompletableFuture<V> pending = new CompletableFuture<>();
+        final CompletableFuture<V> existing = calls.putIfAbsent(key, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        started.increment();
+        try {
+            call.get().whenComplete((value, error) -> {
+                calls.remove(key, pending);
+                if (error != null) {
+                    pending.completeExceptionally(error);
+                } else {
+                    pending.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, pending);
+            pending.completeExceptionally(e);
+        }
+        return pending;
+    }
+
+    /** @return Number of calls actually started. */
+    public long getStarted() {
+        return started.sum();
+    }
+
+    /** @return Number of callers that joined a call already in flight. */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
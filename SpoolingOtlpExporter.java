@@ -0,0 +1,384 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import com.clarifi.common.util.Logging;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static org.apache.logging.log4j.util.Unbox.box;
+
+/**
+ * OTLP/HTTP exporter for spans and metrics that survives collector restarts.
+ * <p>
+ * Batches are encoded by {@link OtlpProtoEncoder} and posted to the collector straight away. Only a batch
+ * whose export fails or times out is appended to an {@link OtlpSpool} on local disk; a single sender thread
+ * posts spooled batches oldest first and removes each one once the collector accepted it, backing off while
+ * the collector is unavailable. While anything is spooled, new batches are spooled behind it rather than
+ * exported, so once a batch failed, the batches after it wait for its retry. Batches the collector
+ * rejects outright (4xx other than 408/429) are discarded rather than retried.
+ * <p>
+ * {@code flush} completes once the spool is empty, and {@code shutdown} first waits up to the export
+ * timeout for it to empty; whatever is left is replayed by the next process to claim the spool.
+ * <p>
+ * Off by default; {@link OpenTelemetryConfig} uses it when {@code phoenix.otlp.spool.enabled=true}, in
+ * which case telemetry goes over OTLP/HTTP to {@code phoenix.otlp.http.endpoint} instead of over gRPC.
+ * <p>
+ * Self-metrics, registered with {@link #registerMetrics}: {@code otlp_spool_batches_spooled_total},
+ * {@code otlp_spool_batches_replayed_total} (spooled batches delivered later),
+ * {@code otlp_spool_batches_discarded_total} (by {@code reason}) and {@code otlp_spool_pending_bytes}.
+ */
+public class SpoolingOtlpExporter {
+    private static final Logger _logger = Logging.getLogger(SpoolingOtlpExporter.class);
+
+    private static final byte TRACES = 1;
+    private static final byte METRICS = 2;
+
+    private static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+    private static final Attributes OVERFLOW = Attributes.of(REASON, "overflow");
+    private static final Attributes REJECTED = Attributes.of(REASON, "rejected");
+    private static final Attributes TOO_LARGE = Attributes.of(REASON, "too_large");
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final URI tracesUri;
+    private final URI metricsUri;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final OtlpSpool spool;
+    private final Thread sender;
+
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tooLarge = new LongAdder();
+
+    //-- Batches not delivered or spooled yet, and flushes waiting for the spool to empty
+    private final Set<CompletableResultCode> exporting = ConcurrentHashMap.newKeySet();
+    private final Queue<CompletableResultCode> drainWaiters = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+    private CompletableFuture<Void> exports = CompletableFuture.completedFuture(null);
+    private int users;
+    private CompletableResultCode shutdownResult;
+
+    public SpoolingOtlpExporter(final String endpoint, final Duration timeout, final OtlpSpool spool) {
+        this.tracesUri = URI.create(endpoint + "/v1/traces");
+        this.metricsUri = URI.create(endpoint + "/v1/metrics");
+        this.timeout = timeout;
+        this.spool = spool;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+
+        this.sender = new Thread(this::send, "otlp-spool-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Exporter configured by {@code phoenix.otlp.http.endpoint} (http://localhost:4318),
+     * {@code phoenix.otlp.timeout.millis} (5000), {@code phoenix.otlp.spool.dir} (a directory under
+     * {@code java.io.tmpdir}, under which each process claims a numbered directory of its own),
+     * {@code phoenix.otlp.spool.segmentBytes} (8 MiB) and {@code phoenix.otlp.spool.maxSegments} (32).
+     */
+    public static SpoolingOtlpExporter fromSystemProperties() throws IOException {
+        final Path parent = Paths.get(System.getProperty("phoenix.otlp.spool.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "phoenix-otlp-spool").toString()));
+        final OtlpSpool spool = OtlpSpool.claim(parent,
+                Integer.getInteger("phoenix.otlp.spool.segmentBytes", 8 << 20),
+                Integer.getInteger("phoenix.otlp.spool.maxSegments", 32));
+        final String endpoint = System.getProperty("phoenix.otlp.http.endpoint", "http://localhost:4318");
+
+        _logger.info("Spooling telemetry to {} and sending it over OTLP/HTTP to {}", spool.getDirectory(), endpoint);
+        return new SpoolingOtlpExporter(endpoint,
+                Duration.ofMillis(Long.getLong("phoenix.otlp.timeout.millis", 5_000L)),
+                spool);
+    }
+
+    /**
+     * Registers the self-metrics; call once the SDK using this exporter is built.
+     */
+    public void registerMetrics(final Meter meter) {
+        meter.counterBuilder("otlp_spool_batches_spooled_total")
+                .setDescription("Telemetry batches written to the local spool")
+                .setUnit("1")
+                .buildWithCallback(result -> result.record(spooled.sum()));
+        meter.counterBuilder("otlp_spool_batches_replayed_total")
+                .setDescription("Spooled telemetry batches delivered to the collector")
+                .setUnit("1")
+                .buildWithCallback(result -> result.record(replayed.sum()));
+        meter.counterBuilder("otlp_spool_batches_discarded_total")
+                .setDescription("Telemetry batches given up on")
+                .setUnit("1")
+                .buildWithCallback(result -> {
+                    result.record(overflowed.sum(), OVERFLOW);
+                    result.record(rejected.sum(), REJECTED);
+                    result.record(tooLarge.sum(), TOO_LARGE);
+                });
+        meter.gaugeBuilder("otlp_spool_pending_bytes")
+                .setDescription("Bytes of spooled telemetry not yet delivered")
+                .setUnit("By")
+                .ofLongs()
+                .buildWithCallback(result -> result.record(spool.pendingBytes()));
+    }
+
+    public SpanExporter spanExporter() {
+        acquire();
+        return new SpanExporter() {
+            @Override
+            public CompletableResultCode export(final Collection<SpanData> spans) {
+                return submit(TRACES, () -> OtlpProtoEncoder.traces(spans));
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return SpoolingOtlpExporter.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return SpoolingOtlpExporter.this.shutdown();
+            }
+        };
+    }
+
+    public MetricExporter metricExporter() {
+        acquire();
+        return new MetricExporter() {
+            @Override
+            public AggregationTemporality getAggregationTemporality(final InstrumentType instrumentType) {
+                //-- Cumulative points stay correct when a replayed batch arrives late
+                return AggregationTemporality.CUMULATIVE;
+            }
+
+            @Override
+            public CompletableResultCode export(final Collection<MetricData> metrics) {
+                return submit(METRICS, () -> OtlpProtoEncoder.metrics(metrics));
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return SpoolingOtlpExporter.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return SpoolingOtlpExporter.this.shutdown();
+            }
+        };
+    }
+
+    private synchronized void acquire() {
+        users++;
+    }
+
+    private CompletableResultCode submit(final byte signal, final Supplier<byte[]> encoder) {
+        final byte[] payload;
+        try {
+            payload = encoder.get();
+        } catch (RuntimeException e) {
+            _logger.warn("Failed to encode a telemetry batch", e);
+            return CompletableResultCode.ofFailure();
+        }
+
+        final CompletableResultCode result = new CompletableResultCode();
+        exporting.add(result);
+        result.whenComplete(() -> exporting.remove(result));
+        //-- One batch at a time, each after the previous one was delivered or spooled, so they stay in order
+        synchronized (this) {
+            exports = exports.thenCompose(ignored -> deliver(signal, payload, result))
+                    .exceptionally(error -> {
+                        _logger.warn("Failed to export a telemetry batch", error);
+                        result.fail();
+                        return null;
+                    });
+        }
+        return result;
+    }
+
+    private CompletableFuture<Void> deliver(final byte signal, final byte[] payload, final CompletableResultCode result) {
+        //-- Anything already spooled goes first, so this batch queues behind it
+        if (!spool.isEmpty()) {
+            complete(result, spool(signal, payload));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return client.sendAsync(request(signal, payload), HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    final int status = error == null ? response.statusCode() : -1;
+                    if (isSuccess(status)) {
+                        result.succeed();
+                    } else if (!isRetryable(status)) {
+                        rejected.increment();
+                        result.fail();
+                    } else {
+                        complete(result, spool(signal, payload));
+                    }
+                    return null;
+                });
+    }
+
+    private static void complete(final CompletableResultCode result, final CompletableResultCode outcome) {
+        if (outcome.isSuccess()) {
+            result.succeed();
+        } else {
+            result.fail();
+        }
+    }
+
+    private CompletableResultCode spool(final byte signal, final byte[] payload) {
+        try {
+            final int dropped = spool.append(signal, payload);
+            if (dropped < 0) {
+                tooLarge.increment();
+                return CompletableResultCode.ofFailure();
+            }
+            overflowed.add(dropped);
+            spooled.increment();
+        } catch (IOException e) {
+            _logger.warn("Failed to spool a telemetry batch", e);
+            return CompletableResultCode.ofFailure();
+        }
+        LockSupport.unpark(sender);
+        return CompletableResultCode.ofSuccess();
+    }
+
+    /**
+     * @return Completes once the batches submitted so far were delivered or spooled, and the spool is empty.
+     */
+    private CompletableResultCode flush() {
+        final CompletableResultCode drained = new CompletableResultCode();
+        CompletableResultCode.ofAll(new ArrayList<>(exporting)).whenComplete(() -> {
+            drainWaiters.add(drained);
+            LockSupport.unpark(sender);
+        });
+        return drained;
+    }
+
+    private void send() {
+        long backoff = MIN_BACKOFF_NANOS;
+        while (running) {
+            final OtlpSpool.Record record;
+            try {
+                record = spool.peek();
+            } catch (IOException e) {
+                _logger.warn("Failed to read the telemetry spool", e);
+                LockSupport.parkNanos(MAX_BACKOFF_NANOS);
+                continue;
+            }
+            if (record == null) {
+                CompletableResultCode waiter;
+                while ((waiter = drainWaiters.poll()) != null) {
+                    waiter.succeed();
+                }
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+
+            int status;
+            try {
+                status = client.send(request(record.getSignal(), record.getPayload()),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (isSuccess(status)) {
+                spool.commit(record);
+                replayed.increment();
+                backoff = MIN_BACKOFF_NANOS;
+            } else if (!isRetryable(status)) {
+                spool.commit(record);
+                rejected.increment();
+            } else {
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private HttpRequest request(final byte signal, final byte[] payload) {
+        return HttpRequest.newBuilder(signal == TRACES ? tracesUri : metricsUri)
+                .timeout(timeout)
+                .header("Content-Type", "application/x-protobuf")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+    }
+
+    private static boolean isSuccess(final int status) {
+        return status >= 200 && status < 300;
+    }
+
+    private static boolean isRetryable(final int status) {
+        return status < 0 || status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Stops once both exporters were shut down, after waiting up to the export timeout for the spool to
+     * empty; the sender is only interrupted if it is still stuck in a request after that.
+     */
+    private synchronized CompletableResultCode shutdown() {
+        if (shutdownResult != null) {
+            return shutdownResult;
+        }
+        if (--users > 0) {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        final CompletableResultCode drained = flush().join(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        running = false;
+        LockSupport.unpark(sender);
+        try {
+            sender.join(timeout.toMillis());
+            if (sender.isAlive()) {
+                sender.interrupt();
+                sender.join(timeout.toMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CompletableResultCode waiter;
+        while ((waiter = drainWaiters.poll()) != null) {
+            waiter.fail();
+        }
+        if (!drained.isSuccess()) {
+            _logger.warn("Telemetry left in the spool at shutdown, {} bytes will be replayed by the next run",
+                    box(spool.pendingBytes()));
+        }
+        spool.close();
+        shutdownResult = drained.isSuccess() ? CompletableResultCode.ofSuccess() : CompletableResultCode.ofFailure();
+        return shutdownResult;
+    }
+}
@@ -0,0 +1,137 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the startup phases of the API server concurrently, each once the phases it depends on are
+ * done, and keeps how long each one took.
+ * <p>
+ * Durations are recorded in the {@code startup_phase_duration} histogram, labelled by phase, by
+ * {@link #recordMetrics()} once telemetry is set up; until then OpenTelemetry must not be touched.
+ */
+public class StartupOrchestrator {
+    private static final Logger _logger = Logging.getLogger(StartupOrchestrator.class);
+    private static final AttributeKey<String> PHASE = AttributeKey.stringKey("phase");
+
+    /**
+     * A phase body; may throw.
+     */
+    public interface Phase {
+        void run() throws Exception;
+    }
+
+    private final long startedAt = System.nanoTime();
+    private final Map<String, CompletableFuture<Void>> phases = new LinkedHashMap<>();
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+    private final ExecutorService executor;
+
+    public StartupOrchestrator() {
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "startup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts {@code name} once every phase in {@code dependsOn} completed successfully.
+     */
+    public synchronized CompletableFuture<Void> phase(final String name, final Phase body, final String... dependsOn) {
+        final CompletableFuture<?>[] dependencies = new CompletableFuture<?>[dependsOn.length];
+        for (int i = 0; i < dependsOn.length; i++) {
+            dependencies[i] = phases.get(dependsOn[i]);
+            if (dependencies[i] == null) {
+                throw new IllegalArgumentException("Unknown startup phase: " + dependsOn[i]);
+            }
+        }
+
+        final CompletableFuture<Void> future = CompletableFuture.allOf(dependencies)
+                .thenRunAsync(() -> time(name, body), executor);
+        phases.put(name, future);
+        return future;
+    }
+
+    /**
+     * Runs {@code name} on the calling thread.
+     */
+    public void inline(final String name, final Phase body) {
+        time(name, body);
+        synchronized (this) {
+            phases.put(name, CompletableFuture.completedFuture(null));
+        }
+    }
+
+    private void time(final String name, final Phase body) {
+        final long start = System.nanoTime();
+        try {
+            body.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            synchronized (this) {
+                durations.put(name, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Waits for {@code name}, rethrowing its failure.
+     */
+    public void await(final String name) {
+        final CompletableFuture<Void> future;
+        synchronized (this) {
+            future = phases.get(name);
+        }
+        future.join();
+    }
+
+    /**
+     * Waits for every phase started so far, rethrowing the first failure.
+     */
+    public void awaitAll() {
+        final CompletableFuture<?>[] all;
+        synchronized (this) {
+            all = phases.values().toArray(new CompletableFuture<?>[0]);
+        }
+        CompletableFuture.allOf(all).join();
+        executor.shutdown();
+    }
+
+    /**
+     * Records and logs the duration of every finished phase, and the total time since construction.
+     */
+    public synchronized void recordMetrics() {
+        final DoubleHistogram histogram = GlobalOpenTelemetry.getMeter("com.clarifi.phoenix.ashes.server")
+                .histogramBuilder("startup_phase_duration")
+                .setDescription("Time taken by each phase of the API server startup")
+                .setUnit("ms")
+                .build();
+
+        final StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Long> phase : durations.entrySet()) {
+            final double millis = phase.getValue() / 1_000_000d;
+            histogram.record(millis, Attributes.of(PHASE, phase.getKey()));
+            summary.append(phase.getKey()).append('=').append(Math.round(millis)).append("ms, ");
+        }
+        final double total = (System.nanoTime() - startedAt) / 1_000_000d;
+        histogram.record(total, Attributes.of(PHASE, "total"));
+
+        _logger.info("Startup finished [{}total={}ms]", summary, Math.round(total));
+    }
+}
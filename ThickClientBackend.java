@@ -0,0 +1,73 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.phoenix.ashes.task.UpdateDataSessionTimestamp;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteBinary;
+import org.apache.ignite.IgniteCompute;
+
+import java.util.UUID;
+
+/**
+ * The API node is an Ignite client node: it takes part in discovery, holds the partition maps and
+ * runs closures on the servers with peer class loading.
+ */
+public class ThickClientBackend implements DataAccessBackend {
+    private final Ignite ignite;
+    private final DataSessionStore sessionStore;
+    private final DataSessionVersions.Store sessionVersions;
+    private final HedgedReads hedgedReads;
+
+    public ThickClientBackend(final Ignite ignite) {
+        this.ignite = ignite;
+        this.sessionVersions = DataSessionVersions.store(DataSessionVersions.cache(ignite));
+        this.hedgedReads = HedgedReads.fromSystemProperties(ignite);
+        this.sessionStore = DataSessionVersions.versioned(
+                DataSessionStore.fromSystemProperties(ignite, hedgedReads), sessionVersions);
+    }
+
+    @Override
+    public DataSessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    @Override
+    public DataSessionVersions.Store getSessionVersions() {
+        return sessionVersions;
+    }
+
+    @Override
+    public void touch(final String userId, final String sessionId) {
+        if (sessionStore.touch(userId, UUID.fromString(sessionId))) {
+            return;
+        }
+        IgniteCompute compute = IgniteInstrumentation.compute(ignite.compute(ignite.cluster().forServers()));
+        final Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            compute = compute.withTimeout(Math.max(1, deadline.remainingMillis()));
+        }
+        compute.runAsync(new UpdateDataSessionTimestamp(userId, sessionId));
+    }
+
+    @Override
+    public int serverNodes() {
+        return ignite.cluster().forServers().nodes().size();
+    }
+
+    @Override
+    public Ignite getIgnite() {
+        return ignite;
+    }
+
+    @Override
+    public IgniteBinary binary() {
+        return ignite.binary();
+    }
+
+    @Override
+    public void close() {
+        if (hedgedReads != null) {
+            hedgedReads.stop();
+        }
+        ignite.close();
+    }
+}
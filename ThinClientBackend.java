@@ -0,0 +1,150 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteBinary;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.client.ClientCache;
+import org.apache.ignite.client.ClientCacheConfiguration;
+import org.apache.ignite.client.ClientConnectionException;
+import org.apache.ignite.client.IgniteClient;
+import org.apache.ignite.client.ThinClientKubernetesAddressFinder;
+import org.apache.ignite.configuration.ClientConfiguration;
+import org.apache.ignite.configuration.ClientConnectorConfiguration;
+import org.apache.ignite.kubernetes.configuration.KubernetesConnectionConfiguration;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.TouchedExpiryPolicy;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The API node talks to the cluster through the Ignite thin client: it is not a cluster member, so it
+ * holds no partition maps and adding API replicas does not trigger partition map exchange. Partition
+ * awareness sends each key straight to its primary node.
+ * <p>
+ * Servers are found at {@code phoenix.ignite.thin.addresses} (comma-separated {@code host:port} ranges),
+ * or from the Kubernetes service when {@code phoenix.ignite.discovery=kubernetes}. Sessions must use the
+ * {@code partitioned} layout, and {@link DataSessionAccessTimes.IdleFilter} and
+ * {@link DataSessionProjection.OfBinary} have to be deployed on the servers since a thin client cannot ship
+ * classes.
+ */
+public class ThinClientBackend implements DataAccessBackend {
+    private static final Logger _logger = Logging.getLogger(ThinClientBackend.class);
+
+    private final IgniteClient client;
+    private final DataSessionStore sessionStore;
+    private final DataSessionVersions.Store sessionVersions;
+
+    public ThinClientBackend(final IgniteClient client, final int backups) {
+        this.client = client;
+        final ClientCache<DataSessionKey, Long> versions = IgniteInstrumentation.cache(client.getOrCreateCache(
+                new ClientCacheConfiguration()
+                        .setName(DataSessionVersions.CACHE_NAME)
+                        .setCacheMode(CacheMode.PARTITIONED)
+                        .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                        .setBackups(backups)
+                        .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration())
+                        .setExpiryPolicy(new TouchedExpiryPolicy(
+                                new Duration(TimeUnit.MINUTES, DataSessionVersions.ttlMinutes())))));
+        this.sessionVersions = new DataSessionVersions.Store() {
+            @Override
+            public CompletableFuture<Long> getAsync(final DataSessionKey key) {
+                return versions.getAsync(key).toCompletableFuture();
+            }
+
+            @Override
+            public CompletableFuture<Boolean> putIfAbsentAsync(final DataSessionKey key, final Long version) {
+                return versions.putIfAbsentAsync(key, version).toCompletableFuture();
+            }
+
+            @Override
+            public CompletableFuture<Boolean> removeAsync(final DataSessionKey key) {
+                return versions.removeAsync(key).toCompletableFuture();
+            }
+        };
+        this.sessionStore = DataSessionVersions.versioned(new ThinClientDataSessionStore(client, backups), sessionVersions);
+    }
+
+    /**
+     * Connects to the cluster, retrying for up to {@code phoenix.ignite.thin.connectTimeout.millis}
+     * (60s) while no server answers yet.
+     */
+    public static ThinClientBackend fromSystemProperties() throws InterruptedException {
+        final String mode = System.getProperty("phoenix.storage.mode", DataSessionStore.MODE_PER_USER);
+        if (!DataSessionStore.MODE_PARTITIONED.equals(mode)) {
+            throw new IllegalArgumentException("The thin client backend needs phoenix.storage.mode="
+                    + DataSessionStore.MODE_PARTITIONED + ", not " + mode);
+        }
+
+        final ClientConfiguration cfg = new ClientConfiguration()
+                .setPartitionAwarenessEnabled(true)
+                .setTimeout(Integer.getInteger("phoenix.ignite.thin.timeout.millis", 0));
+
+        final String addresses = System.getProperty("phoenix.ignite.thin.addresses");
+        if (addresses == null && "kubernetes".equals(System.getProperty("phoenix.ignite.discovery"))) {
+            final KubernetesConnectionConfiguration k8s = ServerApp.kubernetesConnection();
+            k8s.setDiscoveryPort(Integer.getInteger("phoenix.ignite.thin.port", ClientConnectorConfiguration.DFLT_PORT));
+            cfg.setAddressesFinder(new ThinClientKubernetesAddressFinder(k8s));
+        } else {
+            cfg.setAddresses((addresses == null ? "127.0.0.1:" + ClientConnectorConfiguration.DFLT_PORT : addresses)
+                    .split(","));
+        }
+
+        final long deadline = System.currentTimeMillis()
+                + Long.getLong("phoenix.ignite.thin.connectTimeout.millis", 60_000L);
+        while (true) {
+            try {
+                final IgniteClient client = Ignition.startClient(cfg);
+                _logger.info("Connected the thin client [addresses={}, partitionAwareness=true]",
+                        addresses == null ? "kubernetes" : addresses);
+                return new ThinClientBackend(client, Integer.getInteger("phoenix.storage.backups", 1));
+            } catch (ClientConnectionException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                _logger.info("No server answered the thin client yet, retrying: {}", e.getMessage());
+                Thread.sleep(1_000);
+            }
+        }
+    }
+
+    @Override
+    public DataSessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    @Override
+    public DataSessionVersions.Store getSessionVersions() {
+        return sessionVersions;
+    }
+
+    @Override
+    public void touch(final String userId, final String sessionId) {
+        sessionStore.touch(userId, UUID.fromString(sessionId));
+    }
+
+    @Override
+    public int serverNodes() {
+        return client.cluster().forServers().nodes().size();
+    }
+
+    @Override
+    public Ignite getIgnite() {
+        return null;
+    }
+
+    @Override
+    public IgniteBinary binary() {
+        return client.binary();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
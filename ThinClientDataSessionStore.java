@@ -0,0 +1,140 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.common.util.Logging;
+import com.clarifi.phoenix.ashes.common.PackedDataSession;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.client.ClientCache;
+import org.apache.ignite.client.ClientCacheConfiguration;
+import org.apache.ignite.client.IgniteClient;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@link PartitionedDataSessionStore} layout read and written through the thin client. With
+ * partition awareness each key goes straight to its primary node.
+ * <p>
+ * Only the partitioned layout is supported: the per-user layout creates a cache per user, which a
+ * thin client can only look up with a round trip per request.
+ * <p>
+ * Access times go to {@link DataSessionAccessTimes} as in the thick store. The thin client cannot run
+ * {@link DataSessionAccessTimes.Touch}, so a touch overwrites the access time: of two concurrent touches
+ * the later write wins, which at worst moves an access time back by the gap between them.
+ * <p>
+ * Projections run {@link DataSessionProjection.OfBinary} on the primary node as in the thick store; a thin
+ * client cannot ship it, so it has to be on the servers' class path.
+ */
+public class ThinClientDataSessionStore implements DataSessionStore {
+    private static final Logger _logger = Logging.getLogger(ThinClientDataSessionStore.class);
+    private static final int REMOVE_BATCH_SIZE = 512;
+
+    private final ClientCache<DataSessionKey, PackedDataSession> cache;
+    private final ClientCache<DataSessionKey, Long> accessTimes;
+
+    public ThinClientDataSessionStore(final IgniteClient client, final int backups) {
+        this.cache = IgniteInstrumentation.cache(client.getOrCreateCache(configuration(backups)));
+        this.accessTimes = IgniteInstrumentation.cache(
+                client.getOrCreateCache(DataSessionAccessTimes.clientConfiguration(backups)));
+    }
+
+    public static ClientCacheConfiguration configuration(final int backups) {
+        return new ClientCacheConfiguration()
+                .setName(PartitionedDataSessionStore.CACHE_NAME)
+                .setCacheMode(CacheMode.PARTITIONED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC)
+                .setBackups(backups)
+                .setKeyConfiguration(PartitionedDataSessionStore.keyConfiguration());
+    }
+
+    @Override
+    public boolean hasUser(final String userId) {
+        //-- The thin client cannot tell which partition the user hashes to, and scanning them all would cost
+        //-- more than the early 404 saves; report "maybe" and let the session lookup decide
+        return true;
+    }
+
+    @Override
+    public PackedDataSession get(final String userId, final UUID sessionId) {
+        return Deadline.await(cache.getAsync(new DataSessionKey(userId, sessionId)).toCompletableFuture());
+    }
+
+    @Override
+    public CompletableFuture<PackedDataSession> getAsync(final String userId, final UUID sessionId) {
+        return cache.getAsync(new DataSessionKey(userId, sessionId)).toCompletableFuture();
+    }
+
+    @Override
+    public boolean contains(final String userId, final UUID sessionId) {
+        return Deadline.await(cache.containsKeyAsync(new DataSessionKey(userId, sessionId)).toCompletableFuture());
+    }
+
+    @Override
+    public void put(final String userId, final UUID sessionId, final PackedDataSession session) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        cache.put(key, session);
+        accessTimes.put(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public byte[] project(final String userId, final UUID sessionId, final DataSessionProjection projection) {
+        return Deadline.await(cache.<DataSessionKey, BinaryObject>withKeepBinary()
+                .invokeAsync(new DataSessionKey(userId, sessionId), new DataSessionProjection.OfBinary<>(projection))
+                .toCompletableFuture());
+    }
+
+    @Override
+    public boolean remove(final String userId, final UUID sessionId) {
+        final DataSessionKey key = new DataSessionKey(userId, sessionId);
+        accessTimes.remove(key);
+        return cache.remove(key);
+    }
+
+    @Override
+    public boolean touch(final String userId, final UUID sessionId) {
+        accessTimes.putAsync(new DataSessionKey(userId, sessionId), System.currentTimeMillis());
+        return true;
+    }
+
+    @Override
+    public int evictIdle(final Duration maxIdle) {
+        //-- The filter runs on the server nodes over the access times, so it has to be on their class path
+        final ScanQuery<DataSessionKey, Long> query =
+                new ScanQuery<>(new DataSessionAccessTimes.IdleFilter(maxIdle.toMillis()));
+
+        int evicted = 0;
+        final Set<DataSessionKey> batch = new HashSet<>();
+        try (QueryCursor<Cache.Entry<DataSessionKey, Long>> cursor = accessTimes.query(query)) {
+            for (Cache.Entry<DataSessionKey, Long> entry : cursor) {
+                batch.add(entry.getKey());
+                if (batch.size() == REMOVE_BATCH_SIZE) {
+                    evicted += batch.size();
+                    removeAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            evicted += batch.size();
+            removeAll(batch);
+        }
+
+        if (evicted > 0) {
+            _logger.info("Evicted {} idle data sessions from '{}'", evicted, PartitionedDataSessionStore.CACHE_NAME);
+        }
+        return evicted;
+    }
+
+    private void removeAll(final Set<DataSessionKey> keys) {
+        cache.removeAll(keys);
+        accessTimes.removeAll(keys);
+    }
+}
@@ -0,0 +1,100 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 32 request threads ending sampled spans, the cost a request pays to hand its span to the export
+ * pipeline. {@code ring} is {@link RingBufferSpanProcessor}, {@code batch} the SDK's {@link BatchSpanProcessor},
+ * both with the SDK's default capacity, batch size and delay, in front of an exporter that discards batches.
+ * Run with the {@code gc} profiler (the default of the {@code jmh} task) for the allocation per span.
+ * A processor that drops spans looks cheaper than it is, so the trial fails if any ended span was not
+ * exported by the time the tracer provider shut down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpanProcessorBenchmark {
+    @Param({"ring", "batch"})
+    public String processor;
+
+    private SdkTracerProvider tracerProvider;
+    private Tracer tracer;
+    private final LongAdder ended = new LongAdder();
+    private final LongAdder exported = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        final SpanExporter exporter = new SpanExporter() {
+            @Override
+            public CompletableResultCode export(final Collection<SpanData> spans) {
+                exported.add(spans.size());
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return CompletableResultCode.ofSuccess();
+            }
+        };
+        final SpanProcessor spanProcessor = "batch".equals(processor)
+                ? BatchSpanProcessor.builder(exporter)
+                        .setMaxQueueSize(8192)
+                        .setMaxExportBatchSize(512)
+                        .setScheduleDelay(Duration.ofMillis(1_000))
+                        .build()
+                : new RingBufferSpanProcessor(exporter, 8192, 512, 1_000, 30_000);
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(spanProcessor)
+                .build();
+        tracer = tracerProvider.get("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+        if (exported.sum() != ended.sum()) {
+            throw new IllegalStateException(processor + " exported " + exported.sum() + " of " + ended.sum()
+                    + " ended spans");
+        }
+    }
+
+    @Benchmark
+    public void endSpan() {
+        tracer.spanBuilder("request").startSpan().end();
+        //-- Striped per thread, the same small cost for both processors
+        ended.increment();
+    }
+}
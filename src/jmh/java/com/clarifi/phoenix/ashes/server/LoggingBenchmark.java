@@ -0,0 +1,101 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares what a response thread pays for its per-request log line: the old {@code System.out.printf} of the
+ * whole session against the parameterized async log4j2 summary that replaced it. Both run on 16 threads, so
+ * the stdout variant shows the {@code PrintStream} lock serializing them; stdout goes to a discarding stream,
+ * and log4j2 writes to a file through {@code log4j2-bench.xml}, so neither measures the terminal.
+ * <p>
+ * The async logger runs with log4j2's {@code Default} queue-full policy, which makes the caller wait for room, not
+ * the {@code Discard} policy of {@code log4j2.component.properties}: under {@code Discard}, events that did
+ * not fit would be dropped almost for free, and ns/op would not count the writer falling behind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(16)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dlog4j2.contextSelector=org.apache.logging.log4j.core.async.AsyncLoggerContextSelector",
+        "-Dlog4j.configurationFile=log4j2-bench.xml",
+        "-Dlog4j2.asyncQueueFullPolicy=Default",
+        "-Dlog4j2.enableThreadlocals=true",
+        "-Dlog4j2.enableDirectEncoders=true"})
+public class LoggingBenchmark {
+    private static final Logger _logger = LogManager.getLogger(LoggingBenchmark.class);
+
+    private PrintStream stdout;
+    private FakeSession session;
+
+    @Setup
+    public void setUp() {
+        stdout = new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        }, true);
+        session = new FakeSession(UUID.randomUUID(), "user-42", 2_000);
+    }
+
+    @Benchmark
+    public void stdoutPrintf() {
+        stdout.printf("{Thread:%s} Data session sent: %s.\n", Thread.currentThread().getName(), session);
+    }
+
+    @Benchmark
+    public void asyncSummary() {
+        _logger.info("Data session sent [sessionId={}, userId={}, bytes={}, latencyMs={}]",
+                session.id, session.userId, Unbox.box(session.bytes), Unbox.box(3L));
+    }
+
+    /**
+     * Stands in for a data session whose {@code toString()} dumps every value, as the old log line did.
+     */
+    private static final class FakeSession {
+        final UUID id;
+        final String userId;
+        final double[] values;
+        final int bytes;
+
+        FakeSession(final UUID id, final String userId, final int size) {
+            this.id = id;
+            this.userId = userId;
+            this.values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = i * 1.5;
+            }
+            this.bytes = size * Double.BYTES;
+        }
+
+        @Override
+        public String toString() {
+            return "DataSession{id=" + id + ", userId=" + userId + ", values=" + Arrays.toString(values) + '}';
+        }
+    }
+}
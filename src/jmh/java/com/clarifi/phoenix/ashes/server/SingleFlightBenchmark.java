@@ -0,0 +1,73 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 32 request threads reading {@code keys} hot sessions, each read a simulated cache fetch plus serialization on
+ * a pool of four loaders, as the GET handler runs it on a user's dispatch queue. {@code coalesced} goes through
+ * {@link SingleFlight} like the handler; {@code direct} loads once per request, as before coalescing. With few
+ * keys, coalescing should raise throughput by about the number of requests waiting per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SingleFlightBenchmark {
+    @Param({"1", "16", "1024"})
+    public int keys;
+
+    @Param({"20000"})
+    public long loadTokens;
+
+    private SingleFlight<Integer, byte[]> flight;
+    private ExecutorService loaders;
+
+    @Setup
+    public void setUp() {
+        flight = new SingleFlight<>();
+        loaders = Executors.newFixedThreadPool(4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        loaders.shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] coalesced() {
+        final int key = ThreadLocalRandom.current().nextInt(keys);
+        return flight.execute(key, () -> CompletableFuture.supplyAsync(this::load, loaders)).join();
+    }
+
+    @Benchmark
+    public byte[] direct() {
+        return CompletableFuture.supplyAsync(this::load, loaders).join();
+    }
+
+    private byte[] load() {
+        Blackhole.consumeCPU(loadTokens);
+        return new byte[64 * 1024];
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ignite.spi.tracing.opencensus;
+
+import io.opencensus.trace.SpanContext;
+import io.opencensus.trace.Tracing;
+import io.opencensus.trace.propagation.BinaryFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fan-out operation as seen by {@link OpenCensusTracingSpi}: the sender serializes one span once per
+ * message, and receivers parse the contexts of {@code parents} spans in flight, each message carrying its
+ * own copy of the bytes. {@code serialize} and {@code parse} go through the SPI; {@code serializeDirect} and
+ * {@code parseDirect} call the binary format every time, as before the context was reused. With
+ * {@code cacheSize=0} the SPI parses every context too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpanContextBenchmark {
+    /** */
+    @Param({"0", "256"})
+    public int cacheSize;
+
+    /** */
+    @Param({"1", "64"})
+    public int parents;
+
+    /** */
+    private OpenCensusTracingSpi spi;
+
+    /** */
+    private BinaryFormat format;
+
+    /** */
+    private OpenCensusSpanAdapter span;
+
+    /** */
+    private byte[][] msgs;
+
+    /** */
+    @Setup
+    public void setUp() {
+        spi = new OpenCensusTracingSpi().setRemoteContextCacheSize(cacheSize);
+
+        spi.spiStart("benchmark");
+
+        format = Tracing.getPropagationComponent().getBinaryFormat();
+
+        span = spi.create("parent", (OpenCensusSpanAdapter)null);
+
+        msgs = new byte[parents][];
+
+        for (int i = 0; i < parents; i++) {
+            OpenCensusSpanAdapter parent = spi.create("parent-" + i, (OpenCensusSpanAdapter)null);
+
+            msgs[i] = spi.serialize(parent);
+
+            parent.end();
+        }
+    }
+
+    /** */
+    @TearDown
+    public void tearDown() {
+        span.end();
+
+        spi.spiStop();
+    }
+
+    /** */
+    @Benchmark
+    public byte[] serialize() {
+        return spi.serialize(span);
+    }
+
+    /** */
+    @Benchmark
+    public byte[] serializeDirect() {
+        return format.toByteArray(span.impl().getContext());
+    }
+
+    /** */
+    @Benchmark
+    public SpanContext parse() throws Exception {
+        return spi.remoteContext(msg());
+    }
+
+    /** */
+    @Benchmark
+    public SpanContext parseDirect() throws Exception {
+        return format.fromByteArray(msg());
+    }
+
+    /** @return Copy of the bytes of a random parent, as a received message holds them. */
+    private byte[] msg() {
+        return msgs[ThreadLocalRandom.current().nextInt(parents)].clone();
+    }
+}
@@ -0,0 +1,46 @@
+package com.clarifi.phoenix.ashes.loadgen;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LoadGeneratorTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadSkipsWritesWithoutABodyAndLinesThatAreNotRequests() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("capture.jsonl");
+        Files.write(file, Arrays.asList(
+                "{\"method\":\"GET\",\"route\":\"/data-session/get/{sessionId}\",\"path\":\"/api2/data-session/get/s1\"}",
+                "{\"method\":\"PUT\",\"path\":\"/api2/data-session/put/s1\"}",
+                "{\"method\":\"POST\",\"path\":\"/api2/data-session/post/s1\",\"body\":\"{}\"}",
+                "",
+                "{\"note\":\"not a request\"}",
+                "not json"), StandardCharsets.UTF_8);
+
+        final List<CapturedRequest> requests = LoadGenerator.load(file);
+        assertEquals(2, requests.size());
+        assertEquals("GET", requests.get(0).getMethod());
+        assertEquals("/data-session/get/{sessionId}", requests.get(0).getRoute());
+        assertEquals("POST", requests.get(1).getMethod());
+        assertEquals("{}", requests.get(1).getBody());
+    }
+
+    @Test
+    public void routeFallsBackToThePathWithoutItsQuery() {
+        final CapturedRequest request = CapturedRequest.parse("{\"method\":\"GET\",\"path\":\"/api2/x?userId=u1\"}");
+        assertEquals("/api2/x", request.getRoute());
+        assertNull(CapturedRequest.parse("{\"path\":\"/api2/x\"}"));
+    }
+}
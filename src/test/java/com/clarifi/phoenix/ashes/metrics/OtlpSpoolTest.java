@@ -0,0 +1,199 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OtlpSpoolTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBatchesInOrderUntilCommitted() throws IOException {
+        final OtlpSpool spool = new OtlpSpool(folder.getRoot().toPath(), 4096, 4);
+        try {
+            assertTrue(spool.isEmpty());
+            spool.append((byte) 1, bytes("first"));
+            spool.append((byte) 2, bytes("second"));
+
+            final OtlpSpool.Record first = spool.peek();
+            assertEquals(1, first.getSignal());
+            assertArrayEquals(bytes("first"), first.getPayload());
+            //-- Not committed yet, so it is read again
+            assertArrayEquals(bytes("first"), spool.peek().getPayload());
+
+            spool.commit(first);
+            final OtlpSpool.Record second = spool.peek();
+            assertEquals(2, second.getSignal());
+            assertArrayEquals(bytes("second"), second.getPayload());
+
+            spool.commit(second);
+            assertNull(spool.peek());
+            assertTrue(spool.isEmpty());
+            assertEquals(0, spool.pendingBytes());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void reopenedSpoolReplaysWhatWasNotCommitted() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final OtlpSpool spool = new OtlpSpool(directory, 4096, 4);
+        spool.append((byte) 1, bytes("delivered"));
+        spool.append((byte) 1, bytes("pending"));
+        spool.commit(spool.peek());
+        spool.close();
+
+        final OtlpSpool reopened = new OtlpSpool(directory, 4096, 4);
+        try {
+            assertArrayEquals(bytes("pending"), reopened.peek().getPayload());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void tornRecordEndsTheSegment() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final OtlpSpool spool = new OtlpSpool(directory, 4096, 4);
+        spool.append((byte) 1, bytes("intact"));
+        spool.append((byte) 1, bytes("torn"));
+        spool.close();
+
+        //-- Corrupt the payload of the second record: header (8), first record (9 + 6), second header (9)
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("%020d.seg", 0)),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes("X")), 8 + 9 + 6 + 9);
+        }
+
+        final OtlpSpool reopened = new OtlpSpool(directory, 4096, 4);
+        try {
+            final OtlpSpool.Record first = reopened.peek();
+            assertArrayEquals(bytes("intact"), first.getPayload());
+            reopened.commit(first);
+            assertNull(reopened.peek());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void corruptRecordIsNotDelivered() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final OtlpSpool spool = new OtlpSpool(directory, 4096, 4);
+        try {
+            spool.append((byte) 1, bytes("intact"));
+            spool.append((byte) 1, bytes("corrupt"));
+
+            //-- Written through the file, seen through the mapping
+            try (FileChannel channel = FileChannel.open(directory.resolve(String.format("%020d.seg", 0)),
+                    StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(bytes("X")), 8 + 9 + 6 + 9);
+            }
+
+            spool.commit(spool.peek());
+            assertNull(spool.peek());
+            assertTrue(spool.isEmpty());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void emptyBatchesAreNotSpooled() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final OtlpSpool spool = new OtlpSpool(directory, 4096, 4);
+        assertEquals(0, spool.append((byte) 1, new byte[0]));
+        spool.append((byte) 1, bytes("after"));
+        assertFalse(spool.isEmpty());
+        spool.close();
+
+        //-- A zero length would have ended the segment on reopen
+        final OtlpSpool reopened = new OtlpSpool(directory, 4096, 4);
+        try {
+            assertArrayEquals(bytes("after"), reopened.peek().getPayload());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void dropsTheOldestSegmentWhenFull() throws IOException {
+        //-- 64-byte segments hold one 30-byte record each
+        final OtlpSpool spool = new OtlpSpool(folder.getRoot().toPath(), 64, 2);
+        try {
+            assertEquals(0, spool.append((byte) 1, payload(30, 'a')));
+            assertEquals(0, spool.append((byte) 1, payload(30, 'b')));
+            assertEquals(1, spool.append((byte) 1, payload(30, 'c')));
+
+            assertArrayEquals(payload(30, 'b'), spool.peek().getPayload());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void refusesPayloadsLargerThanASegment() throws IOException {
+        final OtlpSpool spool = new OtlpSpool(folder.getRoot().toPath(), 64, 2);
+        try {
+            assertEquals(-1, spool.append((byte) 1, payload(spool.maxPayload() + 1, 'x')));
+            assertTrue(spool.isEmpty());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void aDirectoryIsHeldByOneSpoolAtATime() throws IOException {
+        final Path parent = folder.getRoot().toPath();
+        final OtlpSpool first = OtlpSpool.claim(parent, 4096, 4);
+        final OtlpSpool second = OtlpSpool.claim(parent, 4096, 4);
+        try {
+            assertEquals(parent.resolve("0"), first.getDirectory());
+            assertEquals(parent.resolve("1"), second.getDirectory());
+            try {
+                new OtlpSpool(parent.resolve("0"), 4096, 4);
+                fail("the directory is held by the first spool");
+            } catch (OtlpSpool.SpoolInUseException expected) {
+                //-- expected
+            }
+        } finally {
+            second.close();
+            first.close();
+        }
+
+        //-- Released on close, so a restarted process gets its old directory back
+        final OtlpSpool again = OtlpSpool.claim(parent, 4096, 4);
+        try {
+            assertEquals(parent.resolve("0"), again.getDirectory());
+        } finally {
+            again.close();
+        }
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] payload(final int length, final char fill) {
+        final byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) fill);
+        return payload;
+    }
+}
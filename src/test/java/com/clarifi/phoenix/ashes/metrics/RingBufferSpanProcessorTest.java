@@ -0,0 +1,165 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferSpanProcessorTest {
+    @Test
+    public void flushExportsEveryEndedSpanInBatches() {
+        final RecordingExporter exporter = new RecordingExporter();
+        final RingBufferSpanProcessor processor = new RingBufferSpanProcessor(exporter, 1024, 4, 60_000, 5_000);
+        final SdkTracerProvider provider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        try {
+            endSpans(provider.get("test"), 10);
+
+            assertTrue(processor.forceFlush().join(5, TimeUnit.SECONDS).isSuccess());
+            assertEquals(10, exporter.spans.size());
+            for (Integer size : exporter.batchSizes) {
+                assertTrue("batch of " + size, size <= 4);
+            }
+        } finally {
+            provider.shutdown().join(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void aLateFlushWaitsForSpansEndedAfterTheFlushUnderWay() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingExporter exporter = new RecordingExporter() {
+            @Override
+            public CompletableResultCode export(final Collection<SpanData> batch) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.export(batch);
+            }
+        };
+        final RingBufferSpanProcessor processor = new RingBufferSpanProcessor(exporter, 1024, 512, 60_000, 5_000);
+        final SdkTracerProvider provider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        try {
+            endSpans(provider.get("test"), 3);
+            final CompletableResultCode first = processor.forceFlush();
+            //-- Let the worker take the first flush and block in its export
+            Thread.sleep(200);
+
+            endSpans(provider.get("test"), 2);
+            final CompletableResultCode second = processor.forceFlush();
+            assertNotSame(first, second);
+
+            release.countDown();
+            assertTrue(second.join(5, TimeUnit.SECONDS).isSuccess());
+            assertEquals(5, exporter.spans.size());
+        } finally {
+            release.countDown();
+            provider.shutdown().join(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void flushFailsWhenAnExportFails() {
+        final RecordingExporter exporter = new RecordingExporter() {
+            @Override
+            public CompletableResultCode export(final Collection<SpanData> batch) {
+                return CompletableResultCode.ofFailure();
+            }
+        };
+        final RingBufferSpanProcessor processor = new RingBufferSpanProcessor(exporter, 1024, 4, 60_000, 5_000);
+        final SdkTracerProvider provider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        try {
+            endSpans(provider.get("test"), 3);
+
+            assertFalse(processor.forceFlush().join(5, TimeUnit.SECONDS).isSuccess());
+        } finally {
+            provider.shutdown().join(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void unsampledSpansAreNotExported() {
+        final RecordingExporter exporter = new RecordingExporter();
+        final RingBufferSpanProcessor processor = new RingBufferSpanProcessor(exporter, 1024, 4, 60_000, 5_000);
+        final SdkTracerProvider provider = SdkTracerProvider.builder()
+                .setSampler(Sampler.alwaysOff())
+                .addSpanProcessor(processor)
+                .build();
+        try {
+            endSpans(provider.get("test"), 10);
+
+            processor.forceFlush().join(5, TimeUnit.SECONDS);
+            assertTrue(exporter.spans.isEmpty());
+        } finally {
+            provider.shutdown().join(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shutdownExportsWhatIsQueuedAndShutsTheExporterDownOnce() {
+        final RecordingExporter exporter = new RecordingExporter();
+        final RingBufferSpanProcessor processor = new RingBufferSpanProcessor(exporter, 1024, 512, 60_000, 5_000);
+        final SdkTracerProvider provider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        final Tracer tracer = provider.get("test");
+        endSpans(tracer, 3);
+
+        final CompletableResultCode first = processor.shutdown();
+        final CompletableResultCode second = processor.shutdown();
+        assertSame(first, second);
+        assertTrue(first.join(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(3, exporter.spans.size());
+        assertEquals(1, exporter.shutdowns.get());
+
+        //-- Ended after shutdown: dropped, not exported
+        endSpans(tracer, 1);
+        assertEquals(3, exporter.spans.size());
+    }
+
+    private static void endSpans(final Tracer tracer, final int count) {
+        for (int i = 0; i < count; i++) {
+            tracer.spanBuilder("span-" + i).startSpan().end();
+        }
+    }
+
+    private static class RecordingExporter implements SpanExporter {
+        final List<SpanData> spans = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger shutdowns = new AtomicInteger();
+
+        @Override
+        public CompletableResultCode export(final Collection<SpanData> batch) {
+            batchSizes.add(batch.size());
+            spans.addAll(batch);
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            shutdowns.incrementAndGet();
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+}
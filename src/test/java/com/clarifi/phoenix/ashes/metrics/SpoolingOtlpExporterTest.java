@@ -0,0 +1,144 @@
+package com.clarifi.phoenix.ashes.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the exporter against a fake collector that answers OTLP/HTTP posts.
+ */
+public class SpoolingOtlpExporterTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger unavailable = new AtomicInteger();
+    private HttpServer collector;
+    private OtlpSpool spool;
+    private SpoolingOtlpExporter exporter;
+    private SdkTracerProvider tracerProvider;
+
+    @Before
+    public void setUp() throws IOException {
+        collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/v1/traces", this::receive);
+        collector.start();
+
+        spool = new OtlpSpool(folder.getRoot().toPath(), 1 << 20, 4);
+        exporter = new SpoolingOtlpExporter("http://127.0.0.1:" + collector.getAddress().getPort(),
+                Duration.ofSeconds(2), spool);
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter.spanExporter()))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        tracerProvider.shutdown().join(5, TimeUnit.SECONDS);
+        collector.stop(0);
+    }
+
+    @Test
+    public void deliversEveryBatchInOrder() throws InterruptedException {
+        endSpans("a", "b", "c");
+
+        awaitReceived(3);
+        assertEquals(Arrays.asList("a", "b", "c"), received);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void keepsOrderWhileTheCollectorIsUnavailable() throws InterruptedException {
+        unavailable.set(2);
+        endSpans("a", "b", "c");
+
+        awaitReceived(3);
+        assertEquals(Arrays.asList("a", "b", "c"), received);
+    }
+
+    @Test
+    public void spoolsOnlyTheBatchesThatFailed() throws InterruptedException {
+        endSpans("a");
+        awaitReceived(1);
+        assertEquals(0, spool.pendingBytes());
+
+        unavailable.set(1);
+        endSpans("b");
+        //-- Completes only once the spooled batch was replayed
+        assertTrue(tracerProvider.forceFlush().join(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(Arrays.asList("a", "b"), received);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void discardsBatchesTheCollectorRejects() throws InterruptedException {
+        endSpans("a", "rejected", "c");
+
+        awaitReceived(2);
+        assertEquals(Arrays.asList("a", "c"), received);
+    }
+
+    private void endSpans(final String... names) {
+        final Tracer tracer = tracerProvider.get("test");
+        for (String name : names) {
+            tracer.spanBuilder(name).startSpan().end();
+        }
+    }
+
+    private void awaitReceived(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        //-- Give a duplicate or an out-of-order batch the chance to show up
+        Thread.sleep(200);
+    }
+
+    private void receive(final HttpExchange exchange) throws IOException {
+        final ExportTraceServiceRequest request = ExportTraceServiceRequest.parseFrom(exchange.getRequestBody());
+        final List<String> names = new ArrayList<>();
+        for (ResourceSpans resourceSpans : request.getResourceSpansList()) {
+            for (ScopeSpans scopeSpans : resourceSpans.getScopeSpansList()) {
+                for (Span span : scopeSpans.getSpansList()) {
+                    names.add(span.getName());
+                }
+            }
+        }
+
+        final int status;
+        if (unavailable.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            status = 503;
+        } else if (names.contains("rejected")) {
+            status = 400;
+        } else {
+            received.addAll(names);
+            status = 200;
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
@@ -0,0 +1,171 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteBinary;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.binary.BinaryObjectBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encodes binary objects built on one in-process node, so no session class is needed.
+ */
+public class ColumnarSessionCodecTest {
+    private static final UUID ID = UUID.fromString("1b4e28ba-2fa1-11d2-883f-0016d3cca427");
+    private static final Timestamp CREATED = Timestamp.valueOf("2024-03-01 12:30:45.123456789");
+
+    private static Path workDir;
+    private static Ignite ignite;
+    private static IgniteBinary binary;
+
+    @BeforeClass
+    public static void startNode() throws IOException {
+        workDir = Files.createTempDirectory("codec-test");
+        ignite = Ignition.start(LocalClusterHarness.serverConfiguration(0, 1, workDir));
+        binary = ignite.binary();
+
+        final Map<String, Integer> kinds = new LinkedHashMap<>();
+        kinds.put("ALPHA", 0);
+        kinds.put("BETA", 1);
+        binary.registerEnum("TestKind", kinds);
+    }
+
+    @AfterClass
+    public static void stopNode() throws IOException {
+        if (ignite != null) {
+            ignite.close();
+        }
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void roundTripsEveryColumnWithEachCompression() {
+        for (ColumnarSessionCodec.Compression compression : ColumnarSessionCodec.Compression.values()) {
+            final BinaryObject session = session(1_000);
+            final ColumnarSessionCodec codec = new ColumnarSessionCodec(binary, compression, 64, 3);
+            final byte[] record = ColumnarSessionCodec.encode(session, 42L, session.type().fieldNames(),
+                    compression, 64, 3);
+
+            assertEquals(42L, ColumnarSessionCodec.lastAccessedAt(record));
+            if (compression != ColumnarSessionCodec.Compression.NONE) {
+                assertTrue(record.length < ColumnarSessionCodec.uncompressedLength(record));
+            }
+
+            final BinaryObject decoded = codec.decodeBinary(record);
+            assertEquals("TestSession", decoded.type().typeName());
+            assertArrayEquals(session.<long[]>field("dates"), decoded.field("dates"));
+            assertArrayEquals(session.<long[]>field("dataItems"), decoded.field("dataItems"));
+            assertArrayEquals(session.<double[]>field("values"), decoded.field("values"), 0.0);
+            assertArrayEquals(session.<int[]>field("flags"), decoded.field("flags"));
+            assertEquals("name", decoded.field("name"));
+            assertEquals(ID, decoded.field("id"));
+            assertEquals(CREATED, decoded.field("created"));
+            assertEquals(new BigDecimal("12.345"), decoded.field("price"));
+            assertEquals(Arrays.asList("a", "b"), decoded.field("tags"));
+            assertEquals(1, decoded.<BinaryObject>field("kind").enumOrdinal());
+            assertEquals("owner", decoded.<BinaryObject>field("owner").field("login"));
+            assertNull(decoded.field("missing"));
+        }
+    }
+
+    @Test
+    public void projectionKeepsTheFieldsAndRowsAskedFor() {
+        final BinaryObject session = session(10);
+        final ColumnarSessionCodec codec = new ColumnarSessionCodec(binary, ColumnarSessionCodec.Compression.LZ4, 0, 3);
+        final byte[] record = ColumnarSessionCodec.encode(session, 42L, session.type().fieldNames(),
+                ColumnarSessionCodec.Compression.LZ4, 0, 3);
+
+        final DataSessionProjection projection = new DataSessionProjection(
+                new LinkedHashSet<>(Arrays.asList("dates", "values", "flags", "name")), null, 3, 5,
+                null, "dates", Collections.singleton("values"));
+        final BinaryObject projected = codec.decodeBinary(ColumnarSessionCodec.project(record, projection));
+
+        assertEquals(new HashSet<>(Arrays.asList("dates", "values", "flags", "name")),
+                new HashSet<>(projected.type().fieldNames()));
+        assertArrayEquals(new long[] {3, 4, 5}, projected.field("dates"));
+        assertArrayEquals(new double[] {0.5 * 3, 0.5 * 4, 0.5 * 5}, projected.field("values"), 0.0);
+        //-- As long as the date column, but not a row column
+        assertArrayEquals(session.<int[]>field("flags"), projected.field("flags"));
+        assertFalse(projected.hasField("dataItems"));
+    }
+
+    @Test
+    public void projectedJsonIsLocaleIndependent() throws IOException {
+        final BinaryObject session = session(3);
+        final byte[] record = ColumnarSessionCodec.encode(session, 42L, session.type().fieldNames(),
+                ColumnarSessionCodec.Compression.NONE, 0, 0);
+
+        final StringWriter text = new StringWriter();
+        try (JsonWriter json = new JsonWriter(text)) {
+            ColumnarSessionCodec.writeJson(record, json);
+        }
+        final JsonObject object = JsonParser.parseString(text.toString()).getAsJsonObject();
+
+        assertEquals("BETA", object.get("kind").getAsString());
+        assertEquals(CREATED.toInstant().toString(), object.get("created").getAsString());
+        assertEquals(ID.toString(), object.get("id").getAsString());
+        assertEquals("owner", object.getAsJsonObject("owner").get("login").getAsString());
+        assertEquals(3, object.getAsJsonArray("dates").size());
+        assertEquals(2L, object.getAsJsonArray("dates").get(2).getAsLong());
+    }
+
+    private static BinaryObject session(final int rows) {
+        final long[] dates = new long[rows];
+        final long[] dataItems = new long[rows];
+        final double[] values = new double[rows];
+        final int[] flags = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            dates[i] = i;
+            dataItems[i] = 100 + i % 7;
+            values[i] = 0.5 * i;
+            flags[i] = i % 2;
+        }
+
+        final BinaryObjectBuilder owner = binary.builder("TestOwner");
+        owner.setField("login", "owner");
+
+        final BinaryObjectBuilder builder = binary.builder("TestSession");
+        builder.setField("dates", dates);
+        builder.setField("dataItems", dataItems);
+        builder.setField("values", values);
+        builder.setField("flags", flags);
+        builder.setField("name", "name");
+        builder.setField("id", ID);
+        builder.setField("created", CREATED);
+        builder.setField("price", new BigDecimal("12.345"));
+        builder.setField("tags", Arrays.asList("a", "b"));
+        builder.setField("kind", binary.buildEnum("TestKind", "BETA"));
+        builder.setField("owner", owner.build());
+        return builder.build();
+    }
+}
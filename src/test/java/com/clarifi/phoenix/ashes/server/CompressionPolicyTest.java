@@ -0,0 +1,75 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * zstd is refused in every header that does not test it, so the outcome does not depend on zstd-jni
+ * being on the test class path.
+ */
+public class CompressionPolicyTest {
+    private final CompressionPolicy policy = new CompressionPolicy(0, 1, 1024);
+
+    @Test
+    public void noHeaderMeansIdentity() {
+        assertNull(policy.negotiate(new HttpServerExchange(null)));
+    }
+
+    @Test
+    public void highestQualityWins() {
+        assertEquals(CompressionPolicy.DEFLATE, negotiate("zstd;q=0, gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(CompressionPolicy.GZIP, negotiate("zstd;q=0, gzip;q=0.9, deflate;q=0.8"));
+    }
+
+    @Test
+    public void tiesGoToGzipBeforeDeflate() {
+        assertEquals(CompressionPolicy.GZIP, negotiate("zstd;q=0, deflate, gzip"));
+    }
+
+    @Test
+    public void zeroQualityRefuses() {
+        assertNull(negotiate("zstd;q=0, gzip;q=0, deflate;q=0.000"));
+    }
+
+    @Test
+    public void preferredIdentityWins() {
+        assertNull(negotiate("zstd;q=0, gzip;q=0.5, identity"));
+        assertEquals(CompressionPolicy.GZIP, negotiate("zstd;q=0, gzip, identity;q=0.5"));
+    }
+
+    @Test
+    public void wildcardStandsInForCodingsNotNamed() {
+        assertEquals(CompressionPolicy.DEFLATE, negotiate("zstd;q=0, gzip;q=0, *;q=0.3"));
+        assertNull(negotiate("*;q=0"));
+    }
+
+    @Test
+    public void malformedOrOutOfRangeQualityRefuses() {
+        assertEquals(CompressionPolicy.DEFLATE, negotiate("zstd;q=0, gzip;q=abc, deflate;q=0.1"));
+        assertEquals(CompressionPolicy.DEFLATE, negotiate("zstd;q=0, gzip;q=2, deflate;q=0.1"));
+        assertEquals(CompressionPolicy.DEFLATE, negotiate("zstd;q=0, gzip;q=-1, deflate;q=0.1"));
+    }
+
+    @Test
+    public void codingsAndParametersAreCaseAndSpaceInsensitive() {
+        assertEquals(CompressionPolicy.GZIP, negotiate(" ZSTD ; Q=0 ,  GZIP ; level=1 ; Q=0.9 , deflate;q=0.5"));
+    }
+
+    @Test
+    public void everyHeaderLineCounts() {
+        final HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.getRequestHeaders().add(Headers.ACCEPT_ENCODING, "zstd;q=0, gzip;q=0.2");
+        exchange.getRequestHeaders().add(Headers.ACCEPT_ENCODING, "deflate;q=0.4");
+        assertEquals(CompressionPolicy.DEFLATE, policy.negotiate(exchange));
+    }
+
+    private String negotiate(final String acceptEncoding) {
+        final HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.getRequestHeaders().add(Headers.ACCEPT_ENCODING, acceptEncoding);
+        return policy.negotiate(exchange);
+    }
+}
@@ -0,0 +1,84 @@
+package com.clarifi.phoenix.ashes.server;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+    @Test
+    public void isCarriedInTheContext() {
+        final Deadline deadline = Deadline.after(1_000, "test");
+        assertNull(Deadline.current());
+        try (Scope scope = deadline.storeIn(Context.current()).makeCurrent()) {
+            assertSame(deadline, Deadline.current());
+            assertSame(deadline, Deadline.of(Context.current()));
+        }
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void countsDown() throws InterruptedException {
+        final Deadline deadline = Deadline.after(50, "test");
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remainingMillis() <= 50);
+        Thread.sleep(60);
+        assertTrue(deadline.isExpired());
+    }
+
+    @Test
+    public void shedsExpiredRequests() {
+        try (Scope scope = Deadline.after(0, "test").storeIn(Context.current()).makeCurrent()) {
+            Deadline.checkNotExpired();
+            fail("An expired request should be shed");
+        } catch (Deadline.ExceededException expected) {
+            //-- Shed before any work
+        }
+    }
+
+    @Test
+    public void awaitReturnsInTime() {
+        try (Scope scope = Deadline.after(1_000, "test").storeIn(Context.current()).makeCurrent()) {
+            assertEquals("done", Deadline.await(CompletableFuture.completedFuture("done")));
+        }
+    }
+
+    @Test
+    public void awaitGivesUpAtTheDeadline() {
+        final CompletableFuture<String> never = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        try (Scope scope = Deadline.after(50, "test").storeIn(Context.current()).makeCurrent()) {
+            Deadline.await(never);
+            fail("The wait should have expired");
+        } catch (Deadline.ExceededException expected) {
+            assertTrue(never.isCancelled());
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        }
+    }
+
+    @Test
+    public void awaitWithoutADeadlineWaitsForTheResult() {
+        assertEquals("done", Deadline.await(CompletableFuture.completedFuture("done")));
+    }
+
+    @Test
+    public void awaitRethrowsTheFailure() {
+        final CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("boom"));
+        try (Scope scope = Deadline.after(1_000, "test").storeIn(Context.current()).makeCurrent()) {
+            Deadline.await(failed);
+            fail("The failure should surface");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
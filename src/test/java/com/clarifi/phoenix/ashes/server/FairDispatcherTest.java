@@ -0,0 +1,92 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FairDispatcherTest {
+    private FairDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void runsOneUsersTasksInParallel() throws InterruptedException {
+        dispatcher = new FairDispatcher("test", 4, 32, 1, 2, 100, Collections.emptySet());
+        final Executor executor = dispatcher.executorFor("alice");
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        for (int i = 0; i < 2; i++) {
+            executor.execute(() -> {
+                bothStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertTrue("Two of alice's tasks should run at once", bothStarted.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void rejectsWhenAUsersQueueIsFull() throws InterruptedException {
+        dispatcher = new FairDispatcher("test", 1, 1, 1, 1, 100, Collections.emptySet());
+        final Executor executor = dispatcher.executorFor("alice");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        try {
+            executor.execute(() -> { });
+            fail("The second queued task should not fit");
+        } catch (RejectedExecutionException expected) {
+            //-- Queue capacity is one
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void dropsIdleQueuesAndRunsEveryTask() throws InterruptedException {
+        dispatcher = new FairDispatcher("test", 2, 32, 1, 2, 100, Collections.emptySet());
+        final CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            dispatcher.executorFor("user-" + (i % 10)).execute(done::countDown);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        //-- Workers may still be leaving the queues they just emptied
+        int evicted = 0;
+        for (int attempt = 0; attempt < 50 && evicted < 10; attempt++) {
+            evicted += dispatcher.evictIdle();
+            Thread.sleep(10);
+        }
+        assertEquals(10, evicted);
+    }
+}
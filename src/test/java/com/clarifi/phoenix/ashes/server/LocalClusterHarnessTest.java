@@ -0,0 +1,70 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Boots the harness with one in-process server node and the API server joined to it.
+ */
+public class LocalClusterHarnessTest {
+    private LocalClusterHarness harness;
+    private int httpPort;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            httpPort = socket.getLocalPort();
+        }
+        harness = new LocalClusterHarness(1, false);
+        harness.start(httpPort);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (harness != null) {
+            harness.close();
+        }
+    }
+
+    @Test
+    public void apiServerJoinsTheLocalCluster() throws IOException {
+        assertEquals("127.0.0.1:47600..47600", harness.discoveryAddresses());
+        assertTrue(harness.getStartupMillis() > 0);
+        assertEquals(200, get("/health/ready"));
+        assertEquals(404, get(ServerApp.PATH_API2 + "/data-session/get/" + UUID.randomUUID() + "?userId=harness-user-0"));
+    }
+
+    @Test
+    public void closeRemovesTheWorkDirectories() throws IOException {
+        final Path workRoot = harness.getWorkRoot();
+        assertTrue(Files.isDirectory(workRoot.resolve("server-0")));
+
+        harness.close();
+        harness = null;
+
+        assertFalse(Files.exists(workRoot));
+    }
+
+    private int get(final String path) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://127.0.0.1:" + httpPort + path).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrecompressedPayloadCacheTest {
+    @Test
+    public void onePayloadMayUseTheWholeBudget() {
+        final PrecompressedPayloadCache cache = new PrecompressedPayloadCache(1_000);
+        cache.put("large", new byte[1_000]);
+        assertNotNull(cache.get("large"));
+        assertEquals(1_000, cache.size());
+
+        cache.put("too-large", new byte[1_001]);
+        assertNull(cache.get("too-large"));
+    }
+
+    @Test
+    public void staysWithinTheBudgetAndKeepsTheNewestEntry() {
+        final PrecompressedPayloadCache cache = new PrecompressedPayloadCache(1_000);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key-" + i, new byte[150]);
+            assertNotNull(cache.get("key-" + i));
+            assertTrue(cache.size() <= 1_000);
+        }
+        assertNull(cache.get("key-0"));
+    }
+
+    @Test
+    public void replacingAnEntryCountsOnlyTheNewSize() {
+        final PrecompressedPayloadCache cache = new PrecompressedPayloadCache(1_000);
+        cache.put("key", new byte[600]);
+        cache.put("key", new byte[200]);
+        assertEquals(200, cache.size());
+    }
+}
@@ -0,0 +1,64 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    @Test
+    public void allowsTheBurstThenAsksToWait() {
+        final RateLimiter limiter = new RateLimiter(1, 3, 100);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("request " + i, 0, limiter.tryAcquire("alice"));
+        }
+        final long wait = limiter.tryAcquire("alice");
+        assertTrue(wait > 0);
+        assertTrue(wait <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void usersHaveSeparateBuckets() {
+        final RateLimiter limiter = new RateLimiter(1, 0, 100);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+        assertEquals(0, limiter.tryAcquire("bob"));
+    }
+
+    @Test
+    public void refillsAtTheSustainedRate() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(100, 0, 100);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+        Thread.sleep(20);
+        assertEquals(0, limiter.tryAcquire("alice"));
+    }
+
+    @Test
+    public void evictsOnlyFullBuckets() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(1, 0, 100);
+        limiter.tryAcquire("alice");
+        assertEquals(0, limiter.evictIdle());
+        assertEquals(1, limiter.size());
+
+        final RateLimiter fast = new RateLimiter(1_000, 0, 100);
+        fast.tryAcquire("alice");
+        Thread.sleep(5);
+        assertEquals(1, fast.evictIdle());
+        assertEquals(0, fast.size());
+    }
+
+    @Test
+    public void unknownUsersShareTheOverflowBucketWhenFull() {
+        final RateLimiter limiter = new RateLimiter(1, 0, 2);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertEquals(0, limiter.tryAcquire("bob"));
+
+        //-- Both buckets are in use, so new ids cannot grow the map and share one bucket
+        assertEquals(0, limiter.tryAcquire("mallory-1"));
+        assertTrue(limiter.tryAcquire("mallory-2") > 0);
+        assertEquals(2, limiter.size());
+    }
+}
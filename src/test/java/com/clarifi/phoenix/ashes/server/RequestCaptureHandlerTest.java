@@ -0,0 +1,110 @@
+package com.clarifi.phoenix.ashes.server;
+
+import com.clarifi.phoenix.ashes.loadgen.CapturedRequest;
+import com.clarifi.phoenix.ashes.loadgen.LoadGenerator;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.StatusCodes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RequestCaptureHandlerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private RequestCaptureHandler capture;
+    private Undertow server;
+    private int port;
+    private boolean stopped;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("capture.jsonl");
+        capture = new RequestCaptureHandler(file, 1.0, Handlers.routing()
+                .get("/sessions/{id}", new ResponseCodeHandler(StatusCodes.OK))
+                .put("/sessions/{id}", new ResponseCodeHandler(StatusCodes.CREATED)));
+        server = Undertow.builder()
+                .addHttpListener(0, "127.0.0.1")
+                .setHandler(capture)
+                .build();
+        server.start();
+        port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    @After
+    public void tearDown() {
+        closeCapture();
+    }
+
+    @Test
+    public void capturesReadsAndWritesThemOutOnClose() throws IOException {
+        assertEquals(200, send("GET", "/sessions/s1?userId=u1", "\"v1\""));
+        assertEquals(200, send("GET", "/sessions/s2?userId=u1", null));
+
+        closeCapture();
+
+        final List<CapturedRequest> requests = LoadGenerator.load(file);
+        assertEquals(2, requests.size());
+        assertEquals("GET", requests.get(0).getMethod());
+        assertEquals("/sessions/{id}", requests.get(0).getRoute());
+        assertEquals("/sessions/s1?userId=u1", requests.get(0).getPath());
+        assertEquals("\"v1\"", requests.get(0).getHeaders().get("If-None-Match"));
+        assertEquals(200, requests.get(0).getStatus());
+        assertEquals("/sessions/s2?userId=u1", requests.get(1).getPath());
+    }
+
+    @Test
+    public void doesNotCaptureWritesWhoseBodyItCannotReplay() throws IOException {
+        assertEquals(201, send("PUT", "/sessions/s1?userId=u1", null));
+
+        closeCapture();
+
+        assertFalse(LoadGenerator.load(file).iterator().hasNext());
+    }
+
+    private void closeCapture() {
+        //-- The completion listener that queues a request may still be running after the client has its response
+        if (!stopped) {
+            stopped = true;
+            server.stop();
+            capture.close();
+        }
+    }
+
+    private int send(final String method, final String path, final String ifNoneMatch) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if ("PUT".equals(method)) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write('{');
+                out.write('}');
+            }
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class RequestFlightRecorderTest {
+    @Test
+    public void recentIsNewestFirstWithinTheLimit() {
+        final RequestFlightRecorder recorder = new RequestFlightRecorder(16, 3, 15);
+        for (int i = 1; i <= 5; i++) {
+            record(recorder, i);
+        }
+
+        final List<RequestFlightRecorder.Summary> recent = recorder.recent(3);
+        assertEquals(3, recent.size());
+        assertEquals(5, recent.get(0).totalNanos);
+        assertEquals(3, recent.get(2).totalNanos);
+
+        assertEquals(5, recorder.recent(100).size());
+        assertTrue(recorder.recent(-1).isEmpty());
+    }
+
+    @Test
+    public void ringKeepsOnlyItsCapacity() {
+        final RequestFlightRecorder recorder = new RequestFlightRecorder(4, 3, 15);
+        for (int i = 1; i <= 10; i++) {
+            record(recorder, i);
+        }
+
+        final List<RequestFlightRecorder.Summary> recent = recorder.recent(100);
+        assertEquals(4, recent.size());
+        assertEquals(10, recent.get(0).totalNanos);
+        assertEquals(7, recent.get(3).totalNanos);
+    }
+
+    @Test
+    public void keepsTheSlowestOfTheMinute() {
+        final RequestFlightRecorder recorder = new RequestFlightRecorder(16, 3, 15);
+        final long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+        for (int i : new int[] {4, 9, 1, 10, 2, 8, 3}) {
+            record(recorder, i);
+        }
+        //-- A minute rolling over in between splits the ranking
+        assumeTrue(minute == TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis()));
+
+        final List<RequestFlightRecorder.Minute> minutes = recorder.slowest();
+        assertEquals(1, minutes.size());
+        final List<Long> totals = new ArrayList<>();
+        for (RequestFlightRecorder.Summary summary : minutes.get(0).slowest) {
+            totals.add(summary.totalNanos);
+        }
+        assertEquals(Arrays.asList(10L, 9L, 8L), totals);
+    }
+
+    @Test
+    public void readersNeverSeeHalfWrittenSlots() throws InterruptedException {
+        assertSlotsAreWholeUnder(new RequestFlightRecorder(64, 3, 15), 4);
+    }
+
+    @Test
+    public void writersLappedByTheRingNeverShareASlot() throws InterruptedException {
+        //-- More writers than slots, so the ring wraps while writers are still in their slots
+        assertSlotsAreWholeUnder(new RequestFlightRecorder(2, 3, 15), 8);
+    }
+
+    private static void assertSlotsAreWholeUnder(final RequestFlightRecorder recorder, final int writerCount)
+            throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < writerCount; t++) {
+            final Thread writer = new Thread(() -> {
+                long i = 0;
+                while (running.get()) {
+                    record(recorder, ++i);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            while (System.nanoTime() < deadline) {
+                for (RequestFlightRecorder.Summary summary : recorder.recent(64)) {
+                    //-- Every field of a slot is derived from the same value
+                    assertEquals("route-" + summary.totalNanos, summary.route);
+                    assertEquals((int) summary.totalNanos, summary.bytes);
+                    assertEquals(summary.totalNanos, summary.igniteNanos);
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+
+    private static void record(final RequestFlightRecorder recorder, final long value) {
+        recorder.record("route-" + value, "user", 200, (int) value, value, 0, 0, value);
+    }
+}
@@ -0,0 +1,135 @@
+package com.clarifi.phoenix.ashes.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+        final CompletableFuture<Integer> load = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(flight.execute("a", () -> {
+                calls.incrementAndGet();
+                return load;
+            }));
+        }
+        load.complete(42);
+
+        assertEquals(1, calls.get());
+        for (CompletableFuture<Integer> result : results) {
+            assertEquals(42, (int) result.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, flight.getStarted());
+        assertEquals(9, flight.getCoalesced());
+    }
+
+    @Test
+    public void differentKeysDoNotShare() {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+        final CompletableFuture<Integer> a = flight.execute("a", CompletableFuture::new);
+        final CompletableFuture<Integer> b = flight.execute("b", CompletableFuture::new);
+
+        assertNotSame(a, b);
+        assertEquals(2, flight.getStarted());
+        assertEquals(0, flight.getCoalesced());
+    }
+
+    @Test
+    public void callersAfterCompletionStartAFreshCall() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CompletableFuture<Integer> first = flight.execute("a",
+                () -> CompletableFuture.completedFuture(calls.incrementAndGet()));
+        final CompletableFuture<Integer> second = flight.execute("a",
+                () -> CompletableFuture.completedFuture(calls.incrementAndGet()));
+
+        assertEquals(1, (int) first.get());
+        assertEquals(2, (int) second.get());
+        assertEquals(0, flight.getCoalesced());
+    }
+
+    @Test
+    public void failuresReachEveryCallerAndReleaseTheKey() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+        final CompletableFuture<Integer> load = new CompletableFuture<>();
+
+        final CompletableFuture<Integer> leader = flight.execute("a", () -> load);
+        final CompletableFuture<Integer> follower = flight.execute("a", () -> load);
+        assertSame(leader, follower);
+
+        load.completeExceptionally(new IllegalStateException("boom"));
+        try {
+            follower.get(1, TimeUnit.SECONDS);
+            fail("The follower should see the leader's failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(7, (int) flight.execute("a", () -> CompletableFuture.completedFuture(7)).get());
+    }
+
+    @Test
+    public void aThrowingSupplierFailsTheCallAndReleasesTheKey() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+
+        final CompletableFuture<Integer> failed = flight.execute("a", () -> {
+            throw new IllegalArgumentException("no");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+
+        assertEquals(1, (int) flight.execute("a", () -> CompletableFuture.completedFuture(1)).get());
+    }
+
+    @Test
+    public void manyThreadsOnOneKeyStartFewCalls() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<>();
+        final ExecutorService threads = Executors.newFixedThreadPool(16);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CompletableFuture<Integer> load = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final List<CompletableFuture<CompletableFuture<Integer>>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return flight.execute("a", () -> {
+                    calls.incrementAndGet();
+                    return load;
+                });
+            }, threads));
+        }
+        start.countDown();
+        for (CompletableFuture<CompletableFuture<Integer>> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        load.complete(1);
+        threads.shutdown();
+
+        assertEquals(1, calls.get());
+        assertEquals(63, flight.getCoalesced());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ignite.spi.tracing.opencensus;
+
+import io.opencensus.trace.SpanContext;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Reuse of serialized span contexts and the cache of parsed remote contexts.
+ */
+public class OpenCensusTracingSpiTest {
+    /** */
+    private OpenCensusTracingSpi spi;
+
+    /** */
+    @After
+    public void tearDown() {
+        if (spi != null)
+            spi.spiStop();
+    }
+
+    /** */
+    @Test
+    public void testSpanIsSerializedOnce() {
+        start(OpenCensusTracingSpi.DFLT_REMOTE_CTX_CACHE_SIZE);
+
+        OpenCensusSpanAdapter span = spi.create("parent", (OpenCensusSpanAdapter)null);
+
+        byte[] first = spi.serialize(span);
+
+        assertSame(first, spi.serialize(span));
+
+        span.end();
+    }
+
+    /** */
+    @Test
+    public void testRemoteContextIsParsedOnce() throws Exception {
+        start(OpenCensusTracingSpi.DFLT_REMOTE_CTX_CACHE_SIZE);
+
+        OpenCensusSpanAdapter parent = spi.create("parent", (OpenCensusSpanAdapter)null);
+
+        byte[] serialized = spi.serialize(parent);
+
+        // Every message carries its own copy of the bytes.
+        SpanContext ctx = spi.remoteContext(serialized.clone());
+
+        assertSame(ctx, spi.remoteContext(serialized.clone()));
+        assertEquals(parent.impl().getContext(), ctx);
+
+        OpenCensusSpanAdapter child = spi.create("child", serialized.clone());
+
+        assertEquals(parent.impl().getContext().getTraceId(), child.impl().getContext().getTraceId());
+
+        child.end();
+        parent.end();
+    }
+
+    /** */
+    @Test
+    public void testCachedContextSurvivesChangesToTheMessage() throws Exception {
+        start(OpenCensusTracingSpi.DFLT_REMOTE_CTX_CACHE_SIZE);
+
+        OpenCensusSpanAdapter parent = spi.create("parent", (OpenCensusSpanAdapter)null);
+
+        byte[] serialized = spi.serialize(parent);
+        byte[] msg = serialized.clone();
+
+        SpanContext ctx = spi.remoteContext(msg);
+
+        msg[msg.length - 1] ^= 1;
+
+        assertSame(ctx, spi.remoteContext(serialized.clone()));
+        assertArrayEquals(serialized, spi.serialize(parent));
+
+        parent.end();
+    }
+
+    /** */
+    @Test
+    public void testCollidingContextsReplaceEachOther() throws Exception {
+        start(1);
+
+        OpenCensusSpanAdapter a = spi.create("a", (OpenCensusSpanAdapter)null);
+        OpenCensusSpanAdapter b = spi.create("b", (OpenCensusSpanAdapter)null);
+
+        SpanContext ctxA = spi.remoteContext(spi.serialize(a).clone());
+        SpanContext ctxB = spi.remoteContext(spi.serialize(b).clone());
+
+        assertNotEquals(ctxA, ctxB);
+        assertEquals(a.impl().getContext(), spi.remoteContext(spi.serialize(a).clone()));
+        assertEquals(b.impl().getContext(), ctxB);
+
+        a.end();
+        b.end();
+    }
+
+    /** */
+    @Test
+    public void testDisabledCacheStillParses() throws Exception {
+        start(0);
+
+        OpenCensusSpanAdapter parent = spi.create("parent", (OpenCensusSpanAdapter)null);
+
+        byte[] serialized = spi.serialize(parent);
+
+        SpanContext ctx = spi.remoteContext(serialized.clone());
+
+        assertEquals(parent.impl().getContext(), ctx);
+        assertNotSame(ctx, spi.remoteContext(serialized.clone()));
+
+        parent.end();
+    }
+
+    /**
+     * Starts {@link #spi} on the JVM's OpenCensus tracing.
+     *
+     * @param cacheSize Number of parsed remote contexts kept.
+     */
+    private void start(int cacheSize) {
+        spi = new OpenCensusTracingSpi().setRemoteContextCacheSize(cacheSize);
+
+        spi.spiStart("test");
+    }
+}